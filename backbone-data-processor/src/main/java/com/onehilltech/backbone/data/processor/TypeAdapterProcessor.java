@@ -0,0 +1,342 @@
+package com.onehilltech.backbone.data.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * @class TypeAdapterProcessor
+ *
+ * Annotation processor that generates a Gson TypeAdapter for each data model that is
+ * a DBFlow table. The generated adapter reads and writes the fields of the model
+ * directly, and matches the field names (including the SerializedName alternates)
+ * with a switch statement instead of a map lookup.
+ *
+ * The adapter is only generated if the data model can be created and accessed from
+ * outside its class (i.e., it has a public default constructor and public fields).
+ * Otherwise, the data model continues to use the reflection-based adapter.
+ */
+@SupportedAnnotationTypes (TypeAdapterProcessor.TABLE_ANNOTATION)
+public class TypeAdapterProcessor extends AbstractProcessor
+{
+  static final String TABLE_ANNOTATION = "com.raizlabs.android.dbflow.annotation.Table";
+
+  private static final String DATA_MODEL = "com.onehilltech.backbone.data.DataModel";
+
+  private static final String GENERATED_TYPE_ADAPTER = "com.onehilltech.backbone.data.GeneratedTypeAdapter";
+
+  private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+
+  private static final String SUFFIX = "_TypeAdapter";
+
+  /**
+   * A field of the data model, and its names in the JSON object.
+   */
+  private static class ModelField
+  {
+    private final String name_;
+
+    private final String serializedName_;
+
+    private final List <String> alternates_;
+
+    private final TypeMirror type_;
+
+    ModelField (String name, String serializedName, List <String> alternates, TypeMirror type)
+    {
+      this.name_ = name;
+      this.serializedName_ = serializedName;
+      this.alternates_ = alternates;
+      this.type_ = type;
+    }
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion ()
+  {
+    return SourceVersion.latestSupported ();
+  }
+
+  @Override
+  public boolean process (Set <? extends TypeElement> annotations, RoundEnvironment roundEnv)
+  {
+    TypeElement dataModel = this.processingEnv.getElementUtils ().getTypeElement (DATA_MODEL);
+
+    if (dataModel == null)
+      return false;
+
+    Types types = this.processingEnv.getTypeUtils ();
+    TypeMirror dataModelType = types.erasure (dataModel.asType ());
+
+    for (TypeElement annotation: annotations)
+    {
+      for (Element element: roundEnv.getElementsAnnotatedWith (annotation))
+      {
+        if (element.getKind () != ElementKind.CLASS)
+          continue;
+
+        TypeElement modelElement = (TypeElement)element;
+
+        if (!types.isAssignable (types.erasure (modelElement.asType ()), dataModelType))
+          continue;
+
+        List <ModelField> fields = this.getFields (modelElement);
+
+        if (fields == null)
+          continue;
+
+        try
+        {
+          this.generate (modelElement, fields);
+        }
+        catch (IOException e)
+        {
+          this.processingEnv.getMessager ()
+                            .printMessage (Diagnostic.Kind.ERROR, "Failed to generate type adapter: " + e.getMessage (), element);
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Get the fields of the data model, or null if the data model cannot be accessed
+   * by the generated adapter.
+   */
+  private List <ModelField> getFields (TypeElement modelElement)
+  {
+    if (!this.isAccessible (modelElement) || !this.hasDefaultConstructor (modelElement))
+      return null;
+
+    ArrayList <ModelField> fields = new ArrayList<> ();
+
+    for (VariableElement field: ElementFilter.fieldsIn (modelElement.getEnclosedElements ()))
+    {
+      Set <Modifier> modifiers = field.getModifiers ();
+
+      if (modifiers.contains (Modifier.STATIC))
+        continue;
+
+      if (!modifiers.contains (Modifier.PUBLIC) || modifiers.contains (Modifier.FINAL))
+      {
+        this.processingEnv.getMessager ()
+                          .printMessage (Diagnostic.Kind.NOTE,
+                                         "Using reflection for " + modelElement.getSimpleName () + " since " + field.getSimpleName () + " is not a public, non-final field",
+                                         modelElement);
+        return null;
+      }
+
+      String name = field.getSimpleName ().toString ();
+      String serializedName = name;
+      List <String> alternates = Collections.emptyList ();
+
+      for (AnnotationMirror mirror: field.getAnnotationMirrors ())
+      {
+        if (!mirror.getAnnotationType ().toString ().equals (SERIALIZED_NAME))
+          continue;
+
+        for (Map.Entry <? extends ExecutableElement, ? extends AnnotationValue> entry: mirror.getElementValues ().entrySet ())
+        {
+          String key = entry.getKey ().getSimpleName ().toString ();
+
+          if (key.equals ("value"))
+          {
+            serializedName = (String)entry.getValue ().getValue ();
+          }
+          else if (key.equals ("alternate"))
+          {
+            alternates = new ArrayList<> ();
+
+            for (Object value: (List <?>)entry.getValue ().getValue ())
+              alternates.add ((String)((AnnotationValue)value).getValue ());
+          }
+        }
+      }
+
+      fields.add (new ModelField (name, serializedName, alternates, field.asType ()));
+    }
+
+    return fields;
+  }
+
+  private boolean isAccessible (TypeElement modelElement)
+  {
+    Element element = modelElement;
+
+    while (element instanceof TypeElement)
+    {
+      TypeElement typeElement = (TypeElement)element;
+
+      if (!typeElement.getModifiers ().contains (Modifier.PUBLIC))
+        return false;
+
+      if (typeElement.getNestingKind () == NestingKind.MEMBER && !typeElement.getModifiers ().contains (Modifier.STATIC))
+        return false;
+
+      element = element.getEnclosingElement ();
+    }
+
+    return !modelElement.getModifiers ().contains (Modifier.ABSTRACT);
+  }
+
+  private boolean hasDefaultConstructor (TypeElement modelElement)
+  {
+    List <ExecutableElement> constructors = ElementFilter.constructorsIn (modelElement.getEnclosedElements ());
+
+    for (ExecutableElement constructor: constructors)
+    {
+      if (constructor.getParameters ().isEmpty () && constructor.getModifiers ().contains (Modifier.PUBLIC))
+        return true;
+    }
+
+    return false;
+  }
+
+  private void generate (TypeElement modelElement, List <ModelField> fields)
+      throws IOException
+  {
+    Types types = this.processingEnv.getTypeUtils ();
+
+    PackageElement packageElement = this.processingEnv.getElementUtils ().getPackageOf (modelElement);
+    String packageName = packageElement.getQualifiedName ().toString ();
+    String modelName = modelElement.getQualifiedName ().toString ();
+    String adapterName = getFlatName (modelElement) + SUFFIX;
+    String qualifiedName = packageName.isEmpty () ? adapterName : packageName + "." + adapterName;
+
+    JavaFileObject sourceFile = this.processingEnv.getFiler ().createSourceFile (qualifiedName, modelElement);
+
+    try (PrintWriter out = new PrintWriter (sourceFile.openWriter ()))
+    {
+      if (!packageName.isEmpty ())
+        out.printf ("package %s;%n%n", packageName);
+
+      out.printf ("/**%n * Generated by %s. Do not modify.%n */%n", TypeAdapterProcessor.class.getName ());
+      out.printf ("@SuppressWarnings ({\"unchecked\", \"rawtypes\"})%n");
+      out.printf ("public final class %s extends %s <%s>%n{%n", adapterName, GENERATED_TYPE_ADAPTER, modelName);
+
+      // Declare the field adapters.
+      for (ModelField field: fields)
+        out.printf ("  private final com.google.gson.TypeAdapter <%s> %s;%n%n", boxed (types, field.type_), adapterField (field));
+
+      // Initialize the field adapters in the constructor.
+      out.printf ("  public %s (com.google.gson.Gson gson)%n  {%n    super (gson);%n", adapterName);
+
+      if (!fields.isEmpty ())
+        out.printf ("%n");
+
+      for (ModelField field: fields)
+        out.printf ("    this.%s = this.getFieldAdapter (%s.class);%n", adapterField (field), types.erasure (field.type_));
+
+      out.printf ("  }%n%n");
+
+      // Write the fields in declaration order.
+      out.printf ("  @Override%n");
+      out.printf ("  public void write (com.google.gson.stream.JsonWriter out, %s value)%n      throws java.io.IOException%n  {%n", modelName);
+      out.printf ("    out.beginObject ();%n");
+
+      for (ModelField field: fields)
+      {
+        out.printf ("%n    out.name (\"%s\");%n", escape (field.serializedName_));
+
+        if (field.type_.getKind ().isPrimitive ())
+        {
+          out.printf ("    this.%s.write (out, value.%s);%n", adapterField (field), field.name_);
+        }
+        else
+        {
+          out.printf ("%n    if (value.%s != null)%n", field.name_);
+          out.printf ("      this.%s.write (out, value.%s);%n", adapterField (field), field.name_);
+          out.printf ("    else%n      out.nullValue ();%n");
+        }
+      }
+
+      out.printf ("%n    out.endObject ();%n  }%n%n");
+
+      // Read the fields by switching on the field name.
+      out.printf ("  @Override%n");
+      out.printf ("  public %s read (com.google.gson.stream.JsonReader in)%n      throws java.io.IOException%n  {%n", modelName);
+      out.printf ("    %s model = new %s ();%n%n", modelName, modelName);
+      out.printf ("    in.beginObject ();%n%n");
+      out.printf ("    while (in.hasNext ())%n    {%n");
+      out.printf ("      switch (in.nextName ())%n      {%n");
+
+      for (ModelField field: fields)
+      {
+        out.printf ("        case \"%s\":%n", escape (field.serializedName_));
+
+        for (String alternate: field.alternates_)
+          out.printf ("        case \"%s\":%n", escape (alternate));
+
+        out.printf ("          model.%s = this.%s.read (in);%n", field.name_, adapterField (field));
+        out.printf ("          break;%n%n");
+      }
+
+      out.printf ("        default:%n          in.skipValue ();%n      }%n    }%n%n");
+      out.printf ("    in.endObject ();%n%n");
+      out.printf ("    return model;%n  }%n}%n");
+    }
+  }
+
+  /**
+   * Get the name of the class with the names of its enclosing classes, separated by
+   * an underscore.
+   */
+  private static String getFlatName (TypeElement element)
+  {
+    StringBuilder builder = new StringBuilder (element.getSimpleName ());
+    Element enclosing = element.getEnclosingElement ();
+
+    while (enclosing instanceof TypeElement)
+    {
+      builder.insert (0, '_').insert (0, enclosing.getSimpleName ());
+      enclosing = enclosing.getEnclosingElement ();
+    }
+
+    return builder.toString ();
+  }
+
+  private static String boxed (Types types, TypeMirror type)
+  {
+    TypeMirror erased = types.erasure (type);
+
+    if (erased.getKind ().isPrimitive ())
+      return types.boxedClass (types.getPrimitiveType (erased.getKind ())).getQualifiedName ().toString ();
+
+    return erased.toString ();
+  }
+
+  private static String adapterField (ModelField field)
+  {
+    return field.name_ + "Adapter_";
+  }
+
+  private static String escape (String value)
+  {
+    return value.replace ("\\", "\\\\").replace ("\"", "\\\"");
+  }
+}
@@ -0,0 +1,131 @@
+package com.onehilltech.backbone.data;
+
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.User;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+@RunWith (AndroidJUnit4.class)
+public class BulkFetchTest extends DataStoreTestCase
+{
+  @Test
+  public void testGetManyChunks () throws Exception
+  {
+    this.dataStore_.close ();
+    this.dataStore_ = this.newBuilder ().setBulkFetchLimit (2).build ();
+
+    this.server_.setDispatcher (new UserDispatcher (1, 2, 3));
+
+    // The server does not have the last id, and the duplicate id is only requested once.
+    Map <Object, User> users = await (this.dataStore_.getMany (User.class, Arrays.asList (1, 2, 2, 3, 5)));
+
+    Assert.assertEquals (3, users.size ());
+    Assert.assertEquals (1, users.get (1)._id);
+    Assert.assertEquals (2, users.get (2)._id);
+    Assert.assertEquals (3, users.get (3)._id);
+    Assert.assertFalse (users.containsKey (5));
+
+    // The chunks are requested in parallel, so they can arrive in any order.
+    Assert.assertEquals (2, this.server_.getRequestCount ());
+
+    HashSet <String> chunks = new HashSet<> ();
+    chunks.add (getIds (this.server_.takeRequest ()));
+    chunks.add (getIds (this.server_.takeRequest ()));
+
+    Assert.assertEquals (new HashSet<> (Arrays.asList ("1,2", "3,5")), chunks);
+
+    // The models of all the chunks are in the local database.
+    Assert.assertEquals (3, await (this.dataStore_.peek (User.class)).size ());
+  }
+
+  @Test
+  public void testPeekMany () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    await (this.dataStore_.push (User.class, new User (2, "Jane", "Doe")));
+
+    // The ids are keyed by the value passed in, even if its type is not the type of
+    // the id column.
+    Map <Object, User> users = await (this.dataStore_.peekMany (User.class, Arrays.asList (1L, 2, 9)));
+
+    Assert.assertEquals (2, users.size ());
+    Assert.assertEquals ("John", users.get (1L).firstName);
+    Assert.assertEquals ("Jane", users.get (2).firstName);
+    Assert.assertFalse (users.containsKey (9));
+  }
+
+  @Test
+  public void testPeekManyChunks () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    await (this.dataStore_.push (User.class, new User (DataStore.MAX_SQL_VARIABLES + 1, "Jane", "Doe")));
+
+    // The ids do not fit in a single IN clause, so the last model is in the second chunk.
+    List <Long> ids = new ArrayList<> ();
+
+    for (long id = 1; id <= DataStore.MAX_SQL_VARIABLES + 2; ++ id)
+      ids.add (id);
+
+    Map <Object, User> users = await (this.dataStore_.peekMany (User.class, ids));
+
+    Assert.assertEquals (2, users.size ());
+    Assert.assertEquals ("John", users.get (1L).firstName);
+    Assert.assertEquals ("Jane", users.get ((long)DataStore.MAX_SQL_VARIABLES + 1).firstName);
+  }
+
+  private static String getIds (RecordedRequest request)
+  {
+    return Uri.parse (request.getPath ()).getQueryParameter ("_id");
+  }
+
+  /**
+   * Serve the users in the id list of a request that exist on the server.
+   */
+  private static class UserDispatcher extends Dispatcher
+  {
+    private final HashSet <String> ids_ = new HashSet<> ();
+
+    UserDispatcher (long... ids)
+    {
+      for (long id: ids)
+        this.ids_.add (Long.toString (id));
+    }
+
+    @Override
+    public MockResponse dispatch (RecordedRequest request)
+    {
+      Uri uri = Uri.parse (request.getPath ());
+
+      if (!"/users".equals (uri.getPath ()))
+        return new MockResponse ().setResponseCode (404);
+
+      StringBuilder users = new StringBuilder ();
+
+      for (String id: uri.getQueryParameter ("_id").split (","))
+      {
+        if (!this.ids_.contains (id))
+          continue;
+
+        if (users.length () > 0)
+          users.append (", ");
+
+        users.append ("{\"_id\": ").append (id).append (", \"first_name\": \"User\", \"last_name\": \"").append (id).append ("\"}");
+      }
+
+      return new MockResponse ().setBody ("{\"users\": [" + users + "]}");
+    }
+  }
+}
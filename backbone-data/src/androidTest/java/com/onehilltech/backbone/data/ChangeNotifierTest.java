@@ -0,0 +1,203 @@
+package com.onehilltech.backbone.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.Book;
+import com.onehilltech.backbone.data.fixtures.User;
+import com.raizlabs.android.dbflow.runtime.FlowContentObserver;
+import com.raizlabs.android.dbflow.sql.language.NameAlias;
+import com.raizlabs.android.dbflow.sql.language.SQLOperator;
+import com.raizlabs.android.dbflow.structure.BaseModel;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith (AndroidJUnit4.class)
+public class ChangeNotifierTest extends DataStoreTestCase
+{
+  /**
+   * A notification received by the observer.
+   */
+  private static class Change
+  {
+    private final Class <?> table_;
+
+    private final BaseModel.Action action_;
+
+    private final int keyCount_;
+
+    Change (Class <?> table, BaseModel.Action action, SQLOperator [] primaryKeyValues)
+    {
+      this.table_ = table;
+      this.action_ = action;
+      this.keyCount_ = primaryKeyValues.length;
+    }
+  }
+
+  private final List <Change> changes_ = new ArrayList<> ();
+
+  private FlowContentObserver observer_;
+
+  private String contentAuthority_;
+
+  @Before
+  public void registerObserver ()
+  {
+    Context context = InstrumentationRegistry.getTargetContext ();
+    this.contentAuthority_ = context.getPackageName ();
+
+    this.observer_ = new FlowContentObserver (this.contentAuthority_);
+    this.observer_.addModelChangeListener ((table, action, primaryKeyValues) -> {
+      synchronized (this.changes_)
+      {
+        this.changes_.add (new Change (table, action, primaryKeyValues));
+        this.changes_.notifyAll ();
+      }
+    });
+
+    this.observer_.registerForContentChanges (context, User.class);
+    this.observer_.registerForContentChanges (context, Book.class);
+  }
+
+  @After
+  public void unregisterObserver ()
+  {
+    this.observer_.unregisterForContentChanges (InstrumentationRegistry.getTargetContext ());
+  }
+
+  @Test
+  public void testWithoutDebounce () throws Exception
+  {
+    ChangeNotifier notifier = this.newNotifier (0);
+
+    // Each change is sent right away.
+    notifier.tableChanged (User.class);
+    notifier.tableChanged (User.class);
+
+    List <Change> changes = this.waitForChanges (2);
+    Assert.assertSame (User.class, changes.get (0).table_);
+    Assert.assertEquals (BaseModel.Action.CHANGE, changes.get (0).action_);
+  }
+
+  @Test
+  public void testDeleteNotification () throws Exception
+  {
+    ChangeNotifier notifier = this.newNotifier (0);
+
+    // A single deleted model keeps the notification for the model.
+    notifier.modelsDeleted (User.class, Collections.singletonList (1L));
+
+    Change change = this.waitForChanges (1).get (0);
+    Assert.assertEquals (BaseModel.Action.DELETE, change.action_);
+    Assert.assertEquals (1, change.keyCount_);
+
+    // Several deleted models are a change of the table.
+    notifier.modelsDeleted (User.class, Arrays.asList (2L, 3L));
+
+    change = this.waitForChanges (2).get (1);
+    Assert.assertEquals (BaseModel.Action.CHANGE, change.action_);
+    Assert.assertEquals (0, change.keyCount_);
+  }
+
+  @Test
+  public void testCoalescePerTable () throws Exception
+  {
+    ChangeNotifier notifier = this.newNotifier (500);
+
+    notifier.tableChanged (User.class);
+    notifier.modelsDeleted (User.class, Collections.singletonList (1L));
+    notifier.tableChanged (Book.class);
+    notifier.tableChanged (User.class);
+
+    // The changes are held for the debounce window.
+    Thread.sleep (100);
+    Assert.assertTrue (this.getChanges ().isEmpty ());
+
+    // Each table gets a single notification, in the order the tables first changed.
+    List <Change> changes = this.waitForChanges (2);
+    Assert.assertSame (User.class, changes.get (0).table_);
+    Assert.assertEquals (BaseModel.Action.CHANGE, changes.get (0).action_);
+    Assert.assertSame (Book.class, changes.get (1).table_);
+
+    Thread.sleep (600);
+    Assert.assertEquals (2, this.getChanges ().size ());
+  }
+
+  @Test
+  public void testFlush () throws Exception
+  {
+    ChangeNotifier notifier = this.newNotifier (60000);
+
+    notifier.tableChanged (User.class);
+    notifier.flush ();
+
+    Assert.assertSame (User.class, this.waitForChanges (1).get (0).table_);
+
+    // The flushed changes are not sent again at the end of the window, and a flush
+    // without pending changes does nothing.
+    notifier.flush ();
+    Thread.sleep (100);
+    Assert.assertEquals (1, this.getChanges ().size ());
+  }
+
+  @Test
+  public void testDataStoreDebounce () throws Exception
+  {
+    this.dataStore_.close ();
+    this.dataStore_ = this.newBuilder ().setNotificationDebounce (500).build ();
+
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    await (this.dataStore_.push (User.class, new User (2, "Jane", "Doe")));
+
+    // The transactions committed within the window produce a single notification.
+    List <Change> changes = this.waitForChanges (1);
+    Assert.assertSame (User.class, changes.get (0).table_);
+
+    Thread.sleep (600);
+    Assert.assertEquals (1, this.getChanges ().size ());
+  }
+
+  private ChangeNotifier newNotifier (long debounceWindow)
+  {
+    return new ChangeNotifier (this.contentAuthority_, NameAlias.of ("_id"), debounceWindow);
+  }
+
+  private List <Change> getChanges ()
+  {
+    synchronized (this.changes_)
+    {
+      return new ArrayList<> (this.changes_);
+    }
+  }
+
+  /**
+   * Wait until the observer has received a number of notifications.
+   */
+  private List <Change> waitForChanges (int count) throws Exception
+  {
+    long deadline = System.currentTimeMillis () + 5000;
+
+    synchronized (this.changes_)
+    {
+      while (this.changes_.size () < count)
+      {
+        long remaining = deadline - System.currentTimeMillis ();
+        Assert.assertTrue ("Expected " + count + " notifications", remaining > 0);
+
+        this.changes_.wait (remaining);
+      }
+
+      return new ArrayList<> (this.changes_);
+    }
+  }
+}
@@ -1,66 +1,78 @@
 package com.onehilltech.backbone.data;
 
-import android.support.test.InstrumentationRegistry;
-import android.support.test.runner.AndroidJUnit4;
-
 import com.onehilltech.backbone.data.fixtures.Book;
-import com.onehilltech.backbone.data.fixtures.TestDatabase;
 import com.onehilltech.backbone.data.fixtures.User;
 import com.onehilltech.backbone.data.fixtures.User_Table;
 import com.onehilltech.promises.Promise;
-import com.raizlabs.android.dbflow.config.FlowManager;
 import com.squareup.okhttp.mockwebserver.MockResponse;
-import com.squareup.okhttp.mockwebserver.MockWebServer;
 import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
 
-import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.onehilltech.promises.Promise.rejected;
 import static com.onehilltech.promises.Promise.resolved;
 
-@RunWith (AndroidJUnit4.class)
-public class DataStoreTest
+/**
+ * The tests run with the default executors of the data store, and again with a
+ * database executor and a callback executor.
+ */
+@RunWith (Parameterized.class)
+public class DataStoreTest extends DataStoreTestCase
 {
-  private DataStore dataStore_;
+  @Parameterized.Parameters (name = "{0}")
+  public static Collection <Object []> getParameters ()
+  {
+    return Arrays.asList (new Object [][] {
+        {"default executors", false},
+        {"custom executors", true}
+    });
+  }
 
-  private final Object lock_ = new Object ();
+  private final boolean useExecutors_;
 
-  private MockWebServer server_;
+  private final Object lock_ = new Object ();
 
   private boolean isComplete_;
 
-  private SimpleDispatcher dispatcher_;
+  public DataStoreTest (String name, boolean useExecutors)
+  {
+    this.useExecutors_ = useExecutors;
+  }
 
   @Before
-  public void setup () throws Exception
+  public void resetComplete ()
   {
     this.isComplete_ = false;
-
-    InstrumentationRegistry.getContext ().deleteDatabase (TestDatabase.NAME + ".db");
-    FlowManager.init (InstrumentationRegistry.getTargetContext ());
-
-    this.dispatcher_ = new SimpleDispatcher ();
-
-    this.server_ = new MockWebServer ();
-    this.server_.setDispatcher (this.dispatcher_);
-    this.server_.start ();
-
-    this.dataStore_ =
-        new DataStore.Builder (InstrumentationRegistry.getTargetContext (), TestDatabase.class)
-            .setBaseUrl (this.server_.getUrl ("/").toString ())
-            .build ();
   }
 
-  @After
-  public void teardown ()
+  @Override
+  protected DataStore.Builder newBuilder ()
   {
-    FlowManager.reset ();
+    DataStore.Builder builder = super.newBuilder ();
+
+    if (this.useExecutors_)
+    {
+      builder.setDatabaseExecutor (this.newExecutor ())
+             .setCallbackExecutor (this.newExecutor ());
+    }
+
+    return builder;
   }
 
   @Test
@@ -477,4 +489,449 @@ public class DataStoreTest
       this.lock_.wait ();
     }
   }
+
+  /**
+   * Test that a get that is not modified requests the model again, without the
+   * conditional headers, when the local copy no longer exists.
+   */
+  @Test
+  public void testGetNotModifiedWithoutLocalCopy () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ()
+        .setBody ("{\"user\": {\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}}")
+        .setHeader ("ETag", "1"));
+
+    this.dispatcher_.add ("/users/1", new MockResponse ()
+        .setResponseCode (304)
+        .setHeader ("ETag", "1"));
+
+    this.dispatcher_.add ("/users/1", new MockResponse ()
+        .setBody ("{\"user\": {\"_id\": 1, \"first_name\": \"Jane\", \"last_name\": \"Doe\"}}")
+        .setHeader ("ETag", "2"));
+
+    User user = await (this.dataStore_.get (User.class, 1));
+    await (this.dataStore_.remove (User.class, user));
+
+    User fresh = await (this.dataStore_.get (User.class, 1));
+    Assert.assertEquals ("Jane", fresh.firstName);
+    Assert.assertEquals (fresh, await (this.dataStore_.peek (User.class, 1)));
+
+    Assert.assertEquals (3, this.server_.getRequestCount ());
+    Assert.assertNull (this.server_.takeRequest ().getHeader ("If-None-Match"));
+    Assert.assertEquals ("1", this.server_.takeRequest ().getHeader ("If-None-Match"));
+    Assert.assertNull (this.server_.takeRequest ().getHeader ("If-None-Match"));
+  }
+  /**
+   * Test that a query that is not modified requests the list again, without the
+   * conditional headers, when part of the list no longer exists locally.
+   */
+  @Test
+  public void testQueryNotModifiedWithoutLocalCopy () throws Exception
+  {
+    this.dispatcher_.add ("/books", new MockResponse ()
+        .setBody ("{\"books\": [{\"_id\": 1, \"author\": 25, \"title\": \"Book Title\"}], \"users\": [{\"_id\": 25, \"first_name\": \"John\", \"last_name\": \"Doe\"}]}")
+        .setHeader ("ETag", "1"));
+
+    this.dispatcher_.add ("/books", new MockResponse ()
+        .setResponseCode (304)
+        .setHeader ("ETag", "1"));
+
+    this.dispatcher_.add ("/books", new MockResponse ()
+        .setBody ("{\"books\": [{\"_id\": 1, \"author\": 25, \"title\": \"New Title\"}], \"users\": [{\"_id\": 25, \"first_name\": \"John\", \"last_name\": \"Doe\"}]}")
+        .setHeader ("ETag", "2"));
+
+    HashMap <String, Object> query = new HashMap<> ();
+    query.put ("author", 25);
+
+    DataModelList <Book> books = await (this.dataStore_.query (Book.class, query));
+    Assert.assertEquals (1, books.size ());
+
+    // Remove one of the models of the cached response.
+    await (this.dataStore_.remove (Book.class, books.get (0)));
+
+    DataModelList <Book> fresh = await (this.dataStore_.query (Book.class, query));
+    Assert.assertEquals (1, fresh.size ());
+    Assert.assertEquals ("New Title", fresh.get (0).title);
+
+    Assert.assertEquals (3, this.server_.getRequestCount ());
+    Assert.assertNull (this.server_.takeRequest ().getHeader ("If-None-Match"));
+    Assert.assertEquals ("1", this.server_.takeRequest ().getHeader ("If-None-Match"));
+    Assert.assertNull (this.server_.takeRequest ().getHeader ("If-None-Match"));
+  }
+
+  @Test
+  public void testSync () throws Exception
+  {
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("{\"users\": [{\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}], \"meta\": {\"watermark\": \"10\"}}"));
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("{\"users\": [{\"_id\": 2, \"first_name\": \"Jane\", \"last_name\": \"Doe\"}], \"meta\": {\"watermark\": \"20\"}}"));
+
+    DataModelList <User> users = await (this.dataStore_.sync (User.class));
+    Assert.assertEquals (1, users.size ());
+
+    // The second sync only returns the changes since the first.
+    users = await (this.dataStore_.sync (User.class, null));
+    Assert.assertEquals (1, users.size ());
+    Assert.assertEquals (2, await (this.dataStore_.peek (User.class)).size ());
+
+    Assert.assertEquals ("/users", this.server_.takeRequest ().getPath ());
+    Assert.assertEquals ("/users?since=10", this.server_.takeRequest ().getPath ());
+  }
+
+  @Test
+  public void testSyncWatermarkPerQuery () throws Exception
+  {
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("{\"users\": [{\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}], \"meta\": {\"watermark\": \"10\"}}"));
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("{\"users\": [{\"_id\": 2, \"first_name\": \"Jane\", \"last_name\": \"Smith\"}], \"meta\": {\"watermark\": \"20\"}}"));
+
+    HashMap <String, Object> query = new HashMap<> ();
+    query.put ("last_name", "Smith");
+
+    await (this.dataStore_.sync (User.class));
+
+    // The watermark of the first sync does not apply to a different query.
+    await (this.dataStore_.sync (User.class, query));
+
+    Assert.assertEquals ("/users", this.server_.takeRequest ().getPath ());
+    Assert.assertEquals ("/users?last_name=Smith", this.server_.takeRequest ().getPath ());
+  }
+
+  @Test
+  public void testSyncTombstones () throws Exception
+  {
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("{\"users\": [{\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}, {\"_id\": 2, \"first_name\": \"Jane\", \"last_name\": \"Doe\"}], \"meta\": {\"watermark\": \"10\"}}"));
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("{\"users\": [], \"tombstones\": [{\"type\": \"user\", \"_id\": \"1\"}], \"meta\": {\"watermark\": \"20\"}}"));
+
+    await (this.dataStore_.sync (User.class));
+    Assert.assertEquals (2, await (this.dataStore_.peek (User.class)).size ());
+
+    await (this.dataStore_.sync (User.class));
+    Assert.assertNull (await (this.dataStore_.peek (User.class, 1)));
+    Assert.assertNotNull (await (this.dataStore_.peek (User.class, 2)));
+  }
+
+  @Test
+  public void testSyncRollback () throws Exception
+  {
+    this.dispatcher_.add ("/books", new MockResponse ().setBody ("{\"books\": [{\"_id\": 1, \"author\": 25, \"title\": \"Book Title\"}], \"users\": [{\"_id\": 25, \"first_name\": \"John\", \"last_name\": \"Doe\"}], \"meta\": {\"watermark\": \"10\"}}"));
+
+    // The author of the new book does not exist, so the sync fails after the tombstone
+    // is applied, and the whole sync must roll back.
+    this.dispatcher_.add ("/books", new MockResponse ().setBody ("{\"books\": [{\"_id\": 2, \"author\": 99, \"title\": \"New Title\"}], \"tombstones\": [{\"type\": \"book\", \"_id\": \"1\"}], \"meta\": {\"watermark\": \"20\"}}"));
+    this.dispatcher_.add ("/books", new MockResponse ().setBody ("{\"books\": [], \"meta\": {\"watermark\": \"10\"}}"));
+
+    await (this.dataStore_.sync (Book.class));
+    awaitRejection (this.dataStore_.sync (Book.class));
+
+    Assert.assertNotNull (await (this.dataStore_.peek (Book.class, 1)));
+    Assert.assertNull (await (this.dataStore_.peek (Book.class, 2)));
+
+    // The watermark of the failed sync was not saved.
+    await (this.dataStore_.sync (Book.class));
+
+    Assert.assertEquals ("/books", this.server_.takeRequest ().getPath ());
+    Assert.assertEquals ("/books?since=10", this.server_.takeRequest ().getPath ());
+    Assert.assertEquals ("/books?since=10", this.server_.takeRequest ().getPath ());
+  }
+
+  @Test
+  public void testStream () throws Exception
+  {
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("{\"users\": [{\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}, {\"_id\": 2, \"first_name\": \"Jane\", \"last_name\": \"Doe\"}]}"));
+
+    List <User> loaded = Collections.synchronizedList (new ArrayList<> ());
+    int count = await (this.dataStore_.stream (User.class, loaded::addAll));
+
+    Assert.assertEquals (2, count);
+    Assert.assertEquals (2, loaded.size ());
+    Assert.assertEquals (2, await (this.dataStore_.peek (User.class)).size ());
+  }
+
+  @Test
+  public void testDeleteMany () throws Exception
+  {
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("true"));
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("false"));
+
+    User user1 = await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    User user2 = await (this.dataStore_.push (User.class, new User (2, "Jane", "Doe")));
+    User user3 = await (this.dataStore_.push (User.class, new User (3, "Jack", "Doe")));
+
+    Assert.assertTrue (await (this.dataStore_.deleteMany (User.class, Arrays.asList (user1, user2))));
+    Assert.assertNull (await (this.dataStore_.peek (User.class, 1)));
+    Assert.assertNull (await (this.dataStore_.peek (User.class, 2)));
+
+    // The server did not delete the model, so it stays in the local database.
+    Assert.assertFalse (await (this.dataStore_.deleteMany (User.class, Collections.singletonList (user3))));
+    Assert.assertNotNull (await (this.dataStore_.peek (User.class, 3)));
+
+    RecordedRequest request = this.server_.takeRequest ();
+    Assert.assertEquals ("DELETE", request.getMethod ());
+    Assert.assertTrue (request.getPath ().startsWith ("/users?_id="));
+  }
+
+  @Test
+  public void testTransactionFailure () throws Exception
+  {
+    // The author is neither in the response nor in the local database, so inserting
+    // the book violates its foreign key.
+    this.dispatcher_.add ("/books/1", new MockResponse ().setBody ("{\"book\": {\"_id\": 1, \"author\": 99, \"title\": \"Book Title\"}}"));
+
+    awaitRejection (this.dataStore_.get (Book.class, 1));
+    Assert.assertNull (await (this.dataStore_.peek (Book.class, 1)));
+  }
+
+  @Test
+  public void testGetCancelledBeforeRequest () throws Exception
+  {
+    CancellationToken token = new CancellationToken ();
+    token.cancel ();
+
+    RequestOptions options = new RequestOptions ().setCancellationToken (token);
+    Throwable reason = awaitRejection (this.dataStore_.get (User.class, 1, null, options));
+
+    Assert.assertTrue (reason instanceof CancellationException);
+    Assert.assertEquals (0, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testGetCancelledInFlight () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setSocketPolicy (SocketPolicy.NO_RESPONSE));
+
+    CancellationToken token = new CancellationToken ();
+    RequestOptions options = new RequestOptions ().setCancellationToken (token);
+    Promise <User> promise = this.dataStore_.get (User.class, 1, null, options);
+
+    this.server_.takeRequest ();
+    token.cancel ();
+
+    Assert.assertTrue (awaitRejection (promise) instanceof CancellationException);
+  }
+
+  @Test
+  public void testCreateCancelledInFlight () throws Exception
+  {
+    this.dispatcher_.add ("/users", new MockResponse ().setSocketPolicy (SocketPolicy.NO_RESPONSE));
+
+    User user = new User ();
+    user.firstName = "John";
+    user.lastName = "Doe";
+
+    CancellationToken token = new CancellationToken ();
+    RequestOptions options = new RequestOptions ().setCancellationToken (token);
+    Promise <User> promise = this.dataStore_.create (User.class, user, options);
+
+    this.server_.takeRequest ();
+    token.cancel ();
+
+    Assert.assertTrue (awaitRejection (promise) instanceof CancellationException);
+    Assert.assertTrue (await (this.dataStore_.peek (User.class)).isEmpty ());
+  }
+
+  @Test
+  public void testCreateManyCancelledBeforeRequest () throws Exception
+  {
+    CancellationToken token = new CancellationToken ();
+    token.cancel ();
+
+    RequestOptions options = new RequestOptions ().setCancellationToken (token);
+    Promise <DataModelList <User>> promise =
+        this.dataStore_.createMany (User.class, Arrays.asList (new User (1, "John", "Doe"), new User (2, "Jane", "Doe")), options);
+
+    Assert.assertTrue (awaitRejection (promise) instanceof CancellationException);
+    Assert.assertEquals (0, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testCancellableRequestIsNotShared () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody ("{\"user\": {\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}}"));
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody ("{\"user\": {\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}}"));
+
+    RequestOptions options = new RequestOptions ().setCancellationToken (new CancellationToken ());
+
+    await (Promise.all (
+        this.dataStore_.get (User.class, 1),
+        this.dataStore_.get (User.class, 1, null, options)));
+
+    Assert.assertEquals (2, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testStreamCancelledInFlight () throws Exception
+  {
+    this.dispatcher_.add ("/users", new MockResponse ().setSocketPolicy (SocketPolicy.NO_RESPONSE));
+
+    CancellationToken token = new CancellationToken ();
+    RequestOptions options = new RequestOptions ().setCancellationToken (token);
+    Promise <Integer> promise = this.dataStore_.stream (User.class, new HashMap<> (), options, models -> { });
+
+    this.server_.takeRequest ();
+    token.cancel ();
+
+    Assert.assertTrue (awaitRejection (promise) instanceof CancellationException);
+  }
+
+  @Test
+  public void testStreamCancelledWhileReading () throws Exception
+  {
+    this.dataStore_ = this.newBuilder ().setStreamBatchSize (1).build ();
+
+    this.dispatcher_.add ("/users", new MockResponse ()
+        .setBody ("{\"users\": [{\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}, {\"_id\": 2, \"first_name\": \"Jane\", \"last_name\": \"Doe\"}, {\"_id\": 3, \"first_name\": \"Jack\", \"last_name\": \"Doe\"}]}")
+        .throttleBody (16, 100, TimeUnit.MILLISECONDS));
+
+    // Cancel the stream once the first batch is written.
+    CancellationToken token = new CancellationToken ();
+    RequestOptions options = new RequestOptions ().setCancellationToken (token);
+    Promise <Integer> promise = this.dataStore_.stream (User.class, new HashMap<> (), options, models -> token.cancel ());
+
+    Assert.assertTrue (awaitRejection (promise) instanceof CancellationException);
+
+    // The batches that were written before the stream was cancelled stay in the database.
+    int count = await (this.dataStore_.peek (User.class)).size ();
+    Assert.assertTrue (count >= 1 && count < 3);
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testProjectionWithFetchPolicy () throws Exception
+  {
+    RequestOptions options =
+        new RequestOptions ()
+            .setFetchPolicy (FetchPolicy.cacheOnly ())
+            .setProjection (Projection.of ("first_name"));
+
+    this.dataStore_.query (User.class, new HashMap<> (), options);
+  }
+
+  @Test
+  public void testPartialRowAfterRollback () throws Exception
+  {
+    this.dispatcher_.add ("/users", new MockResponse ().setBody ("{\"users\": [{\"_id\": 1, \"first_name\": \"John\"}]}"));
+
+    // The full author is written before the book, whose foreign key fails, so the
+    // transaction rolls back after the author row was marked complete.
+    this.dispatcher_.add ("/books/1", new MockResponse ().setBody ("{\"book\": {\"_id\": 1, \"author\": 99, \"title\": \"Book Title\"}, \"users\": [{\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}]}"));
+
+    RequestOptions options = new RequestOptions ().setProjection (Projection.of ("first_name"));
+    DataModelList <User> users = await (this.dataStore_.query (User.class, new HashMap<> (), options));
+    Assert.assertTrue (users.get (0).isPartial ());
+
+    awaitRejection (this.dataStore_.get (Book.class, 1));
+
+    User user = await (this.dataStore_.peek (User.class, 1));
+    Assert.assertTrue (user.isPartial ());
+    Assert.assertNull (user.lastName);
+  }
+
+  @Test
+  public void testOutboxReplay () throws Exception
+  {
+    this.dispatcher_.add ("/users/45", new MockResponse ().setBody ("{\"user\": {\"_id\": 45, \"first_name\": \"Jane\", \"last_name\": \"Doe\"}}"));
+
+    Outbox outbox = this.dataStore_.getOutbox ();
+    User user = await (this.dataStore_.push (User.class, new User (45, "John", "Doe")));
+    user.firstName = "Jane";
+
+    await (outbox.update (User.class, user));
+    Assert.assertEquals ("Jane", await (this.dataStore_.peek (User.class, 45)).firstName);
+
+    waitForPendingCount (outbox, 0);
+
+    RecordedRequest request = this.server_.takeRequest ();
+    Assert.assertEquals ("PUT", request.getMethod ());
+    Assert.assertEquals ("/users/45", request.getPath ());
+  }
+
+  @Test
+  public void testOutboxDropsRejectedMutation () throws Exception
+  {
+    // The dispatcher returns 404, without a body, when it has no response.
+    Outbox outbox = this.dataStore_.getOutbox ();
+    User user = await (this.dataStore_.push (User.class, new User (45, "John", "Doe")));
+
+    await (outbox.update (User.class, user));
+    waitForPendingCount (outbox, 0);
+
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testOutboxKeepsFailedMutation () throws Exception
+  {
+    this.checkOutboxKeepsMutation (500);
+  }
+
+  @Test
+  public void testOutboxKeepsUnauthorizedMutation () throws Exception
+  {
+    this.checkOutboxKeepsMutation (401);
+  }
+
+  /**
+   * Test that the outbox keeps a mutation the server can accept on retry.
+   */
+  private void checkOutboxKeepsMutation (int statusCode) throws Exception
+  {
+    for (int i = 0; i < 5; ++ i)
+    {
+      this.dispatcher_.add ("/users/45", new MockResponse ()
+          .setResponseCode (statusCode)
+          .setBody ("{\"errors\": [{\"code\": \"failed\", \"detail\": \"Failed\"}]}"));
+    }
+
+    Outbox outbox = this.dataStore_.getOutbox ();
+    User user = await (this.dataStore_.push (User.class, new User (45, "John", "Doe")));
+
+    CountDownLatch latch = new CountDownLatch (1);
+    AtomicReference <Throwable> reason = new AtomicReference<> ();
+
+    outbox.setOnBatchCompleteListener (failure -> {
+      reason.set (failure);
+      latch.countDown ();
+    });
+
+    await (outbox.update (User.class, user));
+
+    // The first retry is after a second, so the first batch completes before it.
+    Assert.assertTrue (latch.await (5, TimeUnit.SECONDS));
+    Assert.assertNotNull (reason.get ());
+
+    Assert.assertEquals ("/users/45", this.server_.takeRequest ().getPath ());
+    Assert.assertEquals (1, outbox.getPendingCount ());
+  }
+
+  @Test
+  public void testOutboxWaitsForRetry () throws Exception
+  {
+    for (int i = 0; i < 5; ++ i)
+      this.dispatcher_.add ("/users/45", new MockResponse ().setResponseCode (500));
+
+    Outbox outbox = this.dataStore_.getOutbox ();
+    User user = await (this.dataStore_.push (User.class, new User (45, "John", "Doe")));
+
+    CountDownLatch latch = new CountDownLatch (1);
+    outbox.setOnBatchCompleteListener (failure -> latch.countDown ());
+
+    await (outbox.update (User.class, user));
+    Assert.assertTrue (latch.await (5, TimeUnit.SECONDS));
+
+    // A new mutation does not skip the backoff of the failed batch.
+    user.firstName = "Jane";
+    await (outbox.update (User.class, user));
+    Thread.sleep (200);
+
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+  }
+
+  /**
+   * Wait for the outbox to have a number of pending mutations.
+   */
+  private static void waitForPendingCount (Outbox outbox, int expected) throws Exception
+  {
+    for (int i = 0; i < 50 && outbox.getPendingCount () != expected; ++ i)
+      Thread.sleep (100);
+
+    Assert.assertEquals (expected, outbox.getPendingCount ());
+  }
 }
@@ -0,0 +1,138 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.InstrumentationRegistry;
+
+import com.onehilltech.backbone.data.fixtures.TestDatabase;
+import com.onehilltech.promises.Promise;
+import com.raizlabs.android.dbflow.config.FlowManager;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.onehilltech.promises.Promise.rejected;
+import static com.onehilltech.promises.Promise.resolved;
+
+/**
+ * @class DataStoreTestCase
+ *
+ * Base class for the tests of a data store that talks to a mock server. Each test
+ * starts with an empty test database, and a server without any responses.
+ */
+public abstract class DataStoreTestCase
+{
+  protected DataStore dataStore_;
+
+  protected MockWebServer server_;
+
+  protected SimpleDispatcher dispatcher_;
+
+  private final ArrayList <ExecutorService> executors_ = new ArrayList<> ();
+
+  @Before
+  public void setup () throws Exception
+  {
+    InstrumentationRegistry.getContext ().deleteDatabase (TestDatabase.NAME + ".db");
+    FlowManager.init (InstrumentationRegistry.getTargetContext ());
+
+    this.dispatcher_ = new SimpleDispatcher ();
+
+    this.server_ = new MockWebServer ();
+    this.server_.setDispatcher (this.dispatcher_);
+    this.server_.start ();
+
+    this.dataStore_ = this.newBuilder ().build ();
+  }
+
+  @After
+  public void teardown () throws Exception
+  {
+    this.dataStore_.close ();
+
+    for (ExecutorService executor: this.executors_)
+      executor.shutdownNow ();
+
+    this.server_.shutdown ();
+    FlowManager.reset ();
+  }
+
+  /**
+   * Make a builder for a data store of the test database that uses the mock server.
+   */
+  protected DataStore.Builder newBuilder ()
+  {
+    return new DataStore.Builder (InstrumentationRegistry.getTargetContext (), TestDatabase.class)
+        .setBaseUrl (this.server_.getUrl ("/").toString ());
+  }
+
+  /**
+   * Make a single thread executor that is shut down after the test.
+   */
+  protected ExecutorService newExecutor ()
+  {
+    ExecutorService executor = Executors.newSingleThreadExecutor ();
+    this.executors_.add (executor);
+
+    return executor;
+  }
+
+  /**
+   * Wait for a promise to settle.
+   *
+   * @param promise           The promise
+   * @return                  The value of the promise
+   * @throws ExecutionException   The promise was rejected
+   */
+  @SuppressWarnings ("unchecked")
+  protected static <T> T await (Promise <T> promise) throws Exception
+  {
+    CountDownLatch latch = new CountDownLatch (1);
+    AtomicReference <Object> value = new AtomicReference<> ();
+    AtomicReference <Throwable> reason = new AtomicReference<> ();
+
+    promise.then (resolved (result -> {
+      value.set (result);
+      latch.countDown ();
+    }))._catch (rejected (failure -> {
+      reason.set (failure);
+      latch.countDown ();
+    }));
+
+    Assert.assertTrue ("The promise did not settle", latch.await (5, TimeUnit.SECONDS));
+
+    if (reason.get () != null)
+      throw new ExecutionException (reason.get ());
+
+    return (T)value.get ();
+  }
+
+  /**
+   * Wait for a promise to be rejected.
+   *
+   * @param promise           The promise
+   * @return                  The reason the promise was rejected
+   */
+  protected static Throwable awaitRejection (Promise <?> promise) throws Exception
+  {
+    try
+    {
+      await (promise);
+    }
+    catch (ExecutionException e)
+    {
+      return e.getCause ();
+    }
+
+    Assert.fail ("The promise was resolved");
+    return null;
+  }
+}
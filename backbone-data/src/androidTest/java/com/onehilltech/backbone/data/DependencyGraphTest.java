@@ -8,6 +8,7 @@ import com.onehilltech.backbone.data.fixtures.TestDatabase;
 import com.onehilltech.backbone.data.fixtures.User;
 import com.raizlabs.android.dbflow.config.DatabaseDefinition;
 import com.raizlabs.android.dbflow.config.FlowManager;
+import com.raizlabs.android.dbflow.structure.ModelAdapter;
 
 import junit.framework.Assert;
 
@@ -15,6 +16,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Collections;
 import java.util.List;
 
 @RunWith (AndroidJUnit4.class)
@@ -44,4 +46,74 @@ public class DependencyGraphTest
     Assert.assertEquals (1, userInsertOrder.size ());
     Assert.assertSame (User.class, userInsertOrder.get (0).getDataClass ());
   }
+
+  @Test
+  public void testGetInsertOrderForResource ()
+  {
+    // Only the nodes that have a value in the resource are part of the insert order.
+    Resource r = new Resource ("books", new DataModelList<> (Collections.singletonList (new Book (1))));
+
+    List<DependencyGraph.Node> insertOrder = this.dependencyGraph_.getInsertOrder (Book.class, r);
+    Assert.assertEquals (1, insertOrder.size ());
+    Assert.assertSame (Book.class, insertOrder.get (0).getDataClass ());
+
+    // The singular name also matches a node.
+    r.add ("user", new User (1, "John", "Doe"));
+
+    insertOrder = this.dependencyGraph_.getInsertOrder (Book.class, r);
+    Assert.assertEquals (2, insertOrder.size ());
+    Assert.assertSame (User.class, insertOrder.get (0).getDataClass ());
+    Assert.assertSame (Book.class, insertOrder.get (1).getDataClass ());
+  }
+
+  @Test
+  public void testNoCycles ()
+  {
+    Assert.assertTrue (this.dependencyGraph_.getCycles ().isEmpty ());
+    Assert.assertFalse (this.dependencyGraph_.getNode (User.class).isSelfReferencing ());
+    Assert.assertFalse (this.dependencyGraph_.getNode (Book.class).isSelfReferencing ());
+  }
+
+  @Test
+  public void testCycle ()
+  {
+    ModelAdapter <User> userAdapter = FlowManager.getModelAdapter (User.class);
+    ModelAdapter <Book> bookAdapter = FlowManager.getModelAdapter (Book.class);
+
+    // Close the cycle books -> users -> books.
+    this.dependencyGraph_.addDependency (userAdapter, bookAdapter);
+
+    List <List <DependencyGraph.Node>> cycles = this.dependencyGraph_.getCycles ();
+    Assert.assertEquals (1, cycles.size ());
+    Assert.assertEquals (2, cycles.get (0).size ());
+    Assert.assertTrue (cycles.get (0).contains (this.dependencyGraph_.getNode (User.class)));
+    Assert.assertTrue (cycles.get (0).contains (this.dependencyGraph_.getNode (Book.class)));
+
+    // The cycle is broken so each insert order is still defined, and ends with its
+    // data class.
+    List<DependencyGraph.Node> bookInsertOrder = this.dependencyGraph_.getInsertOrder (Book.class);
+    Assert.assertEquals (2, bookInsertOrder.size ());
+    Assert.assertSame (Book.class, bookInsertOrder.get (1).getDataClass ());
+
+    List<DependencyGraph.Node> userInsertOrder = this.dependencyGraph_.getInsertOrder (User.class);
+    Assert.assertEquals (2, userInsertOrder.size ());
+    Assert.assertSame (User.class, userInsertOrder.get (1).getDataClass ());
+  }
+
+  @Test
+  public void testSelfReference ()
+  {
+    ModelAdapter <User> userAdapter = FlowManager.getModelAdapter (User.class);
+    this.dependencyGraph_.addDependency (userAdapter, userAdapter);
+
+    // A data model that references itself is not a cycle.
+    DependencyGraph.Node node = this.dependencyGraph_.getNode (User.class);
+    Assert.assertTrue (node.isSelfReferencing ());
+    Assert.assertFalse (node.getDependencies ().contains (node));
+    Assert.assertTrue (this.dependencyGraph_.getCycles ().isEmpty ());
+
+    List<DependencyGraph.Node> userInsertOrder = this.dependencyGraph_.getInsertOrder (User.class);
+    Assert.assertEquals (1, userInsertOrder.size ());
+    Assert.assertSame (node, userInsertOrder.get (0));
+  }
 }
@@ -0,0 +1,125 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.User;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith (AndroidJUnit4.class)
+public class FetchPolicyTest extends DataStoreTestCase
+{
+  private static final String USER = "{\"user\": {\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}}";
+
+  private static final String UPDATED_USER = "{\"user\": {\"_id\": 1, \"first_name\": \"Johnny\", \"last_name\": \"Doe\"}}";
+
+  @Test
+  public void testCacheOnly () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+
+    RequestOptions options = new RequestOptions ().setFetchPolicy (FetchPolicy.cacheOnly ());
+
+    Assert.assertEquals ("John", await (this.dataStore_.get (User.class, 1, null, options)).firstName);
+    Assert.assertNull (await (this.dataStore_.get (User.class, 2, null, options)));
+    Assert.assertEquals (0, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testCacheFirst () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+
+    await (this.dataStore_.push (User.class, new User (1, "Jack", "Doe")));
+
+    RequestOptions options = new RequestOptions ().setFetchPolicy (FetchPolicy.cacheFirst (60000));
+
+    // The local model was never fetched from the server, so it is not fresh.
+    Assert.assertEquals ("John", await (this.dataStore_.get (User.class, 1, null, options)).firstName);
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+
+    // The model was just fetched, so it is read from the local database.
+    Assert.assertEquals ("John", await (this.dataStore_.get (User.class, 1, null, options)).firstName);
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testNetworkFirst () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setResponseCode (500));
+    this.dispatcher_.add ("/users/2", new MockResponse ().setResponseCode (500));
+
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+
+    RequestOptions options = new RequestOptions ().setFetchPolicy (FetchPolicy.networkFirst ());
+
+    // The request failed, so the local model is used.
+    Assert.assertEquals ("John", await (this.dataStore_.get (User.class, 1, null, options)).firstName);
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+
+    // There is no local model to fall back on, so the request fails.
+    awaitRejection (this.dataStore_.get (User.class, 2, null, options));
+    Assert.assertEquals (2, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testStaleWhileRevalidate () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (UPDATED_USER));
+
+    await (this.dataStore_.get (User.class, 1));
+    Thread.sleep (10);
+
+    CountDownLatch latch = new CountDownLatch (1);
+    AtomicReference <User> refreshed = new AtomicReference<> ();
+
+    RequestOptions options = new RequestOptions ().setFetchPolicy (FetchPolicy.staleWhileRevalidate (1));
+
+    // The stale local model is returned right away, and revalidated in the background.
+    User user = await (this.dataStore_.get (User.class, 1, null, options, model -> {
+      refreshed.set (model);
+      latch.countDown ();
+    }));
+
+    Assert.assertEquals ("John", user.firstName);
+
+    Assert.assertTrue (latch.await (5, TimeUnit.SECONDS));
+    Assert.assertEquals ("Johnny", refreshed.get ().firstName);
+    Assert.assertEquals (2, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testStaleWhileRevalidateFresh () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+
+    await (this.dataStore_.get (User.class, 1));
+
+    RequestOptions options = new RequestOptions ().setFetchPolicy (FetchPolicy.staleWhileRevalidate (60000));
+    User user = await (this.dataStore_.get (User.class, 1, null, options, model -> Assert.fail ("The model is fresh")));
+
+    Assert.assertEquals ("John", user.firstName);
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testStaleWhileRevalidateWithoutLocalModel () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+
+    // There is nothing to show, so the request waits for the server.
+    RequestOptions options = new RequestOptions ().setFetchPolicy (FetchPolicy.staleWhileRevalidate (60000));
+    User user = await (this.dataStore_.get (User.class, 1, null, options, null));
+
+    Assert.assertEquals ("John", user.firstName);
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+  }
+}
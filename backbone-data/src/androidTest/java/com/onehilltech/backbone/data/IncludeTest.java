@@ -0,0 +1,99 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.Book;
+import com.onehilltech.backbone.data.fixtures.Review;
+import com.onehilltech.backbone.data.fixtures.User;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith (AndroidJUnit4.class)
+public class IncludeTest extends DataStoreTestCase
+{
+  @Test
+  public void testInclude () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    await (this.dataStore_.push (User.class, new User (2, "Jane", "Doe")));
+
+    DataModelList <Book> books = new DataModelList<> ();
+    books.add (newBook (1, 1));
+    books.add (newBook (2, 2));
+    books.add (newBook (3, 1));
+
+    Assert.assertSame (books, await (this.dataStore_.include (Book.class, books, "author")));
+
+    Assert.assertEquals ("John", books.get (0).author.firstName);
+    Assert.assertEquals ("Jane", books.get (1).author.firstName);
+
+    // The ids are loaded in a single batch, so the books of the same author share the
+    // loaded model.
+    Assert.assertSame (books.get (0).author, books.get (2).author);
+  }
+
+  @Test
+  public void testNestedInclude () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    await (this.dataStore_.push (Book.class, newBook (1, 1)));
+    await (this.dataStore_.push (Book.class, newBook (2, 1)));
+
+    DataModelList <Review> reviews = new DataModelList<> ();
+    reviews.add (new Review (1, new Book (1)));
+    reviews.add (new Review (2, new Book (2)));
+
+    await (this.dataStore_.include (Review.class, reviews, "book.author"));
+
+    Book book1 = reviews.get (0).book;
+    Book book2 = reviews.get (1).book;
+
+    Assert.assertEquals ("Book 1", book1.title);
+    Assert.assertEquals ("Book 2", book2.title);
+    Assert.assertEquals ("John", book1.author.firstName);
+    Assert.assertSame (book1.author, book2.author);
+  }
+
+  @Test
+  public void testUnresolvedStub () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+
+    User stub = new User (99);
+
+    DataModelList <Book> books = new DataModelList<> ();
+    books.add (newBook (1, 1));
+    books.add (new Book (2));
+    books.get (1).author = stub;
+    books.add (new Book (3));
+
+    await (this.dataStore_.include (Book.class, books, "author"));
+
+    // The model of the stub does not exist locally, so the stub is kept, and a model
+    // without a reference is left alone.
+    Assert.assertEquals ("John", books.get (0).author.firstName);
+    Assert.assertSame (stub, books.get (1).author);
+    Assert.assertNull (books.get (2).author);
+  }
+
+  @Test
+  public void testUnknownRelation () throws Exception
+  {
+    DataModelList <Book> books = new DataModelList<> ();
+    books.add (new Book (1));
+
+    Throwable reason = awaitRejection (this.dataStore_.include (Book.class, books, "publisher"));
+    Assert.assertTrue (reason instanceof IllegalArgumentException);
+  }
+
+  private static Book newBook (long id, long authorId)
+  {
+    Book book = new Book (id);
+    book.author = new User (authorId);
+    book.title = "Book " + id;
+
+    return book;
+  }
+}
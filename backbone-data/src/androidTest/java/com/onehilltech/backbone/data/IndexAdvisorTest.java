@@ -0,0 +1,131 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.TestDatabase;
+import com.onehilltech.backbone.data.fixtures.User;
+import com.raizlabs.android.dbflow.config.FlowManager;
+import com.raizlabs.android.dbflow.structure.database.FlowCursor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+
+@RunWith (AndroidJUnit4.class)
+public class IndexAdvisorTest extends DataStoreTestCase
+{
+  @Test
+  public void testBelowThreshold () throws Exception
+  {
+    this.useAdvisor (IndexAdvisor.Mode.REPORT);
+
+    await (this.dataStore_.select (User.class, new LocalQuery ().eq ("last_name", "Doe")));
+
+    IndexAdvisor advisor = this.dataStore_.getIndexAdvisor ();
+    Assert.assertEquals (Collections.singletonMap ("users(last_name)", 1), advisor.getQueryShapes ());
+    Assert.assertTrue (advisor.getRecommendations ().isEmpty ());
+  }
+
+  @Test
+  public void testReport () throws Exception
+  {
+    this.useAdvisor (IndexAdvisor.Mode.REPORT);
+
+    for (int i = 0; i < 2; ++ i)
+      await (this.dataStore_.select (User.class, new LocalQuery ().eq ("last_name", "Doe")));
+
+    IndexAdvisor.Recommendation recommendation = waitForRecommendation (this.dataStore_.getIndexAdvisor ());
+
+    Assert.assertEquals ("users", recommendation.getTableName ());
+    Assert.assertEquals (Collections.singletonList ("last_name"), recommendation.getColumns ());
+    Assert.assertTrue (recommendation.getPlan ().contains ("SCAN"));
+
+    // The index is only reported.
+    Assert.assertFalse (recommendation.isCreated ());
+    Assert.assertFalse (hasIndex (recommendation.getIndexName ()));
+  }
+
+  @Test
+  public void testCreate () throws Exception
+  {
+    this.useAdvisor (IndexAdvisor.Mode.CREATE);
+
+    // The column name is quoted, like the name of a property of a generated table.
+    for (int i = 0; i < 2; ++ i)
+      await (this.dataStore_.select (User.class, new LocalQuery ().eq ("`last_name`", "Doe")));
+
+    IndexAdvisor.Recommendation recommendation = waitForRecommendation (this.dataStore_.getIndexAdvisor ());
+    Assert.assertEquals (Collections.singletonList ("last_name"), recommendation.getColumns ());
+
+    for (int i = 0; i < 50 && !recommendation.isCreated (); ++ i)
+      Thread.sleep (100);
+
+    Assert.assertTrue (recommendation.isCreated ());
+    Assert.assertTrue (hasIndex (recommendation.getIndexName ()));
+  }
+
+  @Test
+  public void testPrimaryKeyDoesNotNeedIndex () throws Exception
+  {
+    this.useAdvisor (IndexAdvisor.Mode.REPORT);
+
+    // The second query needs an index, and is analyzed after the first. Once it has
+    // a recommendation, the analysis of the first query is complete.
+    for (int i = 0; i < 2; ++ i)
+    {
+      await (this.dataStore_.select (User.class, new LocalQuery ().eq ("_id", 1)));
+      await (this.dataStore_.select (User.class, new LocalQuery ().eq ("first_name", "John")));
+    }
+
+    IndexAdvisor.Recommendation recommendation = waitForRecommendation (this.dataStore_.getIndexAdvisor ());
+    Assert.assertEquals (Collections.singletonList ("first_name"), recommendation.getColumns ());
+    Assert.assertEquals (1, this.dataStore_.getIndexAdvisor ().getRecommendations ().size ());
+  }
+
+  private void useAdvisor (IndexAdvisor.Mode mode)
+  {
+    this.dataStore_ =
+        this.newBuilder ()
+            .setIndexAdvisorMode (mode)
+            .setIndexAdvisorThreshold (2)
+            .build ();
+  }
+
+  /**
+   * Wait for the advisor to recommend an index. The plans are analyzed on the thread
+   * of the advisor.
+   */
+  private static IndexAdvisor.Recommendation waitForRecommendation (IndexAdvisor advisor) throws Exception
+  {
+    List <IndexAdvisor.Recommendation> recommendations = advisor.getRecommendations ();
+
+    for (int i = 0; i < 50 && recommendations.isEmpty (); ++ i)
+    {
+      Thread.sleep (100);
+      recommendations = advisor.getRecommendations ();
+    }
+
+    Assert.assertFalse (recommendations.isEmpty ());
+    return recommendations.get (0);
+  }
+
+  private static boolean hasIndex (String indexName)
+  {
+    FlowCursor cursor =
+        FlowManager.getDatabase (TestDatabase.class)
+                   .getWritableDatabase ()
+                   .rawQuery ("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?", new String[] {indexName});
+
+    try
+    {
+      return cursor.moveToFirst ();
+    }
+    finally
+    {
+      cursor.close ();
+    }
+  }
+}
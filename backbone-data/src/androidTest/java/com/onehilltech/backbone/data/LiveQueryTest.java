@@ -0,0 +1,153 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.User;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@RunWith (AndroidJUnit4.class)
+public class LiveQueryTest extends DataStoreTestCase
+{
+  private final LinkedBlockingQueue <LiveQuery.Delta <User>> deltas_ = new LinkedBlockingQueue<> ();
+
+  @Test
+  public void testInitialResult () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    await (this.dataStore_.push (User.class, new User (2, "Jack", "Smith")));
+
+    this.observe (new LocalQuery ().eq ("last_name", "Doe"));
+
+    LiveQuery.Delta <User> delta = this.nextDelta ();
+    Assert.assertTrue (delta.isInitial ());
+    Assert.assertEquals (ids (1), getIds (delta.getInserted ()));
+    Assert.assertTrue (delta.getUpdated ().isEmpty ());
+    Assert.assertTrue (delta.getRemoved ().isEmpty ());
+  }
+
+  @Test
+  public void testInsertAndUpdate () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+
+    this.observe (new LocalQuery ().eq ("last_name", "Doe"));
+    this.nextDelta ();
+
+    // A written model that does not match the query does not change the result, so
+    // there is no delta for it.
+    await (this.dataStore_.push (User.class, new User (2, "Jack", "Smith")));
+    await (this.dataStore_.push (User.class, new User (3, "Jane", "Doe")));
+
+    LiveQuery.Delta <User> delta = this.nextDelta ();
+    Assert.assertFalse (delta.isInitial ());
+    Assert.assertEquals (ids (3), getIds (delta.getInserted ()));
+    Assert.assertTrue (delta.getUpdated ().isEmpty ());
+
+    await (this.dataStore_.push (User.class, new User (1, "Johnny", "Doe")));
+
+    delta = this.nextDelta ();
+    Assert.assertTrue (delta.getInserted ().isEmpty ());
+    Assert.assertEquals (ids (1), getIds (delta.getUpdated ()));
+    Assert.assertEquals ("Johnny", delta.getUpdated ().get (0).firstName);
+  }
+
+  @Test
+  public void testRemove () throws Exception
+  {
+    this.dispatcher_.add ("/users/2", new MockResponse ().setBody ("true"));
+
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    User user = await (this.dataStore_.push (User.class, new User (2, "Jane", "Doe")));
+
+    this.observe (new LocalQuery ().eq ("last_name", "Doe"));
+    Assert.assertEquals (ids (1, 2), getIds (this.nextDelta ().getInserted ()));
+
+    // A model written so it no longer matches the query is removed.
+    await (this.dataStore_.push (User.class, new User (1, "John", "Smith")));
+
+    LiveQuery.Delta <User> delta = this.nextDelta ();
+    Assert.assertEquals (1, delta.getRemoved ().size ());
+    Assert.assertEquals (1L, ((Number)delta.getRemoved ().get (0)).longValue ());
+
+    // A deleted model is removed.
+    Assert.assertTrue (await (this.dataStore_.delete (User.class, user)));
+
+    delta = this.nextDelta ();
+    Assert.assertEquals (1, delta.getRemoved ().size ());
+    Assert.assertEquals (2L, ((Number)delta.getRemoved ().get (0)).longValue ());
+  }
+
+  @Test
+  public void testPagedQuery () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (2, "Jane", "Doe")));
+    await (this.dataStore_.push (User.class, new User (3, "Jack", "Doe")));
+    await (this.dataStore_.push (User.class, new User (4, "Jill", "Doe")));
+
+    this.observe (new LocalQuery ().orderBy ("_id", true).limit (2));
+    Assert.assertEquals (ids (2, 3), getIds (this.nextDelta ().getInserted ()));
+
+    // The new model is at the start of the page, so it pushes the last model out.
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+
+    LiveQuery.Delta <User> delta = this.nextDelta ();
+    Assert.assertEquals (ids (1), getIds (delta.getInserted ()));
+    Assert.assertEquals (1, delta.getRemoved ().size ());
+    Assert.assertEquals (3L, ((Number)delta.getRemoved ().get (0)).longValue ());
+  }
+
+  @Test
+  public void testClose () throws Exception
+  {
+    LiveQuery <User> liveQuery = this.observe (new LocalQuery ());
+    this.nextDelta ();
+
+    liveQuery.close ();
+    Assert.assertTrue (liveQuery.isClosed ());
+
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    Assert.assertNull (this.deltas_.poll (500, TimeUnit.MILLISECONDS));
+  }
+
+  private LiveQuery <User> observe (LocalQuery query)
+  {
+    return this.dataStore_.observe (User.class, query, this.deltas_::add);
+  }
+
+  private LiveQuery.Delta <User> nextDelta () throws Exception
+  {
+    LiveQuery.Delta <User> delta = this.deltas_.poll (5, TimeUnit.SECONDS);
+    Assert.assertNotNull ("The live query did not emit a delta", delta);
+
+    return delta;
+  }
+
+  private static List <Long> ids (long... ids)
+  {
+    ArrayList <Long> list = new ArrayList<> ();
+
+    for (long id: ids)
+      list.add (id);
+
+    return list;
+  }
+
+  private static List <Long> getIds (List <User> users)
+  {
+    ArrayList <Long> ids = new ArrayList<> ();
+
+    for (User user: users)
+      ids.add (user._id);
+
+    return ids;
+  }
+}
@@ -0,0 +1,158 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.User;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith (AndroidJUnit4.class)
+public class LocalQueryTest extends DataStoreTestCase
+{
+  @Before
+  public void insertUsers () throws Exception
+  {
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    await (this.dataStore_.push (User.class, new User (2, "Jane", "Doe")));
+    await (this.dataStore_.push (User.class, new User (3, "Jack", "Smith")));
+    await (this.dataStore_.push (User.class, new User (4, "Jill", "Smith")));
+    await (this.dataStore_.push (User.class, new User (5, "Jim", null)));
+  }
+
+  @Test
+  public void testComparisons () throws Exception
+  {
+    Assert.assertEquals (idSet (1, 2), this.selectIds (new LocalQuery ().eq ("last_name", "Doe")));
+    Assert.assertEquals (idSet (3, 4), this.selectIds (new LocalQuery ().notEq ("last_name", "Doe")));
+    Assert.assertEquals (idSet (1, 2), this.selectIds (new LocalQuery ().lessThan ("_id", 3)));
+    Assert.assertEquals (idSet (1, 2, 3), this.selectIds (new LocalQuery ().lessThanOrEq ("_id", 3)));
+    Assert.assertEquals (idSet (4, 5), this.selectIds (new LocalQuery ().greaterThan ("_id", 3)));
+    Assert.assertEquals (idSet (3, 4, 5), this.selectIds (new LocalQuery ().greaterThanOrEq ("_id", 3)));
+    Assert.assertEquals (idSet (2, 3, 4), this.selectIds (new LocalQuery ().between ("_id", 2, 4)));
+  }
+
+  @Test
+  public void testSets () throws Exception
+  {
+    Assert.assertEquals (idSet (1, 3), this.selectIds (new LocalQuery ().in ("_id", Arrays.asList (1, 3, 9))));
+    Assert.assertEquals (idSet (2, 4, 5), this.selectIds (new LocalQuery ().notIn ("_id", Arrays.asList (1, 3))));
+    Assert.assertEquals (idSet (1, 2, 3, 4), this.selectIds (new LocalQuery ().like ("first_name", "J%").isNotNull ("last_name")));
+    Assert.assertEquals (idSet (5), this.selectIds (new LocalQuery ().isNull ("last_name")));
+  }
+
+  @Test
+  public void testConditionsAreCombined () throws Exception
+  {
+    LocalQuery query =
+        new LocalQuery ()
+            .eq ("last_name", "Smith")
+            .like ("first_name", "Ji%");
+
+    Assert.assertEquals (idSet (4), this.selectIds (query));
+
+    HashMap <String, Object> params = new HashMap<> ();
+    params.put ("last_name", "Doe");
+    params.put ("first_name", "Jane");
+
+    Assert.assertEquals (idSet (2), this.selectIds (LocalQuery.fromMap (params)));
+  }
+
+  @Test
+  public void testOrderBy () throws Exception
+  {
+    LocalQuery query =
+        new LocalQuery ()
+            .isNotNull ("last_name")
+            .orderBy ("last_name", false)
+            .orderBy ("_id", true);
+
+    Assert.assertEquals (ids (3, 4, 1, 2), this.selectOrderedIds (query));
+  }
+
+  @Test
+  public void testLimitOffset () throws Exception
+  {
+    Assert.assertEquals (ids (1, 2), this.selectOrderedIds (new LocalQuery ().orderBy ("_id", true).limit (2)));
+    Assert.assertEquals (ids (2, 3), this.selectOrderedIds (new LocalQuery ().orderBy ("_id", true).limit (2).offset (1)));
+
+    // An offset without a limit selects the rest of the rows.
+    Assert.assertEquals (ids (4, 5), this.selectOrderedIds (new LocalQuery ().orderBy ("_id", true).offset (3)));
+  }
+
+  @Test
+  public void testKeyset () throws Exception
+  {
+    // Page through the users by last name, with the _id to break the ties.
+    List <User> page = await (this.dataStore_.select (User.class, newKeysetQuery ()));
+    Assert.assertEquals (ids (1, 2), getIds (page));
+
+    User last = page.get (page.size () - 1);
+    page = await (this.dataStore_.select (User.class, newKeysetQuery ().after (last.lastName, last._id)));
+    Assert.assertEquals (ids (3, 4), getIds (page));
+
+    last = page.get (page.size () - 1);
+    page = await (this.dataStore_.select (User.class, newKeysetQuery ().after (last.lastName, last._id)));
+    Assert.assertTrue (page.isEmpty ());
+  }
+
+  @Test
+  public void testKeysetNeedsValueForEachColumn () throws Exception
+  {
+    Throwable reason = awaitRejection (this.dataStore_.select (User.class, newKeysetQuery ().after ("Doe")));
+    Assert.assertTrue (reason instanceof IllegalArgumentException);
+  }
+
+  private static LocalQuery newKeysetQuery ()
+  {
+    return new LocalQuery ()
+        .isNotNull ("last_name")
+        .orderBy ("last_name", true)
+        .orderBy ("_id", true)
+        .limit (2);
+  }
+
+  private Set <Long> selectIds (LocalQuery query) throws Exception
+  {
+    return new HashSet<> (this.selectOrderedIds (query));
+  }
+
+  private List <Long> selectOrderedIds (LocalQuery query) throws Exception
+  {
+    return getIds (await (this.dataStore_.select (User.class, query)));
+  }
+
+  private static Set <Long> idSet (long... ids)
+  {
+    return new HashSet<> (ids (ids));
+  }
+
+  private static List <Long> ids (long... ids)
+  {
+    ArrayList <Long> list = new ArrayList<> ();
+
+    for (long id: ids)
+      list.add (id);
+
+    return list;
+  }
+
+  private static List <Long> getIds (List <User> users)
+  {
+    ArrayList <Long> ids = new ArrayList<> ();
+
+    for (User user: users)
+      ids.add (user._id);
+
+    return ids;
+  }
+}
@@ -0,0 +1,113 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.User;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith (AndroidJUnit4.class)
+public class ModelCacheTest extends DataStoreTestCase
+{
+  @Test
+  public void testHitAndMiss () throws Exception
+  {
+    this.useModelCache (10);
+    ModelCache cache = this.dataStore_.getModelCache ();
+
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    Assert.assertEquals (1, cache.size ());
+
+    // The written model is the instance returned for its id.
+    User user = await (this.dataStore_.peek (User.class, 1));
+    Assert.assertSame (user, await (this.dataStore_.peek (User.class, 1)));
+    Assert.assertEquals (2, cache.hitCount ());
+    Assert.assertEquals (0, cache.missCount ());
+
+    // The id is normalized, so a boxed id of a different type is the same key.
+    Assert.assertSame (user, await (this.dataStore_.peek (User.class, 1L)));
+
+    Assert.assertNull (await (this.dataStore_.peek (User.class, 2)));
+    Assert.assertEquals (1, cache.missCount ());
+  }
+
+  @Test
+  public void testEviction () throws Exception
+  {
+    this.useModelCache (2);
+    ModelCache cache = this.dataStore_.getModelCache ();
+
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    await (this.dataStore_.push (User.class, new User (2, "Jane", "Doe")));
+    await (this.dataStore_.push (User.class, new User (3, "Jack", "Doe")));
+
+    Assert.assertEquals (2, cache.size ());
+    Assert.assertEquals (1, cache.evictionCount ());
+
+    // The least recently used model was evicted, and is loaded from the database.
+    User user = await (this.dataStore_.peek (User.class, 1));
+    Assert.assertEquals (1, cache.missCount ());
+    Assert.assertEquals ("John", user.firstName);
+    Assert.assertSame (user, await (this.dataStore_.peek (User.class, 1)));
+  }
+
+  @Test
+  public void testPartialModelEvicts () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody ("{\"user\": {\"_id\": 1, \"first_name\": \"Johnny\"}}"));
+
+    this.useModelCache (10);
+    ModelCache cache = this.dataStore_.getModelCache ();
+
+    User cached = await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    Assert.assertEquals (1, cache.size ());
+
+    // Only the columns of the projection are written, so the cached model is stale.
+    RequestOptions options = new RequestOptions ().setProjection (Projection.of ("first_name"));
+    await (this.dataStore_.get (User.class, 1, null, options));
+
+    Assert.assertEquals (0, cache.size ());
+
+    User user = await (this.dataStore_.peek (User.class, 1));
+    Assert.assertNotSame (cached, user);
+    Assert.assertEquals ("Johnny", user.firstName);
+    Assert.assertEquals ("Doe", user.lastName);
+  }
+
+  @Test
+  public void testDeleteInvalidates () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody ("true"));
+
+    this.useModelCache (10);
+    ModelCache cache = this.dataStore_.getModelCache ();
+
+    User user = await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+    Assert.assertEquals (1, cache.size ());
+
+    Assert.assertTrue (await (this.dataStore_.delete (User.class, user)));
+    Assert.assertEquals (0, cache.size ());
+    Assert.assertNull (await (this.dataStore_.peek (User.class, 1)));
+  }
+
+  @Test
+  public void testDisabled () throws Exception
+  {
+    this.useModelCache (0);
+    Assert.assertNull (this.dataStore_.getModelCache ());
+
+    await (this.dataStore_.push (User.class, new User (1, "John", "Doe")));
+
+    User user = await (this.dataStore_.peek (User.class, 1));
+    Assert.assertNotSame (user, await (this.dataStore_.peek (User.class, 1)));
+  }
+
+  private void useModelCache (int modelCacheSize)
+  {
+    this.dataStore_.close ();
+    this.dataStore_ = this.newBuilder ().setModelCacheSize (modelCacheSize).build ();
+  }
+}
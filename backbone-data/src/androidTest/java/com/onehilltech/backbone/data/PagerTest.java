@@ -0,0 +1,187 @@
+package com.onehilltech.backbone.data;
+
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.User;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+@RunWith (AndroidJUnit4.class)
+public class PagerTest extends DataStoreTestCase
+{
+  @Test
+  public void testOffsetEndDetection () throws Exception
+  {
+    this.server_.setDispatcher (new UserDispatcher (5));
+
+    Pager <User> pager = this.newPager (Pager.Mode.OFFSET, 2, 1);
+
+    Assert.assertEquals (ids (1, 2), getIds (await (pager.next ())));
+    Assert.assertEquals (ids (3, 4), getIds (await (pager.next ())));
+
+    // The last page is not full, so there are no pages after it.
+    Assert.assertEquals (ids (5), getIds (await (pager.next ())));
+    Assert.assertTrue (await (pager.next ()).isEmpty ());
+
+    int requestCount = this.server_.getRequestCount ();
+
+    Assert.assertTrue (await (pager.next ()).isEmpty ());
+    Assert.assertEquals (requestCount, this.server_.getRequestCount ());
+
+    // The models of each page are inserted into the local database.
+    Assert.assertEquals (5, await (this.dataStore_.peek (User.class)).size ());
+  }
+
+  @Test
+  public void testPrefetchDepth () throws Exception
+  {
+    this.server_.setDispatcher (new UserDispatcher (4));
+
+    // Without a prefetch, each page is requested when it is needed.
+    Pager <User> pager = this.newPager (Pager.Mode.OFFSET, 2, 0);
+
+    Assert.assertEquals (ids (1, 2), getIds (await (pager.next ())));
+    Assert.assertEquals (ids (3, 4), getIds (await (pager.next ())));
+    Assert.assertTrue (await (pager.next ()).isEmpty ());
+
+    Assert.assertEquals (3, this.server_.getRequestCount ());
+    Assert.assertEquals ("0", getParameter (this.server_.takeRequest (), "offset"));
+    Assert.assertEquals ("2", getParameter (this.server_.takeRequest (), "offset"));
+    Assert.assertEquals ("4", getParameter (this.server_.takeRequest (), "offset"));
+  }
+
+  @Test
+  public void testKeysetCarriesLastId () throws Exception
+  {
+    this.server_.setDispatcher (new UserDispatcher (5));
+
+    Pager <User> pager = this.newPager (Pager.Mode.KEYSET, 2, 1);
+
+    Assert.assertEquals (ids (1, 2), getIds (await (pager.next ())));
+    Assert.assertEquals (ids (3, 4), getIds (await (pager.next ())));
+    Assert.assertEquals (ids (5), getIds (await (pager.next ())));
+    Assert.assertTrue (await (pager.next ()).isEmpty ());
+
+    // Each page starts after the _id of the last model of the previous page, and the
+    // short page ends the requests.
+    Assert.assertEquals (3, this.server_.getRequestCount ());
+    Assert.assertNull (getParameter (this.server_.takeRequest (), "after"));
+    Assert.assertEquals ("2", getParameter (this.server_.takeRequest (), "after"));
+    Assert.assertEquals ("4", getParameter (this.server_.takeRequest (), "after"));
+  }
+
+  @Test
+  public void testCursorUsesMeta () throws Exception
+  {
+    this.server_.setDispatcher (new UserDispatcher (5));
+
+    Pager <User> pager = this.newPager (Pager.Mode.CURSOR, 2, 1);
+
+    Assert.assertEquals (ids (1, 2), getIds (await (pager.next ())));
+    Assert.assertEquals (ids (3, 4), getIds (await (pager.next ())));
+    Assert.assertEquals (ids (5), getIds (await (pager.next ())));
+    Assert.assertTrue (await (pager.next ()).isEmpty ());
+
+    // The last page does not have a cursor, so it ends the requests.
+    Assert.assertEquals (3, this.server_.getRequestCount ());
+    Assert.assertNull (getParameter (this.server_.takeRequest (), "cursor"));
+    Assert.assertEquals ("page-2", getParameter (this.server_.takeRequest (), "cursor"));
+    Assert.assertEquals ("page-4", getParameter (this.server_.takeRequest (), "cursor"));
+  }
+
+  private Pager <User> newPager (Pager.Mode mode, int pageSize, int prefetchDepth)
+  {
+    Pager.Options options =
+        new Pager.Options ()
+            .setMode (mode)
+            .setPageSize (pageSize)
+            .setPrefetchDepth (prefetchDepth);
+
+    return this.dataStore_.paginate (User.class, new HashMap<> (), options);
+  }
+
+  private static List <Long> ids (long... ids)
+  {
+    ArrayList <Long> list = new ArrayList<> ();
+
+    for (long id: ids)
+      list.add (id);
+
+    return list;
+  }
+
+  private static List <Long> getIds (List <User> users)
+  {
+    ArrayList <Long> ids = new ArrayList<> ();
+
+    for (User user: users)
+      ids.add (user._id);
+
+    return ids;
+  }
+
+  private static String getParameter (RecordedRequest request, String name)
+  {
+    return Uri.parse (request.getPath ()).getQueryParameter (name);
+  }
+
+  /**
+   * Serve the pages of a list of users with the ids 1 to count. The dispatcher supports
+   * the query parameters of all the pager modes. The cursor of a page is the offset of
+   * the next page, and the last page has no cursor.
+   */
+  private static class UserDispatcher extends Dispatcher
+  {
+    private final int count_;
+
+    UserDispatcher (int count)
+    {
+      this.count_ = count;
+    }
+
+    @Override
+    public MockResponse dispatch (RecordedRequest request)
+    {
+      Uri uri = Uri.parse (request.getPath ());
+
+      if (!"/users".equals (uri.getPath ()))
+        return new MockResponse ().setResponseCode (404);
+
+      int limit = Integer.parseInt (uri.getQueryParameter ("limit"));
+      int start = 0;
+
+      if (uri.getQueryParameter ("offset") != null)
+        start = Integer.parseInt (uri.getQueryParameter ("offset"));
+      else if (uri.getQueryParameter ("after") != null)
+        start = Integer.parseInt (uri.getQueryParameter ("after"));
+      else if (uri.getQueryParameter ("cursor") != null)
+        start = Integer.parseInt (uri.getQueryParameter ("cursor").substring ("page-".length ()));
+
+      int end = Math.min (start + limit, this.count_);
+      StringBuilder users = new StringBuilder ();
+
+      for (int id = start + 1; id <= end; ++ id)
+      {
+        if (users.length () > 0)
+          users.append (", ");
+
+        users.append ("{\"_id\": ").append (id).append (", \"first_name\": \"User\", \"last_name\": \"").append (id).append ("\"}");
+      }
+
+      String cursor = end < this.count_ ? "\"page-" + end + "\"" : "null";
+      String body = "{\"users\": [" + users + "], \"meta\": {\"cursor\": " + cursor + "}}";
+
+      return new MockResponse ().setBody (body);
+    }
+  }
+}
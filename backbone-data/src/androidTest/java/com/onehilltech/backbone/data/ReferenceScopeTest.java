@@ -0,0 +1,94 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.onehilltech.backbone.data.fixtures.Book;
+import com.onehilltech.backbone.data.fixtures.User;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith (AndroidJUnit4.class)
+public class ReferenceScopeTest extends DataStoreTestCase
+{
+  private static final String BOOKS = "\"books\": [{\"_id\": 1, \"author\": 25, \"title\": \"First\"}, {\"_id\": 2, \"author\": 25, \"title\": \"Second\"}]";
+
+  private static final String USERS = "\"users\": [{\"_id\": 25, \"first_name\": \"John\", \"last_name\": \"Doe\"}]";
+
+  @Test
+  public void testSharedForeignKey ()
+  {
+    Resource r = this.read ("{" + BOOKS + "}");
+    List <Book> books = r.get ("books");
+
+    Assert.assertSame (books.get (0).author, books.get (1).author);
+    Assert.assertEquals (25, books.get (0).author._id);
+  }
+
+  @Test
+  public void testStubBeforeSideLoadedModel ()
+  {
+    Resource r = this.read ("{" + BOOKS + ", " + USERS + "}");
+    List <Book> books = r.get ("books");
+    List <User> users = r.get ("users");
+
+    // The values of the side-loaded model are copied into the stub read before it.
+    User author = books.get (0).author;
+    Assert.assertSame (author, users.get (0));
+    Assert.assertEquals ("John", author.firstName);
+    Assert.assertEquals ("Doe", author.lastName);
+  }
+
+  @Test
+  public void testSideLoadedModelBeforeStub ()
+  {
+    Resource r = this.read ("{" + USERS + ", " + BOOKS + "}");
+    List <Book> books = r.get ("books");
+    List <User> users = r.get ("users");
+
+    Assert.assertSame (users.get (0), books.get (0).author);
+    Assert.assertSame (users.get (0), books.get (1).author);
+  }
+
+  @Test
+  public void testScopePerResource ()
+  {
+    List <Book> books1 = this.read ("{" + BOOKS + "}").get ("books");
+    List <Book> books2 = this.read ("{" + BOOKS + "}").get ("books");
+
+    Assert.assertNotSame (books1.get (0).author, books2.get (0).author);
+    Assert.assertNull (ReferenceScope.current ());
+  }
+
+  @Test
+  public void testStreamIsNotInterned () throws Exception
+  {
+    ResourceSerializer serializer = new ResourceSerializer ();
+    serializer.setGson (this.getGson ());
+    serializer.put ("books", Book.class);
+
+    ArrayList <Book> books = new ArrayList<> ();
+    serializer.read (new JsonReader (new StringReader ("{" + BOOKS + "}")), (name, value) -> books.add ((Book)value));
+
+    Assert.assertEquals (2, books.size ());
+    Assert.assertNotSame (books.get (0).author, books.get (1).author);
+    Assert.assertEquals (books.get (0).author._id, books.get (1).author._id);
+  }
+
+  private Gson getGson ()
+  {
+    return this.dataStore_.getGson ();
+  }
+
+  private Resource read (String json)
+  {
+    return this.getGson ().fromJson (json, Resource.class);
+  }
+}
@@ -0,0 +1,147 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.onehilltech.backbone.data.fixtures.User;
+import com.onehilltech.promises.Promise;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith (AndroidJUnit4.class)
+public class RequestCoalescerTest extends DataStoreTestCase
+{
+  private static final String USER = "{\"user\": {\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\"}}";
+
+  @Test
+  public void testIdenticalRequestsShareRequest () throws Exception
+  {
+    HeldDispatcher dispatcher = this.holdResponses ();
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+
+    Promise <User> promise1 = this.dataStore_.get (User.class, 1);
+    Promise <User> promise2 = this.dataStore_.get (User.class, 1);
+
+    dispatcher.release ();
+
+    User user1 = await (promise1);
+    User user2 = await (promise2);
+
+    Assert.assertSame (user1, user2);
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testDifferentPrioritiesAreNotShared () throws Exception
+  {
+    HeldDispatcher dispatcher = this.holdResponses ();
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+
+    RequestOptions options = new RequestOptions ().setPriority (RequestScheduler.Priority.BACKGROUND);
+
+    // The background request must not hold back the interactive request.
+    Promise <User> promise1 = this.dataStore_.get (User.class, 1, null, options);
+    Promise <User> promise2 = this.dataStore_.get (User.class, 1);
+
+    dispatcher.release ();
+
+    await (promise1);
+    await (promise2);
+
+    Assert.assertEquals (2, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testCancellableRequestsAreNotShared () throws Exception
+  {
+    HeldDispatcher dispatcher = this.holdResponses ();
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+
+    RequestOptions options = new RequestOptions ().setCancellationToken (new CancellationToken ());
+
+    Promise <User> promise1 = this.dataStore_.get (User.class, 1);
+    Promise <User> promise2 = this.dataStore_.get (User.class, 1, null, options);
+
+    dispatcher.release ();
+
+    await (promise1);
+    await (promise2);
+
+    Assert.assertEquals (2, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testCompletedRequestIsNotShared () throws Exception
+  {
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+
+    // There is no coalesce window by default.
+    await (this.dataStore_.get (User.class, 1));
+    await (this.dataStore_.get (User.class, 1));
+
+    Assert.assertEquals (2, this.server_.getRequestCount ());
+  }
+
+  @Test
+  public void testCoalesceWindow () throws Exception
+  {
+    this.dataStore_.close ();
+    this.dataStore_ = this.newBuilder ().setCoalesceWindow (60000).build ();
+
+    this.dispatcher_.add ("/users/1", new MockResponse ().setBody (USER));
+
+    User user1 = await (this.dataStore_.get (User.class, 1));
+    User user2 = await (this.dataStore_.get (User.class, 1));
+
+    Assert.assertSame (user1, user2);
+    Assert.assertEquals (1, this.server_.getRequestCount ());
+  }
+
+  private HeldDispatcher holdResponses ()
+  {
+    HeldDispatcher dispatcher = new HeldDispatcher (this.dispatcher_);
+    this.server_.setDispatcher (dispatcher);
+
+    return dispatcher;
+  }
+
+  /**
+   * Hold the responses of the dispatcher until they are released. The requests that
+   * arrive before the release are in flight at the same time.
+   */
+  private static class HeldDispatcher extends Dispatcher
+  {
+    private final Dispatcher dispatcher_;
+
+    private final CountDownLatch latch_ = new CountDownLatch (1);
+
+    HeldDispatcher (Dispatcher dispatcher)
+    {
+      this.dispatcher_ = dispatcher;
+    }
+
+    void release ()
+    {
+      this.latch_.countDown ();
+    }
+
+    @Override
+    public MockResponse dispatch (RecordedRequest request) throws InterruptedException
+    {
+      if (!this.latch_.await (5, TimeUnit.SECONDS))
+        return new MockResponse ().setResponseCode (500);
+
+      return this.dispatcher_.dispatch (request);
+    }
+  }
+}
@@ -0,0 +1,259 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+@RunWith (AndroidJUnit4.class)
+public class RequestSchedulerTest
+{
+  @Test
+  public void testMaxRequests ()
+  {
+    RequestScheduler scheduler = new RequestScheduler.Builder ().setMaxRequests (2).build ();
+
+    FakeCall <String> call1 = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+    FakeCall <String> call2 = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+    FakeCall <String> call3 = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+
+    Assert.assertTrue (call1.isExecuted ());
+    Assert.assertTrue (call2.isExecuted ());
+    Assert.assertFalse (call3.isExecuted ());
+    Assert.assertEquals (2, scheduler.getRunningCount ());
+    Assert.assertEquals (1, scheduler.getQueuedCount ());
+
+    call1.complete ("1");
+
+    Assert.assertTrue (call3.isExecuted ());
+    Assert.assertEquals (2, scheduler.getRunningCount ());
+    Assert.assertEquals (0, scheduler.getQueuedCount ());
+  }
+
+  @Test
+  public void testMaxRequestsPerPriority ()
+  {
+    RequestScheduler scheduler = new RequestScheduler.Builder ().build ();
+
+    // Only one background request can run at a time by default.
+    FakeCall <String> background1 = this.enqueue (scheduler, RequestScheduler.Priority.BACKGROUND);
+    FakeCall <String> background2 = this.enqueue (scheduler, RequestScheduler.Priority.BACKGROUND);
+
+    Assert.assertTrue (background1.isExecuted ());
+    Assert.assertFalse (background2.isExecuted ());
+
+    // The background request waiting on its cap does not hold back other priorities.
+    FakeCall <String> interactive = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+    Assert.assertTrue (interactive.isExecuted ());
+    Assert.assertEquals (2, scheduler.getRunningCount ());
+
+    background1.complete ("1");
+    Assert.assertTrue (background2.isExecuted ());
+  }
+
+  @Test
+  public void testPriorityOrder ()
+  {
+    RequestScheduler scheduler = new RequestScheduler.Builder ().setMaxRequests (1).build ();
+
+    FakeCall <String> running = this.enqueue (scheduler, RequestScheduler.Priority.BACKGROUND);
+    FakeCall <String> background = this.enqueue (scheduler, RequestScheduler.Priority.BACKGROUND);
+    FakeCall <String> normal = this.enqueue (scheduler, RequestScheduler.Priority.NORMAL);
+    FakeCall <String> interactive = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+
+    running.complete ("1");
+    Assert.assertTrue (interactive.isExecuted ());
+    Assert.assertFalse (normal.isExecuted ());
+    Assert.assertFalse (background.isExecuted ());
+
+    interactive.complete ("2");
+    Assert.assertTrue (normal.isExecuted ());
+    Assert.assertFalse (background.isExecuted ());
+
+    normal.complete ("3");
+    Assert.assertTrue (background.isExecuted ());
+  }
+
+  @Test
+  public void testStarvationPromotion () throws Exception
+  {
+    RequestScheduler scheduler =
+        new RequestScheduler.Builder ()
+            .setMaxRequests (1)
+            .setMaxWait (50)
+            .build ();
+
+    FakeCall <String> running = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+    FakeCall <String> background = this.enqueue (scheduler, RequestScheduler.Priority.BACKGROUND);
+
+    Thread.sleep (100);
+
+    // The background request waited past the maximum wait, so it starts before the
+    // interactive request that arrived after it.
+    FakeCall <String> interactive = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+
+    running.complete ("1");
+    Assert.assertTrue (background.isExecuted ());
+    Assert.assertFalse (interactive.isExecuted ());
+
+    background.complete ("2");
+    Assert.assertTrue (interactive.isExecuted ());
+  }
+
+  @Test
+  public void testCancelledWhileWaiting ()
+  {
+    RequestScheduler scheduler = new RequestScheduler.Builder ().setMaxRequests (1).build ();
+
+    FakeCall <String> running = this.enqueue (scheduler, RequestScheduler.Priority.NORMAL);
+    FakeCall <String> cancelled = this.enqueue (scheduler, RequestScheduler.Priority.NORMAL);
+    FakeCall <String> waiting = this.enqueue (scheduler, RequestScheduler.Priority.NORMAL);
+
+    cancelled.cancel ();
+    running.complete ("1");
+
+    // The cancelled call fails without using a slot.
+    Assert.assertFalse (cancelled.isExecuted ());
+    Assert.assertNotNull (cancelled.failure_);
+    Assert.assertTrue (waiting.isExecuted ());
+    Assert.assertEquals (1, scheduler.getRunningCount ());
+  }
+
+  @Test
+  public void testStreamingCallHoldsSlotUntilClosed ()
+  {
+    RequestScheduler scheduler = new RequestScheduler.Builder ().setMaxRequests (1).build ();
+
+    FakeCall <ResponseBody> stream = new FakeCall<> ();
+    scheduler.enqueueStreaming (stream, RequestScheduler.Priority.BACKGROUND, stream);
+
+    FakeCall <String> waiting = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+
+    stream.complete (ResponseBody.create (MediaType.parse ("application/json"), "{}"));
+
+    // The body has not been read, so the stream still has the slot.
+    Assert.assertNotNull (stream.response_);
+    Assert.assertFalse (waiting.isExecuted ());
+    Assert.assertEquals (1, scheduler.getRunningCount ());
+
+    stream.response_.body ().close ();
+    Assert.assertTrue (waiting.isExecuted ());
+
+    // Closing the body again does not release another slot.
+    stream.response_.body ().close ();
+    Assert.assertEquals (1, scheduler.getRunningCount ());
+  }
+
+  @Test
+  public void testStreamingCallFailureReleasesSlot ()
+  {
+    RequestScheduler scheduler = new RequestScheduler.Builder ().setMaxRequests (1).build ();
+
+    FakeCall <ResponseBody> stream = new FakeCall<> ();
+    scheduler.enqueueStreaming (stream, RequestScheduler.Priority.BACKGROUND, stream);
+
+    FakeCall <String> waiting = this.enqueue (scheduler, RequestScheduler.Priority.INTERACTIVE);
+
+    stream.fail ();
+    Assert.assertTrue (waiting.isExecuted ());
+  }
+
+  private FakeCall <String> enqueue (RequestScheduler scheduler, RequestScheduler.Priority priority)
+  {
+    FakeCall <String> call = new FakeCall<> ();
+    scheduler.enqueue (call, priority, call);
+
+    return call;
+  }
+
+  /**
+   * A call that completes when the test completes it. The call is also the callback
+   * of the scheduler, and records the outcome.
+   */
+  private static class FakeCall <T> implements Call <T>, Callback <T>
+  {
+    private final List <Callback <T>> callbacks_ = new ArrayList<> ();
+
+    private boolean isCanceled_;
+
+    private Response <T> response_;
+
+    private Throwable failure_;
+
+    void complete (T value)
+    {
+      this.callbacks_.get (0).onResponse (this, Response.success (value));
+    }
+
+    void fail ()
+    {
+      this.callbacks_.get (0).onFailure (this, new RuntimeException ("failed"));
+    }
+
+    @Override
+    public Response <T> execute ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    @Override
+    public void enqueue (Callback <T> callback)
+    {
+      this.callbacks_.add (callback);
+    }
+
+    @Override
+    public boolean isExecuted ()
+    {
+      return !this.callbacks_.isEmpty ();
+    }
+
+    @Override
+    public void cancel ()
+    {
+      this.isCanceled_ = true;
+    }
+
+    @Override
+    public boolean isCanceled ()
+    {
+      return this.isCanceled_;
+    }
+
+    @SuppressWarnings ("CloneDoesntCallSuperClone")
+    @Override
+    public Call <T> clone ()
+    {
+      return new FakeCall<> ();
+    }
+
+    @Override
+    public Request request ()
+    {
+      return new Request.Builder ().url ("http://localhost/").build ();
+    }
+
+    @Override
+    public void onResponse (Call <T> call, Response <T> response)
+    {
+      this.response_ = response;
+    }
+
+    @Override
+    public void onFailure (Call <T> call, Throwable t)
+    {
+      this.failure_ = t;
+    }
+  }
+}
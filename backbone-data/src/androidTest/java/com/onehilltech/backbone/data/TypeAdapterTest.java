@@ -0,0 +1,88 @@
+package com.onehilltech.backbone.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.onehilltech.backbone.data.fixtures.Book;
+import com.onehilltech.backbone.data.fixtures.Comment;
+import com.onehilltech.backbone.data.fixtures.User;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith (AndroidJUnit4.class)
+public class TypeAdapterTest extends DataStoreTestCase
+{
+  @Test
+  public void testGeneratedTypeAdapter ()
+  {
+    TypeAdapter <?> typeAdapter = this.getTypeAdapter (User.class);
+
+    Assert.assertTrue (typeAdapter instanceof GeneratedTypeAdapter);
+    Assert.assertEquals ("com.onehilltech.backbone.data.fixtures.User_TypeAdapter", typeAdapter.getClass ().getName ());
+  }
+
+  @Test
+  public void testReflectionFallback ()
+  {
+    // The model has a field that is not public, so the processor did not generate
+    // a type adapter for it.
+    TypeAdapter <?> typeAdapter = this.getTypeAdapter (Comment.class);
+    Assert.assertFalse (typeAdapter instanceof GeneratedTypeAdapter);
+
+    Comment comment = this.getGson ().fromJson ("{\"_id\": 1, \"text\": \"Hello\"}", Comment.class);
+
+    Assert.assertEquals (1, comment._id);
+    Assert.assertEquals ("Hello", comment.getText ());
+  }
+
+  @Test
+  public void testSerializedName ()
+  {
+    Gson gson = this.getGson ();
+
+    User user = gson.fromJson ("{\"_id\": 1, \"first_name\": \"John\", \"last_name\": \"Doe\", \"age\": {\"years\": 30}}", User.class);
+    Assert.assertEquals (new User (1, "John", "Doe"), user);
+
+    // The alternate name is read, but the model is written with its serialized name.
+    user = gson.fromJson ("{\"_id\": 1, \"firstName\": \"John\", \"last_name\": \"Doe\"}", User.class);
+    Assert.assertEquals (new User (1, "John", "Doe"), user);
+
+    String json = gson.toJson (user);
+    Assert.assertTrue (json.contains ("\"first_name\":\"John\""));
+    Assert.assertFalse (json.contains ("firstName"));
+  }
+
+  @Test
+  public void testForeignKey ()
+  {
+    Gson gson = this.getGson ();
+
+    Book book = gson.fromJson ("{\"_id\": 1, \"author\": 25, \"title\": \"Book Title\"}", Book.class);
+
+    // The foreign key is a stub with only the id of the referenced model.
+    Assert.assertEquals (25, book.author._id);
+    Assert.assertNull (book.author.firstName);
+    Assert.assertEquals ("Book Title", book.title);
+
+    Assert.assertTrue (gson.toJson (book).contains ("\"author\":25"));
+  }
+
+  private Gson getGson ()
+  {
+    return this.dataStore_.getGson ();
+  }
+
+  /**
+   * Get the type adapter the data store uses to read the models of a data class.
+   */
+  private TypeAdapter <?> getTypeAdapter (Class <?> dataClass)
+  {
+    TypeAdapter <?> typeAdapter = this.getGson ().getAdapter (dataClass);
+    Assert.assertTrue (typeAdapter instanceof DataModelTypeAdapterFactory.InterningTypeAdapter);
+
+    return ((DataModelTypeAdapterFactory.InterningTypeAdapter <?>)typeAdapter).getTypeAdapter ();
+  }
+}
@@ -0,0 +1,29 @@
+package com.onehilltech.backbone.data.fixtures;
+
+import com.onehilltech.backbone.data.DataModel;
+import com.raizlabs.android.dbflow.annotation.Column;
+import com.raizlabs.android.dbflow.annotation.PrimaryKey;
+import com.raizlabs.android.dbflow.annotation.Table;
+
+/**
+ * The text is not a public field, so the model does not have a generated type adapter.
+ */
+@Table(name = "comments", database = TestDatabase.class)
+public class Comment extends DataModel <Comment>
+{
+  @PrimaryKey
+  public long _id;
+
+  @Column
+  String text;
+
+  public Comment ()
+  {
+
+  }
+
+  public String getText ()
+  {
+    return this.text;
+  }
+}
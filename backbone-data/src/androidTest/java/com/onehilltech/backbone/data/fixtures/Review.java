@@ -0,0 +1,31 @@
+package com.onehilltech.backbone.data.fixtures;
+
+import com.onehilltech.backbone.data.DataModel;
+import com.raizlabs.android.dbflow.annotation.Column;
+import com.raizlabs.android.dbflow.annotation.ForeignKey;
+import com.raizlabs.android.dbflow.annotation.PrimaryKey;
+import com.raizlabs.android.dbflow.annotation.Table;
+
+@Table(name = "reviews", database = TestDatabase.class)
+public class Review extends DataModel <Review>
+{
+  @PrimaryKey
+  public long _id;
+
+  @ForeignKey(stubbedRelationship = true)
+  public Book book;
+
+  @Column
+  public String text;
+
+  public Review ()
+  {
+
+  }
+
+  public Review (long _id, Book book)
+  {
+    this._id = _id;
+    this.book = book;
+  }
+}
@@ -13,7 +13,7 @@ public class User extends DataModel <User>
   public long _id;
 
   @Column(name = "first_name")
-  @SerializedName ("first_name")
+  @SerializedName (value = "first_name", alternate = {"firstName"})
   public String firstName;
 
   @Column(name = "last_name")
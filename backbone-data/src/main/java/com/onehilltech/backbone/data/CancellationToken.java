@@ -0,0 +1,95 @@
+package com.onehilltech.backbone.data;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+
+/**
+ * @class CancellationToken
+ *
+ * Cancels the operations it is passed to. Cancelling the token cancels the network
+ * calls of the operations, aborts the streams they are parsing, and skips the database
+ * transactions they have not started. The promise of a cancelled operation is rejected
+ * with a CancellationException.
+ *
+ * A token can be passed to many operations (e.g., all the operations of a screen), and
+ * cannot be reset once it is cancelled.
+ */
+public class CancellationToken
+{
+  public interface OnCancelListener
+  {
+    void onCancel ();
+  }
+
+  private boolean isCancelled_;
+
+  private ArrayList <OnCancelListener> listeners_ = new ArrayList<> ();
+
+  /**
+   * Cancel the operations of the token. This method does nothing if the token is
+   * already cancelled.
+   */
+  public void cancel ()
+  {
+    ArrayList <OnCancelListener> listeners;
+
+    synchronized (this)
+    {
+      if (this.isCancelled_)
+        return;
+
+      this.isCancelled_ = true;
+
+      listeners = this.listeners_;
+      this.listeners_ = null;
+    }
+
+    for (OnCancelListener listener: listeners)
+      listener.onCancel ();
+  }
+
+  public synchronized boolean isCancelled ()
+  {
+    return this.isCancelled_;
+  }
+
+  /**
+   * Throw a CancellationException if the token is cancelled.
+   */
+  public void throwIfCancelled ()
+  {
+    if (this.isCancelled ())
+      throw new CancellationException ("The operation was cancelled");
+  }
+
+  /**
+   * Add a listener that is called when the token is cancelled. If the token is already
+   * cancelled, the listener is called immediately.
+   *
+   * @param listener        The listener
+   */
+  public void addOnCancelListener (OnCancelListener listener)
+  {
+    synchronized (this)
+    {
+      if (!this.isCancelled_)
+      {
+        this.listeners_.add (listener);
+        return;
+      }
+    }
+
+    listener.onCancel ();
+  }
+
+  /**
+   * Remove a listener, e.g., once its operation is complete.
+   *
+   * @param listener        The listener
+   */
+  public synchronized void removeOnCancelListener (OnCancelListener listener)
+  {
+    if (this.listeners_ != null)
+      this.listeners_.remove (listener);
+  }
+}
@@ -0,0 +1,191 @@
+package com.onehilltech.backbone.data;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.raizlabs.android.dbflow.config.FlowManager;
+import com.raizlabs.android.dbflow.sql.SqlUtils;
+import com.raizlabs.android.dbflow.sql.language.NameAlias;
+import com.raizlabs.android.dbflow.sql.language.Operator;
+import com.raizlabs.android.dbflow.sql.language.SQLOperator;
+import com.raizlabs.android.dbflow.structure.BaseModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * @class ChangeNotifier
+ *
+ * Coalesces the change notifications for the tables written by the data store. The
+ * data store writes models without the per-row notifications of DBFlow, and reports
+ * the tables (or the ids deleted from a table) to the notifier after each transaction
+ * commits. Each table then gets a single notification.
+ *
+ * If there is a debounce window, the changes are held for the window after the first
+ * change, so the transactions committed within the window (e.g., the batches of a
+ * sync) also produce a single notification for each table.
+ */
+class ChangeNotifier
+{
+  /**
+   * The pending changes for a single table.
+   */
+  private static class Changes
+  {
+    /// The table changed in a way other than deleting models.
+    private boolean isChanged_;
+
+    /// Ids of the deleted models.
+    private final LinkedHashSet <Object> deleted_ = new LinkedHashSet<> ();
+  }
+
+  private final String contentAuthority_;
+
+  private final long debounceWindow_;
+
+  private final Handler handler_;
+
+  private final NameAlias idColumn_;
+
+  private LinkedHashMap <Class <?>, Changes> pending_ = new LinkedHashMap<> ();
+
+  private boolean isScheduled_;
+
+  private final Runnable flush_ = this::flush;
+
+  /**
+   * Initializing constructor.
+   *
+   * @param contentAuthority      Authority of the notification uris
+   * @param idColumn              Primary key of the tables
+   * @param debounceWindow        Debounce window in milliseconds, or 0
+   */
+  ChangeNotifier (String contentAuthority, NameAlias idColumn, long debounceWindow)
+  {
+    this.contentAuthority_ = contentAuthority;
+    this.idColumn_ = idColumn;
+    this.debounceWindow_ = debounceWindow;
+    this.handler_ = debounceWindow > 0 ? new Handler (Looper.getMainLooper ()) : null;
+  }
+
+  /**
+   * Report the contents of a table changed.
+   *
+   * @param dataClass         Data class of the table
+   */
+  void tableChanged (Class <?> dataClass)
+  {
+    synchronized (this)
+    {
+      this.getChanges (dataClass).isChanged_ = true;
+    }
+
+    this.schedule ();
+  }
+
+  /**
+   * Report models were deleted from a table.
+   *
+   * @param dataClass         Data class of the table
+   * @param ids               Ids of the deleted models
+   */
+  void modelsDeleted (Class <?> dataClass, Iterable <?> ids)
+  {
+    synchronized (this)
+    {
+      Changes changes = this.getChanges (dataClass);
+
+      for (Object id: ids)
+        changes.deleted_.add (id);
+    }
+
+    this.schedule ();
+  }
+
+  /**
+   * Send the pending notifications.
+   */
+  void flush ()
+  {
+    Map <Class <?>, Changes> pending;
+
+    synchronized (this)
+    {
+      this.isScheduled_ = false;
+
+      if (this.pending_.isEmpty ())
+        return;
+
+      pending = this.pending_;
+      this.pending_ = new LinkedHashMap<> ();
+    }
+
+    for (Map.Entry <Class <?>, Changes> entry: pending.entrySet ())
+      this.send (entry.getKey (), entry.getValue ());
+  }
+
+  private void send (Class <?> dataClass, Changes changes)
+  {
+    Uri changeUri;
+
+    if (!changes.isChanged_ && changes.deleted_.size () == 1)
+    {
+      // A single deleted model keeps the notification for the model, so observers
+      // can still tell which model was deleted.
+      Object id = changes.deleted_.iterator ().next ();
+
+      changeUri = SqlUtils.getNotificationUri (this.contentAuthority_,
+                                               dataClass,
+                                               BaseModel.Action.DELETE,
+                                               Collections.<SQLOperator>singletonList (Operator.op (this.idColumn_).eq (id)));
+    }
+    else
+    {
+      changeUri = SqlUtils.getNotificationUri (this.contentAuthority_,
+                                               dataClass,
+                                               BaseModel.Action.CHANGE,
+                                               new ArrayList <SQLOperator> ());
+    }
+
+    FlowManager.getContext ()
+               .getContentResolver ()
+               .notifyChange (changeUri, null, true);
+  }
+
+  private void schedule ()
+  {
+    if (this.handler_ == null)
+    {
+      this.flush ();
+      return;
+    }
+
+    // The window starts at the first pending change. Later changes do not extend the
+    // window so a steady stream of writes cannot hold back the notifications.
+    synchronized (this)
+    {
+      if (this.isScheduled_)
+        return;
+
+      this.isScheduled_ = true;
+      this.handler_.postDelayed (this.flush_, this.debounceWindow_);
+    }
+  }
+
+  private Changes getChanges (Class <?> dataClass)
+  {
+    Changes changes = this.pending_.get (dataClass);
+
+    if (changes == null)
+    {
+      changes = new Changes ();
+      this.pending_.put (dataClass, changes);
+    }
+
+    return changes;
+  }
+}
@@ -12,6 +12,9 @@ public abstract class DataModel <T extends DataModel>
   /// Data store associated with the data model.
   private DataStore store_;
 
+  /// The model was loaded with a projection.
+  private boolean isPartial_;
+
   /**
    * Assign the model to a data store.
    *
@@ -33,6 +36,23 @@ public abstract class DataModel <T extends DataModel>
     return this.store_;
   }
 
+  /**
+   * Test if the model is partial. A partial model was loaded with a projection, or
+   * from a row that was inserted from a response with a sparse fieldset. Only the
+   * fields in the projection have a value. Use DataStore.get () to get the full model.
+   *
+   * @return          True if the model is partial
+   */
+  public boolean isPartial ()
+  {
+    return this.isPartial_;
+  }
+
+  void setPartial (boolean isPartial)
+  {
+    this.isPartial_ = isPartial;
+  }
+
   /**
    * Update the model on both the server, and the local database.
    *
@@ -13,13 +13,17 @@ import com.raizlabs.android.dbflow.structure.InvalidDBConfiguration;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.util.HashMap;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DataModelTypeAdapterFactory implements TypeAdapterFactory
 {
-  private final Map <Class <?>, TypeAdapter <?>> cache_ = new HashMap<> ();
+  /// The type adapters can be created from any thread that parses a data model.
+  private final ConcurrentHashMap <Class <?>, TypeAdapter <?>> cache_ = new ConcurrentHashMap<> ();
 
   @SuppressWarnings("unchecked")
   @Override
@@ -44,10 +48,20 @@ public class DataModelTypeAdapterFactory implements TypeAdapterFactory
       InstanceAdapter<? extends DataModel> instanceAdapter =
           (InstanceAdapter<? extends DataModel>) FlowManager.getInstanceAdapter (rawType);
 
-      typeAdapter = (TypeAdapter <T>)this.newDataModelTypeAdapter (gson, instanceAdapter);
-      this.cache_.put (rawType, typeAdapter);
+      // Use the adapter generated at compile time, if it exists. Otherwise, we fallback
+      // to the reflection-based adapter.
+      typeAdapter = (TypeAdapter <T>)newGeneratedTypeAdapter (gson, rawType);
 
-      return typeAdapter;
+      if (typeAdapter == null)
+        typeAdapter = (TypeAdapter <T>)this.newDataModelTypeAdapter (gson, instanceAdapter);
+
+      typeAdapter = newInterningTypeAdapter (rawType, typeAdapter);
+
+      // Another thread may have created the type adapter at the same time. We keep the
+      // first one so all threads share the same type adapter.
+      TypeAdapter <T> existing = (TypeAdapter <T>)this.cache_.putIfAbsent (rawType, typeAdapter);
+
+      return existing != null ? existing : typeAdapter;
     }
     catch (IllegalArgumentException | InvalidDBConfiguration e)
     {
@@ -55,6 +69,36 @@ public class DataModelTypeAdapterFactory implements TypeAdapterFactory
     }
   }
 
+  /**
+   * Create the generated type adapter for a data class.
+   *
+   * @param gson            Gson context
+   * @param dataClass       Data class
+   * @return                TypeAdapter object, or null if the adapter was not generated
+   */
+  private static TypeAdapter <?> newGeneratedTypeAdapter (Gson gson, Class <?> dataClass)
+  {
+    Class <?> adapterClass;
+
+    try
+    {
+      adapterClass = Class.forName (GeneratedTypeAdapter.getGeneratedName (dataClass), true, dataClass.getClassLoader ());
+    }
+    catch (ClassNotFoundException e)
+    {
+      return null;
+    }
+
+    try
+    {
+      return (TypeAdapter <?>)adapterClass.getConstructor (Gson.class).newInstance (gson);
+    }
+    catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e)
+    {
+      throw new IllegalStateException ("Failed to create " + adapterClass.getName (), e);
+    }
+  }
+
   private <E extends DataModel> TypeAdapter<E> newDataModelTypeAdapter (Gson context, final InstanceAdapter<E> instanceAdapter)
   {
     Class<E> modelClass = instanceAdapter.getModelClass ();
@@ -67,6 +111,10 @@ public class DataModelTypeAdapterFactory implements TypeAdapterFactory
       if (field.isSynthetic ())
         continue;
 
+      // The models without a generated type adapter are the ones with fields that are
+      // not public.
+      field.setAccessible (true);
+
       SerializedName serializedName = field.getAnnotation (SerializedName.class);
 
       Class<?> fieldType = field.getType ();
@@ -188,7 +236,110 @@ public class DataModelTypeAdapterFactory implements TypeAdapterFactory
     }
   }
 
-  private static <E> ForeignKeyTypeAdapter newForeignKeyTypeAdapter (Class <E> dataClass)
+  /**
+   * Wrap the type adapter for a data model so the models it reads are interned in the
+   * current reference scope.
+   */
+  private static <E> TypeAdapter <E> newInterningTypeAdapter (Class <?> dataClass, TypeAdapter <E> typeAdapter)
+  {
+    try
+    {
+      return new InterningTypeAdapter<> (dataClass, typeAdapter, dataClass.getField ("_id"));
+    }
+    catch (NoSuchFieldException e)
+    {
+      return typeAdapter;
+    }
+  }
+
+  /**
+   * Type adapter that interns the models read by another type adapter. If the scope
+   * already has a stub for the model, the values of the model are copied into the stub,
+   * and the stub is returned. This way, each foreign key that referenced the model
+   * before it was read also sees its values.
+   */
+  static class InterningTypeAdapter <E> extends TypeAdapter <E>
+  {
+    private final TypeAdapter <E> typeAdapter_;
+
+    private final Field idField_;
+
+    /// The fields set by the type adapter, which are copied into the stub.
+    private final ArrayList <Field> fields_ = new ArrayList<> ();
+
+    InterningTypeAdapter (Class <?> dataClass, TypeAdapter <E> typeAdapter, Field idField)
+    {
+      this.typeAdapter_ = typeAdapter;
+      this.idField_ = idField;
+
+      for (Field field: dataClass.getDeclaredFields ())
+      {
+        int modifiers = field.getModifiers ();
+
+        if (field.isSynthetic () || Modifier.isStatic (modifiers) || Modifier.isFinal (modifiers))
+          continue;
+
+        field.setAccessible (true);
+        this.fields_.add (field);
+      }
+    }
+
+    /**
+     * Get the type adapter that reads the models.
+     */
+    TypeAdapter <E> getTypeAdapter ()
+    {
+      return this.typeAdapter_;
+    }
+
+    @Override
+    public void write (JsonWriter out, E value) throws IOException
+    {
+      this.typeAdapter_.write (out, value);
+    }
+
+    @SuppressWarnings ("unchecked")
+    @Override
+    public E read (JsonReader in) throws IOException
+    {
+      E model = this.typeAdapter_.read (in);
+      ReferenceScope scope = ReferenceScope.current ();
+
+      if (scope == null || model == null)
+        return model;
+
+      try
+      {
+        Class <E> dataClass = (Class <E>)model.getClass ();
+        Object id = this.idField_.get (model);
+
+        if (id == null)
+          return model;
+
+        E existing = scope.get (dataClass, id);
+
+        if (existing == null)
+        {
+          scope.put (dataClass, id, model);
+          return model;
+        }
+
+        if (existing != model)
+        {
+          for (Field field: this.fields_)
+            field.set (existing, field.get (model));
+        }
+
+        return existing;
+      }
+      catch (IllegalAccessException e)
+      {
+        throw new AssertionError (e);
+      }
+    }
+  }
+
+  static <E> ForeignKeyTypeAdapter <E> newForeignKeyTypeAdapter (Class <E> dataClass)
       throws NoSuchFieldException
   {
     InstanceAdapter <E> instanceAdapter = FlowManager.getInstanceAdapter (dataClass);
@@ -197,15 +348,17 @@ public class DataModelTypeAdapterFactory implements TypeAdapterFactory
     return new ForeignKeyTypeAdapter <>(instanceAdapter, idField);
   }
 
-  private static class ForeignKeyTypeAdapter <E> extends TypeAdapter <E>
+  static class ForeignKeyTypeAdapter <E> extends TypeAdapter <E>
   {
     private final InstanceAdapter <E> instanceAdapter_;
+    private final Class <E> dataClass_;
     private final Field idField_;
     private final Class <?> idType_;
 
     ForeignKeyTypeAdapter (InstanceAdapter <E> instanceAdapter, Field idField)
     {
       this.instanceAdapter_ = instanceAdapter;
+      this.dataClass_ = instanceAdapter.getModelClass ();
       this.idField_ = idField;
       this.idType_ = idField.getType ();
     }
@@ -233,16 +386,35 @@ public class DataModelTypeAdapterFactory implements TypeAdapterFactory
     @Override
     public E read (JsonReader in) throws IOException
     {
+      Object id;
+
+      if (this.idType_.equals (String.class))
+        id = in.nextString ();
+      else if (this.idType_.equals (long.class) || this.idType_.equals (Long.class))
+        id = in.nextLong ();
+      else
+        throw new IOException ("Foreign key value must be a String or Long [type=" + this.idType_ + "]");
+
+      // Share the instance with the other references to the same model in the
+      // resource being parsed.
+      ReferenceScope scope = ReferenceScope.current ();
+
+      if (scope != null)
+      {
+        E existing = scope.get (this.dataClass_, id);
+
+        if (existing != null)
+          return existing;
+      }
+
       E refModel = this.instanceAdapter_.newInstance ();
 
       try
       {
-        if (this.idType_.equals (String.class))
-          this.idField_.set (refModel, in.nextString ());
-        else if (this.idType_.equals (long.class) || this.idType_.equals (Long.class))
-          this.idField_.set (refModel, in.nextLong ());
-        else
-          throw new IOException ("Foreign key value must be a String or Long [type=" + this.idType_ + "]");
+        this.idField_.set (refModel, id);
+
+        if (scope != null)
+          scope.put (this.dataClass_, id, refModel);
 
         return refModel;
       }
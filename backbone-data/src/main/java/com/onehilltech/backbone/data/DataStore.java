@@ -2,25 +2,28 @@ package com.onehilltech.backbone.data;
 
 import android.content.Context;
 import android.net.Uri;
+import android.text.TextUtils;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.google.gson.TypeAdapterFactory;
+import com.google.gson.stream.JsonReader;
 import com.onehilltech.backbone.data.serializers.DateTimeSerializer;
 import com.onehilltech.promises.Promise;
 import com.raizlabs.android.dbflow.config.DatabaseDefinition;
 import com.raizlabs.android.dbflow.config.FlowManager;
-import com.raizlabs.android.dbflow.sql.SqlUtils;
 import com.raizlabs.android.dbflow.sql.language.From;
 import com.raizlabs.android.dbflow.sql.language.NameAlias;
 import com.raizlabs.android.dbflow.sql.language.Operator;
-import com.raizlabs.android.dbflow.sql.language.SQLOperator;
 import com.raizlabs.android.dbflow.sql.language.SQLite;
-import com.raizlabs.android.dbflow.sql.queriable.Queriable;
-import com.raizlabs.android.dbflow.structure.BaseModel;
+import com.raizlabs.android.dbflow.sql.language.Where;
+import com.raizlabs.android.dbflow.sql.language.property.IProperty;
 import com.raizlabs.android.dbflow.structure.ModelAdapter;
+import com.raizlabs.android.dbflow.structure.database.DatabaseWrapper;
 import com.raizlabs.android.dbflow.structure.database.FlowCursor;
+import com.raizlabs.android.dbflow.structure.database.transaction.ITransaction;
+import com.raizlabs.android.dbflow.structure.database.transaction.Transaction;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -32,18 +35,28 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import okhttp3.Cache;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
-import static com.onehilltech.promises.Promise.await;
+import static com.onehilltech.promises.Promise.rejected;
 import static com.onehilltech.promises.Promise.resolved;
 import static com.onehilltech.promises.Promise.value;
 
@@ -82,6 +95,62 @@ public class DataStore
 
     private String contentAuthority_;
 
+    /// Default number of models written per transaction when streaming.
+    private int streamBatchSize_ = 500;
+
+    /// The model cache is disabled by default.
+    private int modelCacheSize_ = 0;
+
+    /// By default, only requests in flight are coalesced.
+    private long coalesceWindow_ = 0;
+
+    /// Maximum number of ids in a single bulk request.
+    private int bulkFetchLimit_ = 100;
+
+    /// Maximum number of models in a single bulk mutation.
+    private int bulkWriteLimit_ = 100;
+
+    /// Name of the query parameter that contains the list of ids.
+    private String idListParameter_ = FIELD_ID;
+
+    /// Name of the query parameter that contains the sync watermark.
+    private String syncParameter_ = "since";
+
+    /// By default, only the watermark provided by the server is used.
+    private String watermarkField_;
+
+    /// Format of the query parameter that contains a sparse fieldset.
+    private String fieldsParameter_ = "fields[%s]";
+
+    /// The index advisor is disabled by default.
+    private IndexAdvisor.Mode indexAdvisorMode_ = IndexAdvisor.Mode.OFF;
+
+    /// Number of times a local query is executed before the index advisor analyzes it.
+    private int indexAdvisorThreshold_ = IndexAdvisor.DEFAULT_THRESHOLD;
+
+    /// By default, the notifications of a transaction are sent when it commits.
+    private long notificationDebounce_ = 0;
+
+    /// Maximum number of outbox mutations sent in a single replay.
+    private int outboxBatchSize_ = 20;
+
+    /// Create the type adapters for the data models in the background.
+    private boolean prewarmTypeAdapters_ = false;
+
+    /// By default, Retrofit delivers the responses on the main thread.
+    private Executor callbackExecutor_;
+
+    /// By default, OkHttp executes the requests on its own dispatcher.
+    private ExecutorService networkExecutor_;
+
+    private Executor parseExecutor_;
+
+    /// By default, the transactions are executed on the DBFlow transaction queue.
+    private Executor databaseExecutor_;
+
+    /// By default, the requests are scheduled on the shared scheduler.
+    private RequestScheduler requestScheduler_;
+
     public Builder (Context context, Class <?> databaseClass)
     {
       this.context_ = context;
@@ -143,6 +212,239 @@ public class DataStore
       return this;
     }
 
+    public Builder setStreamBatchSize (int streamBatchSize)
+    {
+      this.streamBatchSize_ = streamBatchSize;
+      return this;
+    }
+
+    /**
+     * Enable the in-memory model cache. The cache holds at most the given number of models,
+     * and is disabled when the size is 0.
+     *
+     * @param modelCacheSize        Maximum number of cached models
+     */
+    public Builder setModelCacheSize (int modelCacheSize)
+    {
+      this.modelCacheSize_ = modelCacheSize;
+      return this;
+    }
+
+    /**
+     * Set the amount of time, in milliseconds, the result of a completed read request is
+     * shared with identical read requests. Identical requests in flight are always shared.
+     *
+     * @param coalesceWindow        Window in milliseconds
+     */
+    public Builder setCoalesceWindow (long coalesceWindow)
+    {
+      this.coalesceWindow_ = coalesceWindow;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of ids sent in a single request by getMany ().
+     *
+     * @param bulkFetchLimit        Maximum number of ids
+     */
+    public Builder setBulkFetchLimit (int bulkFetchLimit)
+    {
+      this.bulkFetchLimit_ = bulkFetchLimit;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of models createMany (), updateMany () and deleteMany ()
+     * send in a single request. Larger lists are split into multiple requests.
+     *
+     * @param bulkWriteLimit        Maximum number of models
+     */
+    public Builder setBulkWriteLimit (int bulkWriteLimit)
+    {
+      this.bulkWriteLimit_ = bulkWriteLimit;
+      return this;
+    }
+
+    /**
+     * Set the name of the query parameter getMany () uses for the comma-separated list
+     * of ids. The default is _id.
+     *
+     * @param idListParameter       Name of the query parameter
+     */
+    public Builder setIdListParameter (String idListParameter)
+    {
+      this.idListParameter_ = idListParameter;
+      return this;
+    }
+
+    /**
+     * Set the name of the query parameter sync () uses to send the watermark of the
+     * last sync. The default is since.
+     *
+     * @param syncParameter         Name of the query parameter
+     */
+    public Builder setSyncParameter (String syncParameter)
+    {
+      this.syncParameter_ = syncParameter;
+      return this;
+    }
+
+    /**
+     * Set the name of the model field sync () uses as the watermark when the server
+     * does not provide one. The field must increase with each change to a model, such
+     * as updatedAt. A field that only increases when a model is created (e.g., _id)
+     * misses the updates to existing models.
+     *
+     * There is no default field. If the server does not provide a watermark, and the
+     * field is not set, each sync requests all the models.
+     *
+     * @param watermarkField        Name of the field
+     */
+    public Builder setWatermarkField (String watermarkField)
+    {
+      if (watermarkField == null)
+        throw new IllegalArgumentException ("The watermark field cannot be null");
+
+      this.watermarkField_ = watermarkField;
+      return this;
+    }
+
+    /**
+     * Set the format of the query parameter for a sparse fieldset. The %s in the format
+     * is replaced with the plural name of the model. The default is fields[%s].
+     *
+     * @param fieldsParameter       Format of the query parameter
+     */
+    public Builder setFieldsParameter (String fieldsParameter)
+    {
+      this.fieldsParameter_ = fieldsParameter;
+      return this;
+    }
+
+    /**
+     * Enable the index advisor for the local queries. The advisor either reports the
+     * missing indices, or creates them in the background.
+     *
+     * @param mode                  Mode of the advisor
+     * @see IndexAdvisor
+     */
+    public Builder setIndexAdvisorMode (IndexAdvisor.Mode mode)
+    {
+      this.indexAdvisorMode_ = mode;
+      return this;
+    }
+
+    /**
+     * Set the number of times a local query is executed before the index advisor
+     * analyzes its plan. The default is 5.
+     *
+     * @param threshold             Number of executions
+     */
+    public Builder setIndexAdvisorThreshold (int threshold)
+    {
+      this.indexAdvisorThreshold_ = threshold;
+      return this;
+    }
+
+    /**
+     * Set the window for coalescing the change notifications across transactions. The
+     * notifications for the tables written within the window of the first change are
+     * sent together at the end of the window. The default is 0, which sends the
+     * notifications of each transaction when it commits.
+     *
+     * @param debounceWindow        Window in milliseconds
+     */
+    public Builder setNotificationDebounce (long debounceWindow)
+    {
+      this.notificationDebounce_ = debounceWindow;
+      return this;
+    }
+
+    /**
+     * Set the number of pending mutations the outbox sends in a single replay.
+     *
+     * @param outboxBatchSize       Number of mutations
+     */
+    public Builder setOutboxBatchSize (int outboxBatchSize)
+    {
+      this.outboxBatchSize_ = outboxBatchSize;
+      return this;
+    }
+
+    /**
+     * Create the Gson type adapters for all the data models in the database on a
+     * background executor when the data store is built. Otherwise, each type adapter
+     * is created the first time its data model is parsed.
+     *
+     * @param prewarmTypeAdapters   Enable pre-warming
+     */
+    public Builder setPrewarmTypeAdapters (boolean prewarmTypeAdapters)
+    {
+      this.prewarmTypeAdapters_ = prewarmTypeAdapters;
+      return this;
+    }
+
+    /**
+     * Set the executor that receives the network responses. The promises of the
+     * requests are settled on this executor instead of the main thread.
+     *
+     * @param callbackExecutor      Executor for the response callbacks
+     */
+    public Builder setCallbackExecutor (Executor callbackExecutor)
+    {
+      this.callbackExecutor_ = callbackExecutor;
+      return this;
+    }
+
+    /**
+     * Set the executor that executes the network requests. The response of a request
+     * is also parsed on this executor before it is delivered.
+     *
+     * @param networkExecutor       Executor for the requests
+     */
+    public Builder setNetworkExecutor (ExecutorService networkExecutor)
+    {
+      this.networkExecutor_ = networkExecutor;
+      return this;
+    }
+
+    /**
+     * Set the executor that parses the streamed responses. The default is a cached
+     * thread pool.
+     *
+     * @param parseExecutor         Executor for parsing streams
+     */
+    public Builder setParseExecutor (Executor parseExecutor)
+    {
+      this.parseExecutor_ = parseExecutor;
+      return this;
+    }
+
+    /**
+     * Set the executor that executes the database transactions of the data store. The
+     * transaction callbacks run on the same executor. The default is the DBFlow
+     * transaction queue.
+     *
+     * @param databaseExecutor      Executor for the transactions
+     */
+    public Builder setDatabaseExecutor (Executor databaseExecutor)
+    {
+      this.databaseExecutor_ = databaseExecutor;
+      return this;
+    }
+
+    /**
+     * Set the scheduler for the network requests of the data store. The default is
+     * RequestScheduler.getDefault (), which is shared with the other clients.
+     *
+     * @param requestScheduler      The scheduler
+     */
+    public Builder setRequestScheduler (RequestScheduler requestScheduler)
+    {
+      this.requestScheduler_ = requestScheduler;
+      return this;
+    }
+
     public DataStore build ()
     {
       if (this.databaseClass_ == null)
@@ -151,14 +453,28 @@ public class DataStore
       if (this.baseUrl_ == null)
         throw new IllegalStateException ("You must provide a base URL for the data store");
 
-      return new DataStore (this);
+      DataStore store = new DataStore (this);
+
+      if (this.prewarmTypeAdapters_)
+        store.prewarmTypeAdapters ();
+
+      return store;
     }
   }
 
-  private static final String FIELD_ID = "_id";
+  static final String FIELD_ID = "_id";
 
   private static final NameAlias _ID = NameAlias.of (FIELD_ID);
 
+  /// Maximum number of host parameters in a single SQLite statement.
+  static final int MAX_SQL_VARIABLES = 999;
+
+  /// Name of the resource element that contains the tombstones.
+  private static final String TOMBSTONES = "tombstones";
+
+  /// Name of the meta field that contains the watermark for a sync.
+  private static final String WATERMARK = "watermark";
+
   private final Class <?> databaseClass_;
 
   private final DatabaseDefinition databaseDefinition_;
@@ -179,6 +495,52 @@ public class DataStore
 
   private String contentAuthority_;
 
+  private final ResourceSerializer resourceSerializer_;
+
+  private final int streamBatchSize_;
+
+  private final ModelCache modelCache_;
+
+  private final RequestCoalescer requests_;
+
+  private final int bulkFetchLimit_;
+
+  private final int bulkWriteLimit_;
+
+  private final String idListParameter_;
+
+  private final String syncParameter_;
+
+  private final String watermarkField_;
+
+  private final String fieldsParameter_;
+
+  private final PartialRows partialRows_ = new PartialRows ();
+
+  private final IndexAdvisor indexAdvisor_;
+
+  private final ChangeNotifier changes_;
+
+  private final CopyOnWriteArrayList <LiveQuery <?>> liveQueries_ = new CopyOnWriteArrayList<> ();
+
+  /// Computes the results of the live queries off the thread of the transaction, and
+  /// in the order the transactions committed.
+  private final ExecutorService liveQueryExecutor_ = Executors.newSingleThreadExecutor ();
+
+  private final MetadataTable metadata_ = new MetadataTable ();
+
+  private final ResourceValidators validators_;
+
+  private final int outboxBatchSize_;
+
+  private Outbox outbox_;
+
+  private final Executor parseExecutor_;
+
+  private final Executor databaseExecutor_;
+
+  private final RequestScheduler scheduler_;
+
   private final Logger LOG = LoggerFactory.getLogger (DataStore.class);
 
   public interface OnModelLoaded <T>
@@ -186,6 +548,11 @@ public class DataStore
     void onModelLoaded (T model);
   }
 
+  public interface OnModelsLoaded <T extends DataModel>
+  {
+    void onModelsLoaded (DataModelList <T> models);
+  }
+
   private DataStore (Builder builder)
   {
     this.databaseClass_ = builder.databaseClass_;
@@ -193,6 +560,22 @@ public class DataStore
     this.databaseDefinition_ = FlowManager.getDatabase (this.databaseClass_);
     this.dependencyGraph_ = new DependencyGraph.Builder (this.databaseDefinition_).build ();
     this.contentAuthority_ = builder.contentAuthority_;
+    this.changes_ = new ChangeNotifier (this.contentAuthority_, _ID, builder.notificationDebounce_);
+    this.streamBatchSize_ = builder.streamBatchSize_;
+    this.modelCache_ = builder.modelCacheSize_ > 0 ? new ModelCache (builder.modelCacheSize_) : null;
+    this.requests_ = new RequestCoalescer (builder.coalesceWindow_);
+    this.parseExecutor_ = builder.parseExecutor_ != null ? builder.parseExecutor_ : Executors.newCachedThreadPool ();
+    this.databaseExecutor_ = builder.databaseExecutor_;
+    this.scheduler_ = builder.requestScheduler_ != null ? builder.requestScheduler_ : RequestScheduler.getDefault ();
+    this.bulkFetchLimit_ = builder.bulkFetchLimit_;
+    this.bulkWriteLimit_ = builder.bulkWriteLimit_;
+    this.idListParameter_ = builder.idListParameter_;
+    this.syncParameter_ = builder.syncParameter_;
+    this.watermarkField_ = builder.watermarkField_;
+    this.fieldsParameter_ = builder.fieldsParameter_;
+    this.indexAdvisor_ = new IndexAdvisor (this.databaseDefinition_, builder.indexAdvisorMode_, builder.indexAdvisorThreshold_);
+    this.validators_ = new ResourceValidators (this.metadata_, this.databaseDefinition_);
+    this.outboxBatchSize_ = builder.outboxBatchSize_;
 
     // We need to create our own HttpClient, but we need to use the provided on
     // as the foundation. This allows us to merge the client's configuration with
@@ -202,6 +585,9 @@ public class DataStore
             builder.httpClient_.newBuilder () :
             new OkHttpClient.Builder ();
 
+    if (builder.networkExecutor_ != null)
+      httpClientBuilder.dispatcher (new Dispatcher (builder.networkExecutor_));
+
     if (builder.enableCache_)
     {
       // The data store support caching.
@@ -226,12 +612,14 @@ public class DataStore
 
     // Register the different models in the database with Gson, and then register the
     // Gson instance with the Retrofit builder.
-    ResourceSerializer resourceSerializer = this.makeResourceSerializeFromDatabase ();
-    resourceSerializer.put ("errors", HttpError.class);
+    this.resourceSerializer_ = this.makeResourceSerializeFromDatabase ();
+    this.resourceSerializer_.put ("errors", HttpError.class);
+    this.resourceSerializer_.put (Pager.META, JsonObject.class);
+    this.resourceSerializer_.put (TOMBSTONES, Tombstone.class);
 
     GsonBuilder gsonBuilder =
         new GsonBuilder ()
-            .registerTypeAdapter (Resource.class, resourceSerializer)
+            .registerTypeAdapter (Resource.class, this.resourceSerializer_)
             .registerTypeAdapter (DateTime.class, new DateTimeSerializer ())
             .registerTypeAdapterFactory (new DataModelTypeAdapterFactory ());
 
@@ -242,7 +630,7 @@ public class DataStore
       gsonBuilder.registerTypeAdapterFactory (typeAdapterFactory);
 
     this.gson_ = gsonBuilder.create ();
-    resourceSerializer.setGson (this.gson_);
+    this.resourceSerializer_.setGson (this.gson_);
 
     // Build the Retrofit instance for the data store.
     Retrofit.Builder retrofitBuilder =
@@ -251,6 +639,9 @@ public class DataStore
 
     retrofitBuilder.client (httpClientBuilder.build ());
 
+    if (builder.callbackExecutor_ != null)
+      retrofitBuilder.callbackExecutor (builder.callbackExecutor_);
+
     this.retrofit_ =
         retrofitBuilder
             .addConverterFactory (GsonConverterFactory.create (this.gson_))
@@ -278,6 +669,34 @@ public class DataStore
     return serializer;
   }
 
+  /**
+   * Create the type adapters for all the data models in parallel. The executor is
+   * shutdown once all the type adapters are created.
+   */
+  private void prewarmTypeAdapters ()
+  {
+    int threads = Math.max (1, Runtime.getRuntime ().availableProcessors () - 1);
+    ExecutorService executor = Executors.newFixedThreadPool (threads);
+
+    for (ModelAdapter <?> modelAdapter: this.databaseDefinition_.getModelAdapters ())
+    {
+      Class <?> modelClass = modelAdapter.getModelClass ();
+
+      executor.execute (() -> {
+        try
+        {
+          this.gson_.getAdapter (modelClass);
+        }
+        catch (RuntimeException e)
+        {
+          LOG.warn ("Failed to create type adapter for {}", modelClass.getName (), e);
+        }
+      });
+    }
+
+    executor.shutdown ();
+  }
+
   /**
    * Clear the data store cache.
    */
@@ -300,283 +719,1827 @@ public class DataStore
   }
 
   /**
-   * Create a new object in the data store.
+   * Get the in-memory model cache for the data store.
    *
-   * @param dataClass           The data class
-   * @param value               The new value
-   * @return                    Promise object
+   * @return          ModelCache object, or null if the cache is disabled
    */
-  public <T extends DataModel> Promise <T> create (Class <T> dataClass, T value)
+  public ModelCache getModelCache ()
   {
-    return Promise.resolve (null)
-                  .then (nothing -> {
-                    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass);
-                    Resource resource = await (endpoint.create (value));
-
-                    // Get the new value, and associate it with this data store.
-                    T newValue = resource.get (endpoint.getName ());
-
-                    // Insert the created value in our database.
-                    return this.push (dataClass, newValue);
-                  });
+    return this.modelCache_;
   }
 
   /**
-   * Get all the models of a single data class. This method will make a network request
-   * to get the data.
+   * Get the scheduler for the network requests of the data store.
    *
-   * @param dataClass       Data model class
-   * @return                The model, or null
+   * @return          RequestScheduler object
    */
-  public <T extends DataModel> Promise <DataModelList <T>> get (Class <T> dataClass)
+  public RequestScheduler getRequestScheduler ()
   {
-    return Promise.resolve (null)
-                  .then (nothing -> {
-                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass);
-                    ModelAdapter<T> modelAdapter = this.getModelAdapter (dataClass);
-                    String tableName = TableUtils.getRawTableName (modelAdapter.getTableName ());
-
-                    Resource r = await (endpoint.get ());
-                    await (this.insertIntoDatabase (r, dataClass));
-
-                    DataModelList<T> modelList = r.get (tableName);
-
-                    if (modelList == null)
-                      modelList = new DataModelList<> ();
-
-                    return value (modelList);
-                  });
+    return this.scheduler_;
   }
 
   /**
-   * Get a single model element by making a network request. If the server returns that
-   * the resource has not been modified, then we load the resource from our local disk.
+   * Get the index advisor for the local queries.
    *
-   * @param dataClass       Data model class
-   * @param id              Id of model
-   * @return                The model, or null
+   * @return          IndexAdvisor object
    */
-  public <T extends DataModel> Promise <T> get (Class <T> dataClass, Object id)
+  public IndexAdvisor getIndexAdvisor ()
   {
-    return Promise.resolve (null)
-                  .then (nothing -> {
-                    this.getModelAdapter (dataClass);
-                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass);
-
-                    Resource r = await (endpoint.get (id.toString ()));
-                    await (this.insertIntoDatabase (r, dataClass));
-
-                    return value (r.get (endpoint.getName ()));
-                  });
+    return this.indexAdvisor_;
   }
 
   /**
+   * Get the outbox for making changes while offline. The outbox is created on first
+   * use, and then replays any mutations left over from a previous session.
    *
-   * @param dataClass
-   * @param id
-   * @param options
-   * @param <T>
-   * @return
+   * @return          Outbox object
    */
-  public <T extends DataModel> Promise <T> get (Class <T> dataClass, Object id, HashMap <String, Object> options)
+  public synchronized Outbox getOutbox ()
   {
-    return Promise.resolve (null)
-                  .then (result -> {
-                    this.getModelAdapter (dataClass);
-                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass);
-
-                    Resource r = await (endpoint.get (id.toString (), options));
-                    await (this.insertIntoDatabase (r, dataClass));
+    if (this.outbox_ == null)
+      this.outbox_ = new Outbox (this, this.databaseDefinition_, this.outboxBatchSize_);
 
-                    return value (r.get (endpoint.getName ()));
-                  });
+    return this.outbox_;
   }
 
-
   /**
-   * Query for a set of models by making a network request. If the server returns that the
-   * list of models has not be modified, then we load the list of models from local disk.
-   *
-   * @param dataClass           Class object
-   * @param query               Query strings
-   * @return                    Promise object
+   * Stop the background work of the data store (i.e., the replay of the outbox). The
+   * pending mutations stay in the outbox for the next data store of the database.
    */
-  public <T extends DataModel> Promise <DataModelList <T>> query (Class <T> dataClass, Map <String, Object> query)
+  public synchronized void close ()
   {
-    return Promise.resolve (null)
-                  .then (nothing -> {
-                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass);
-                    ModelAdapter<T> modelAdapter = this.getModelAdapter (dataClass);
-                    String tableName = TableUtils.getRawTableName (modelAdapter.getTableName ());
-
-                    // Insert the resources into the database. We need to account for the
-                    // resource containing data for other model classes.
-                    Resource r = await (endpoint.get (query));
-                    await (this.insertIntoDatabase (r, dataClass));
+    if (this.outbox_ == null)
+      return;
 
-                    DataModelList<T> modelList = r.get (tableName);
-
-                    if (modelList == null)
-                      modelList = new DataModelList<> ();
+    this.outbox_.close ();
+    this.outbox_ = null;
+  }
 
-                    return value (modelList);
-                  });
+  Gson getGson ()
+  {
+    return this.gson_;
   }
 
   /**
-   * Insert the resource into the database. We need to know the start node
-   * so that we can insert the resources into the database in the correct
-   * order to ensure dependencies are meet.
+   * Handle the models written by a data store transaction after it commits. The models
+   * are added to the model cache, if enabled, and are the write set of the live queries.
+   * The deltas of the live queries are computed on the live query executor.
    *
-   * @param r
-   * @param startsAt
+   * @param models          Models that were written
    */
-  @SuppressWarnings ("unchecked")
-  private Promise <Void> insertIntoDatabase (Resource r, Class <? extends DataModel> startsAt)
+  void onModelsWritten (Iterable <? extends DataModel> models)
   {
-    return new Promise<> ("data-store:insertIntoDatabase", settlement -> {
-      LOG.info ("Inserting {} resources into the database", r.entityCount ());
+    if (this.modelCache_ != null)
+      this.modelCache_.putAll (models);
 
-      this.databaseDefinition_
-          .beginTransactionAsync (transaction -> {
-            List <DependencyGraph.Node> insertOrder = this.dependencyGraph_.getInsertOrder (startsAt);
+    if (this.liveQueries_.isEmpty ())
+      return;
 
-            for (DependencyGraph.Node node: insertOrder)
-            {
-              if (node.isPluraleTantum () && r.contains (node.getSingularName ()))
-              {
-                // The plural and singular name are the same.
+    LinkedHashMap <Class <?>, ArrayList <DataModel>> written = new LinkedHashMap<> ();
 
-                this.logger_.info ("Inserting {} into the database", node.getSingularName ());
+    for (DataModel model: models)
+    {
+      ArrayList <DataModel> modelList = written.get (model.getClass ());
 
-                Object value = r.get (node.getSingularName ());
-                ModelAdapter modelAdapter = node.getModelAdapter ();
-                Class <?> valueClass = value.getClass ();
+      if (modelList == null)
+      {
+        modelList = new ArrayList<> ();
+        written.put (model.getClass (), modelList);
+      }
 
-                if (valueClass.equals (DataModel.class))
-                {
-                  DataModel <?> dataModel = (DataModel <?>)value;
-                  this.saveModel (modelAdapter, dataModel);
-                }
-                else if (valueClass.equals (DataModelList.class))
-                {
-                  DataModelList <? extends DataModel> dataModels = (DataModelList <? extends DataModel>)value;
+      modelList.add (model);
+    }
 
-                  for (DataModel model: dataModels)
-                    this.saveModel (modelAdapter, model);
-                }
-                else
-                {
-                  this.logger_.info ("Unexpected data model type: {}", valueClass.getName ());
-                }
-              }
-              else
-              {
-                // We could have either the plural and singular name.
+    for (LiveQuery <?> liveQuery: this.liveQueries_)
+    {
+      ArrayList <DataModel> modelList = written.get (liveQuery.getDataClass ());
+
+      if (modelList != null)
+        this.liveQueryExecutor_.execute (() -> liveQuery.onWriteSet (modelList, Collections.emptyList ()));
+    }
+  }
+
+  /**
+   * Handle the models deleted by a data store transaction after it commits.
+   *
+   * @param dataClass       Data class of the models
+   * @param ids             Ids of the deleted models
+   */
+  private void onModelsDeleted (Class <?> dataClass, List <Object> ids)
+  {
+    if (this.modelCache_ != null)
+    {
+      for (Object id: ids)
+        this.modelCache_.remove (dataClass, id);
+    }
 
-                if (r.contains (node.getPluralName ()))
-                {
-                  this.logger_.info ("Inserting {} into the database", node.getPluralName ());
+    this.changes_.modelsDeleted (dataClass, ids);
 
-                  DataModelList<? extends DataModel> dataModels = r.get (node.getPluralName ());
-                  ModelAdapter modelAdapter = node.getModelAdapter ();
+    for (LiveQuery <?> liveQuery: this.liveQueries_)
+    {
+      if (liveQuery.getDataClass () == dataClass)
+        this.liveQueryExecutor_.execute (() -> liveQuery.onWriteSet (Collections.<DataModel>emptyList (), ids));
+    }
+  }
 
-                  for (DataModel model : dataModels)
-                    this.saveModel (modelAdapter, model);
-                }
+  /**
+   * Observe the models that match a local query. The listener receives the initial
+   * result of the query, and then the changes to the result made by the data store.
+   * The listener is called on a background thread.
+   *
+   * @param dataClass       Data model class
+   * @param query           Local query
+   * @param onChanged       Listener for the changes
+   * @return                LiveQuery subscription
+   */
+  public <T extends DataModel> LiveQuery <T> observe (Class <T> dataClass, LocalQuery query, LiveQuery.OnChanged <T> onChanged)
+  {
+    this.getModelAdapter (dataClass);
 
-                if (r.contains (node.getSingularName ()))
-                {
-                  this.logger_.info ("Inserting {} into the database", node.getSingularName ());
+    try
+    {
+      LiveQuery <T> liveQuery = new LiveQuery<> (this, dataClass, query, onChanged);
+      this.liveQueries_.add (liveQuery);
+      this.liveQueryExecutor_.execute (liveQuery::start);
 
-                  DataModel dataModel = r.get (node.getSingularName ());
-                  ModelAdapter modelAdapter = node.getModelAdapter ();
+      return liveQuery;
+    }
+    catch (NoSuchFieldException e)
+    {
+      throw new IllegalArgumentException (dataClass.getName () + " does not have an " + FIELD_ID + " field", e);
+    }
+  }
 
-                  this.saveModel (modelAdapter, dataModel);
-                }
-              }
-            }
-          })
-          .success (transaction -> settlement.resolve (null))
-          .error ((transaction, throwable) -> settlement.reject (throwable))
-          .build ()
-          .execute ();
-    });
+  /**
+   * Observe the models that match a query.
+   *
+   * @param dataClass       Data model class
+   * @param query           Query parameters
+   * @param onChanged       Listener for the changes
+   * @return                LiveQuery subscription
+   */
+  public <T extends DataModel> LiveQuery <T> observe (Class <T> dataClass, Map <String, Object> query, LiveQuery.OnChanged <T> onChanged)
+  {
+    return this.observe (dataClass, LocalQuery.fromMap (query), onChanged);
   }
 
-  @SuppressWarnings ("unchecked")
-  private void saveModel (ModelAdapter modelAdapter, DataModel <?> dataModel)
+  void removeLiveQuery (LiveQuery <?> liveQuery)
   {
-    modelAdapter.save (dataModel);
-    dataModel.assignTo (this);
+    this.liveQueries_.remove (liveQuery);
   }
 
   /**
-   * Query for a list of models.
+   * Create a writer for a table inside a transaction. A full model written by the
+   * writer replaces a partial row.
    *
-   * @param dataClass         Data class
-   * @param query             Query parameters
-   * @return                  Promise object
+   * @param modelAdapter    Adapter of the table
+   * @param database        Database of the transaction
+   * @return                ModelWriter object
    */
-  public <T extends DataModel> Promise <FlowCursor> queryCursor (Class <T> dataClass, Map <String, Object> query)
+  <T> ModelWriter <T> newModelWriter (ModelAdapter <T> modelAdapter, DatabaseWrapper database)
   {
+    return new ModelWriter<> (modelAdapter, database, this.partialRows_);
+  }
+
+  /**
+   * Execute a transaction of the data store. If the data store has a database executor,
+   * the transaction and its callbacks run on the executor. Otherwise, the transaction
+   * is added to the DBFlow transaction queue.
+   *
+   * The partial rows the transaction marks are applied in memory once it commits, so a
+   * transaction that rolls back does not change them.
+   *
+   * @param work            Work of the transaction
+   * @param success         Callback for a committed transaction
+   * @param error           Callback for a failed transaction
+   */
+  void executeTransaction (ITransaction work, Transaction.Success success, Transaction.Error error)
+  {
+    PartialRows.Changes changes = new PartialRows.Changes ();
+
+    Transaction.Builder builder =
+        this.databaseDefinition_
+            .beginTransactionAsync (databaseWrapper -> this.partialRows_.track (changes, databaseWrapper, work))
+            .success (transaction -> {
+              this.partialRows_.commit (changes);
+              success.onSuccess (transaction);
+            })
+            .error (error);
+
+    if (this.databaseExecutor_ == null)
+    {
+      builder.build ().execute ();
+      return;
+    }
+
+    Transaction transaction = builder.runCallbacksOnSameThread (true).build ();
+    this.databaseExecutor_.execute (transaction::executeSync);
+  }
+
+  /**
+   * Flag a model loaded from the local database if its row is partial.
+   *
+   * @param modelAdapter    Adapter of the table
+   * @param model           Loaded model
+   */
+  private <T extends DataModel> void markPartial (ModelAdapter <T> modelAdapter, T model)
+  {
+    DatabaseWrapper database = this.databaseDefinition_.getWritableDatabase ();
+
+    if (this.partialRows_.hasAny (database, modelAdapter))
+      model.setPartial (this.partialRows_.contains (database, modelAdapter, model));
+  }
+
+  /**
+   * Create a new object in the data store.
+   *
+   * @param dataClass           The data class
+   * @param value               The new value
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <T> create (Class <T> dataClass, T value)
+  {
+    return this.create (dataClass, value, null);
+  }
+
+  /**
+   * Create a new object in the data store with request options. If the token of the
+   * options is cancelled before the created model is inserted into the local database,
+   * the model is not inserted, and the Promise is rejected.
+   *
+   * @param dataClass           The data class
+   * @param value               The new value
+   * @param options             Optional request options
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <T> create (Class <T> dataClass, T value, RequestOptions options)
+  {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.NORMAL);
+    CancellationToken token = opts.getCancellationToken ();
+
+    return Promise.resolve (null)
+                  .then (nothing -> this.getEndpoint (dataClass, priority, token).create (value))
+                  .then (resource -> {
+                    // Get the new value, and associate it with this data store.
+                    T newValue = resource.get (this.getEndpoint (dataClass).getName ());
+
+                    // Insert the created value in our database.
+                    return this.insertIntoDatabase (Collections.singletonList (resource), dataClass, null, token)
+                               .then (nothing -> value (newValue));
+                  });
+  }
+
+  /**
+   * Get all the models of a single data class. This method will make a network request
+   * to get the data. Concurrent identical requests share the same network request.
+   *
+   * @param dataClass       Data model class
+   * @return                The model, or null
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> get (Class <T> dataClass)
+  {
+    return this.query (dataClass, new HashMap<> (), null);
+  }
+
+  /**
+   * Get a single model element by making a network request. If the server returns that
+   * the resource has not been modified, then we load the resource from our local disk.
+   *
+   * @param dataClass       Data model class
+   * @param id              Id of model
+   * @return                The model, or null
+   */
+  public <T extends DataModel> Promise <T> get (Class <T> dataClass, Object id)
+  {
+    return this.get (dataClass, id, null, null);
+  }
+
+  /**
+   * Get a single model element with request options. The default priority for a single
+   * model is INTERACTIVE.
+   *
+   * If the options have a fetch policy, and the model does not exist locally, then the
+   * Promise is resolved with null for CACHE_ONLY. If the options have a projection, the
+   * server only returns the fields in the projection, and only those columns of the
+   * model are written to the local database.
+   *
+   * @param dataClass       Data model class
+   * @param id              Id of model
+   * @param query           Optional query strings
+   * @param options         Optional request options
+   * @return                The model, or null
+   */
+  public <T extends DataModel> Promise <T> get (Class <T> dataClass, Object id, Map <String, Object> query, RequestOptions options)
+  {
+    return this.get (dataClass, id, query, options, null);
+  }
+
+  /**
+   * Get a single model element with request options. If the fetch policy of the options
+   * revalidates the local model in the background, the refreshed model is passed to the
+   * listener.
+   *
+   * @param dataClass       Data model class
+   * @param id              Id of model
+   * @param query           Optional query strings
+   * @param options         Optional request options
+   * @param onRefreshed     Optional listener for the refreshed model
+   * @return                The model, or null
+   */
+  public <T extends DataModel> Promise <T> get (Class <T> dataClass,
+                                               Object id,
+                                               Map <String, Object> query,
+                                               RequestOptions options,
+                                               OnModelLoaded <T> onRefreshed)
+  {
+    RequestOptions opts = checkOptions (options, true);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.INTERACTIVE);
+    CancellationToken token = opts.getCancellationToken ();
+    Projection projection = opts.getProjection ();
+
+    if (projection != null)
+    {
+      HashMap <String, Object> fields = this.withFields (dataClass, query, projection);
+
+      return this.execute (RequestCoalescer.makeKey (dataClass, id, fields, priority),
+                           token,
+                           () -> Promise.resolve (null)
+                                        .then (nothing -> this.getEndpoint (dataClass, priority, token).get (id.toString (), fields))
+                                        .then (r -> this.insertIntoDatabase (Collections.singletonList (r), dataClass, projection, token)
+                                                        .then (nothing -> value (r.get (this.getEndpoint (dataClass).getName ())))));
+    }
+
+    HashMap <String, Object> params = query != null ? new HashMap<> (query) : new HashMap<> ();
+
+    RequestCoalescer.PromiseFactory <T> remote =
+        () -> this.execute (RequestCoalescer.makeKey (dataClass, id, params, priority),
+                            token,
+                            () -> this.executeGet (dataClass, id, params, priority, token));
+
+    if (opts.getFetchPolicy () == null)
+      return remote.newPromise ();
+
+    return this.fetch (RequestCoalescer.makeKey (dataClass, id, params),
+                       opts.getFetchPolicy (),
+                       () -> this.peek (dataClass, id),
+                       remote,
+                       onRefreshed);
+  }
+
+  /**
+   * Execute a network request. A request with a cancellation token does not share its
+   * network request with identical requests, so cancelling it does not affect them.
+   *
+   * @param key                 Key of the request
+   * @param token               Optional cancellation token
+   * @param factory             Factory for a new request
+   * @return                    Promise object
+   */
+  private <R> Promise <R> execute (String key, CancellationToken token, RequestCoalescer.PromiseFactory <R> factory)
+  {
+    return token != null ? factory.newPromise () : this.requests_.execute (key, factory);
+  }
+
+  /**
+   * Check the options of a request. A projection cannot be combined with a fetch policy
+   * since the local models would not have the fields of the projection.
+   *
+   * @param options             Optional request options
+   * @param isRead              The request supports a fetch policy and a projection
+   * @return                    The options, or the default options
+   */
+  private static RequestOptions checkOptions (RequestOptions options, boolean isRead)
+  {
+    if (options == null)
+      return new RequestOptions ();
+
+    boolean hasFetchPolicy = options.getFetchPolicy () != null;
+    boolean hasProjection = options.getProjection () != null;
+
+    if (!isRead && (hasFetchPolicy || hasProjection))
+      throw new IllegalArgumentException ("The request does not support a fetch policy or a projection");
+
+    if (hasFetchPolicy && hasProjection)
+      throw new IllegalArgumentException ("A projection cannot be combined with a fetch policy");
+
+    return options;
+  }
+
+  /**
+   * Add the sparse fieldset of a projection to the query strings of a request.
+   *
+   * @param dataClass           Class object
+   * @param query               Optional query strings
+   * @param projection          Fields to request
+   * @return                    New query strings
+   */
+  private HashMap <String, Object> withFields (Class <?> dataClass, Map <String, Object> query, Projection projection)
+  {
+    HashMap <String, Object> params = query != null ? new HashMap<> (query) : new HashMap<> ();
+    String pluralName = this.dependencyGraph_.getNode (dataClass).getPluralName ();
+    params.put (Uri.encode (String.format (this.fieldsParameter_, pluralName)), Uri.encode (projection.toString (), ","));
+
+    return params;
+  }
+
+  /**
+   * Read a resource according to the fetch policy. The local factory resolves with null
+   * if the resource does not exist in the local database.
+   *
+   * @param key                 Key of the request
+   * @param policy              Fetch policy
+   * @param local               Factory for reading the local database
+   * @param remote              Factory for requesting the server
+   * @param onRefreshed         Optional listener for a background refresh
+   * @return                    Promise object
+   */
+  private <R> Promise <R> fetch (String key,
+                                 FetchPolicy policy,
+                                 RequestCoalescer.PromiseFactory <R> local,
+                                 RequestCoalescer.PromiseFactory <R> remote,
+                                 OnModelLoaded <R> onRefreshed)
+  {
+    switch (policy.getType ())
+    {
+      case CACHE_ONLY:
+        return local.newPromise ();
+
+      case CACHE_FIRST:
+        return Promise.resolve (null)
+                      .then (nothing -> {
+                        if (!this.validators_.isFresh (key, policy.getMaxAge ()))
+                          return remote.newPromise ();
+
+                        return local.newPromise ()
+                                    .then (result -> isComplete (result) ? value (result) : remote.newPromise ());
+                      });
+
+      case NETWORK_FIRST:
+        return remote.newPromise ()
+                     ._catch (reason -> local.newPromise ().then (result -> {
+                       if (!isComplete (result))
+                         return Promise.reject (reason);
+
+                       return value (result);
+                     }));
+
+      case STALE_WHILE_REVALIDATE:
+        return Promise.resolve (null)
+                      .then (nothing -> local.newPromise ())
+                      .then (result -> {
+                        // There is nothing to show the client, so we have to wait for
+                        // the server.
+                        if (!isComplete (result))
+                          return remote.newPromise ();
+
+                        if (!this.validators_.isFresh (key, policy.getMaxAge ()))
+                        {
+                          remote.newPromise ()
+                                .then (resolved (refreshed -> {
+                                  if (onRefreshed != null)
+                                    onRefreshed.onModelLoaded (refreshed);
+                                }))
+                                ._catch (rejected (reason -> LOG.warn ("Failed to revalidate {}", key, reason)));
+                        }
+
+                        return value (result);
+                      });
+
+      default:
+        throw new IllegalArgumentException ("Unknown fetch policy " + policy.getType ());
+    }
+  }
+
+  /**
+   * Test if the local result of a fetch exists, and does not contain partial models.
+   *
+   * @param result              Local result
+   * @return                    True if the result is complete
+   */
+  private static boolean isComplete (Object result)
+  {
+    if (result == null)
+      return false;
+
+    if (result instanceof DataModel)
+      return !((DataModel)result).isPartial ();
+
+    if (result instanceof Collection)
+    {
+      for (Object item: (Collection <?>)result)
+      {
+        if (!isComplete (item))
+          return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Get a single model element by making a network request with query strings.
+   *
+   * @param dataClass       Data model class
+   * @param id              Id of model
+   * @param options         Query strings
+   * @return                The model, or null
+   */
+  public <T extends DataModel> Promise <T> get (Class <T> dataClass, Object id, HashMap <String, Object> options)
+  {
+    return this.get (dataClass, id, options, null);
+  }
+
+  private <T extends DataModel> Promise <T> executeGet (Class <T> dataClass,
+                                                       Object id,
+                                                       HashMap <String, Object> options,
+                                                       RequestScheduler.Priority priority,
+                                                       CancellationToken token)
+  {
+    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass, priority, token);
+    String key = RequestCoalescer.makeKey (dataClass, id, options);
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    this.getModelAdapter (dataClass);
+
+                    Map <String, String> headers = this.validators_.getConditionalHeaders (key);
+                    return endpoint.get (id.toString (), options, headers);
+                  })
+                  .then (response -> {
+                    if (response.code () != ResourceEndpoint.HTTP_NOT_MODIFIED)
+                      return this.saveGetResponse (dataClass, key, response, token);
+
+                    // The model has not changed since we last requested it. We can just
+                    // load the model from our local database.
+                    return this.peek (dataClass, id).then (model -> {
+                      if (model != null)
+                      {
+                        this.validators_.touch (key);
+                        return value (model);
+                      }
+
+                      // The local copy no longer exists. We have to request the model again
+                      // without the conditional headers.
+                      this.validators_.clear (key);
+
+                      return endpoint.get (id.toString (), options, new HashMap<> ())
+                                 .then (fresh -> this.saveGetResponse (dataClass, key, fresh, token));
+                    });
+                  });
+  }
+
+  /**
+   * Insert the model of a get response into the database, and save its validators.
+   *
+   * @param dataClass           Class object
+   * @param key                 Key of the request
+   * @param response            The response
+   * @param token               Optional cancellation token
+   * @return                    Promise object
+   */
+  private <T extends DataModel> Promise <T> saveGetResponse (Class <T> dataClass, String key, Response <Resource> response, CancellationToken token)
+  {
+    Resource r = response.body ();
+
+    return this.insertIntoDatabase (Collections.singletonList (r), dataClass, null, token)
+               .then (nothing -> {
+                 this.validators_.save (key, response.headers (), null);
+                 return value (r.get (this.getEndpoint (dataClass).getName ()));
+               });
+  }
+
+
+  /**
+   * Query for a set of models by making a network request. If the server returns that the
+   * list of models has not be modified, then we load the list of models from local disk.
+   *
+   * @param dataClass           Class object
+   * @param query               Query strings
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> query (Class <T> dataClass, Map <String, Object> query)
+  {
+    return this.query (dataClass, query, null);
+  }
+
+  /**
+   * Query for a set of models with request options. The default priority for a query
+   * is NORMAL.
+   *
+   * If the options have a fetch policy, the local models for a query are the models
+   * returned by the last successful request for the same query. If the options have a
+   * projection, the server only returns the fields in the projection for the primary
+   * models. The columns in the projection are written to the local database, and the
+   * other columns of existing rows are not changed.
+   *
+   * @param dataClass           Class object
+   * @param query               Query strings
+   * @param options             Optional request options
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> query (Class <T> dataClass, Map <String, Object> query, RequestOptions options)
+  {
+    return this.query (dataClass, query, options, null);
+  }
+
+  /**
+   * Query for a set of models with request options. If the fetch policy of the options
+   * revalidates the local models in the background, the refreshed models are passed to
+   * the listener.
+   *
+   * @param dataClass           Class object
+   * @param query               Query strings
+   * @param options             Optional request options
+   * @param onRefreshed         Optional listener for the refreshed models
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> query (Class <T> dataClass,
+                                                                  Map <String, Object> query,
+                                                                  RequestOptions options,
+                                                                  OnModelsLoaded <T> onRefreshed)
+  {
+    RequestOptions opts = checkOptions (options, true);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.NORMAL);
+    CancellationToken token = opts.getCancellationToken ();
+    Projection projection = opts.getProjection ();
+
+    if (projection != null)
+    {
+      HashMap <String, Object> params = this.withFields (dataClass, query, projection);
+
+      return this.execute (RequestCoalescer.makeKey (dataClass, null, params, priority),
+                           token,
+                           () -> Promise.resolve (null)
+                                        .then (nothing -> this.getEndpoint (dataClass, priority, token).get (params))
+                                        .then (r -> this.insertIntoDatabase (Collections.singletonList (r), dataClass, projection, token)
+                                                        .then (nothing -> value (this.getModelList (r, dataClass)))));
+    }
+
+    RequestCoalescer.PromiseFactory <DataModelList <T>> remote =
+        () -> this.execute (RequestCoalescer.makeKey (dataClass, null, query, priority),
+                            token,
+                            () -> this.executeQuery (dataClass, query, priority, token));
+
+    if (opts.getFetchPolicy () == null)
+      return remote.newPromise ();
+
+    String key = RequestCoalescer.makeKey (dataClass, null, query);
+
+    return this.fetch (key,
+                       opts.getFetchPolicy (),
+                       () -> this.peekResponse (dataClass, this.validators_.getIds (key)),
+                       remote,
+                       onRefreshed != null ? onRefreshed::onModelsLoaded : null)
+               .then (modelList -> value (modelList != null ? modelList : new DataModelList<T> ()));
+  }
+
+  private <T extends DataModel> Promise <DataModelList <T>> executeQuery (Class <T> dataClass,
+                                                                         Map <String, Object> query,
+                                                                         RequestScheduler.Priority priority,
+                                                                         CancellationToken token)
+  {
+    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass, priority, token);
+    String key = RequestCoalescer.makeKey (dataClass, null, query);
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    Map <String, String> headers = this.validators_.getConditionalHeaders (key);
+                    return endpoint.get (query, headers);
+                  })
+                  .then (response -> {
+                    if (response.code () != ResourceEndpoint.HTTP_NOT_MODIFIED)
+                      return this.saveQueryResponse (dataClass, key, response, token);
+
+                    // The list has not changed since we last requested it. We can load
+                    // the same models from our local database.
+                    return this.peekResponse (dataClass, this.validators_.getIds (key)).then (modelList -> {
+                      if (modelList != null)
+                      {
+                        this.validators_.touch (key);
+                        return value (modelList);
+                      }
+
+                      // Part of the list no longer exists locally. We have to request the
+                      // list again without the conditional headers.
+                      this.validators_.clear (key);
+
+                      return endpoint.get (query, new HashMap<> ())
+                                 .then (fresh -> this.saveQueryResponse (dataClass, key, fresh, token));
+                    });
+                  });
+  }
+
+  /**
+   * Insert the models of a query response into the database, and save its validators.
+   *
+   * @param dataClass           Class object
+   * @param key                 Key of the request
+   * @param response            The response
+   * @param token               Optional cancellation token
+   * @return                    Promise object
+   */
+  private <T extends DataModel> Promise <DataModelList <T>> saveQueryResponse (Class <T> dataClass, String key, Response <Resource> response, CancellationToken token)
+  {
+    Resource r = response.body ();
+
+    return this.insertIntoDatabase (Collections.singletonList (r), dataClass, null, token)
+               .then (nothing -> {
+                 DataModelList <T> modelList = this.getModelList (r, dataClass);
+                 this.validators_.save (key, response.headers (), this.joinIds (dataClass, modelList));
+
+                 return value (modelList);
+               });
+  }
+
+  /**
+   * Load the models of a previous response from the local database.
+   *
+   * @param dataClass           Class object
+   * @param ids                 Comma-separated list of ids in the response
+   * @return                    Promise object with the models, or null if a model is missing
+   */
+  private <T extends DataModel> Promise <DataModelList <T>> peekResponse (Class <T> dataClass, String ids)
+  {
+    if (ids == null)
+      return Promise.resolve (null);
+
+    List <String> idList = ids.isEmpty () ? new ArrayList<> () : Arrays.asList (ids.split (","));
+
+    return this.peekMany (dataClass, idList)
+               .then (models -> {
+                 if (models.size () != idList.size ())
+                   return value (null);
+
+                 DataModelList <T> modelList = new DataModelList<> (idList.size ());
+
+                 for (String id: idList)
+                   modelList.add (models.get (id));
+
+                 return value (modelList);
+               });
+  }
+
+  /**
+   * Join the ids of the models into a comma-separated list.
+   */
+  private <T extends DataModel> String joinIds (Class <T> dataClass, DataModelList <T> modelList)
+      throws NoSuchFieldException, IllegalAccessException
+  {
+    Field idField = dataClass.getField (FIELD_ID);
+    ArrayList <Object> ids = new ArrayList<> (modelList.size ());
+
+    for (T model: modelList)
+      ids.add (idField.get (model));
+
+    return TextUtils.join (",", ids);
+  }
+
+  /**
+   * Query for a resource by making a network request, and insert the resource into
+   * the local database.
+   *
+   * @param dataClass           Class object
+   * @param query               Query strings
+   * @return                    Promise object
+   */
+  <T extends DataModel> Promise <Resource> queryResource (Class <T> dataClass, Map <String, Object> query)
+  {
+    // Insert the resources into the database. We need to account for the resource
+    // containing data for other model classes.
+    return Promise.resolve (null)
+                  .then (nothing -> this.getEndpoint (dataClass).get (query))
+                  .then (r -> this.insertIntoDatabase (r, dataClass).then (nothing -> value (r)));
+  }
+
+  /**
+   * Get the list of models for the data class from a resource.
+   *
+   * @param r                   Resource object
+   * @param dataClass           Class object
+   * @return                    List of models, or an empty list
+   */
+  <T extends DataModel> DataModelList <T> getModelList (Resource r, Class <T> dataClass)
+  {
+    ModelAdapter<T> modelAdapter = this.getModelAdapter (dataClass);
+    String tableName = TableUtils.getRawTableName (modelAdapter.getTableName ());
+
+    DataModelList<T> modelList = r.get (tableName);
+    return modelList != null ? modelList : new DataModelList<> ();
+  }
+
+  /**
+   * Iterate over the pages of a query by making a network request for each page. The
+   * pages are inserted into the local database as they are received, and the pages
+   * after the current page are prefetched in the background.
+   *
+   * @param dataClass           Class object
+   * @param query               Query strings
+   * @param options             Options for the pager
+   * @return                    Pager object
+   */
+  public <T extends DataModel> Pager <T> paginate (Class <T> dataClass, Map <String, Object> query, Pager.Options options)
+  {
+    try
+    {
+      this.getModelAdapter (dataClass);
+      return new Pager<> (this, dataClass, query, options);
+    }
+    catch (NoSuchFieldException e)
+    {
+      throw new IllegalArgumentException (dataClass.getName () + " does not have an _id field", e);
+    }
+  }
+
+  /**
+   * Get a set of models by their id by making a network request. The ids are sent to
+   * the server in chunks, and the models for all chunks are inserted into the local
+   * database. Ids that do not exist on the server are not in the returned map.
+   *
+   * @param dataClass           Data model class
+   * @param ids                 Ids of the models
+   * @return                    Promise object with map of id to model
+   */
+  public <T extends DataModel> Promise <Map <Object, T>> getMany (Class <T> dataClass, Collection <?> ids)
+  {
+    return this.getMany (dataClass, ids, null);
+  }
+
+  /**
+   * Get a set of models by their id with request options. The options apply to the
+   * request of each chunk.
+   *
+   * @param dataClass           Data model class
+   * @param ids                 Ids of the models
+   * @param options             Optional request options
+   * @return                    Promise object with map of id to model
+   */
+  @SuppressWarnings ("unchecked")
+  public <T extends DataModel> Promise <Map <Object, T>> getMany (Class <T> dataClass, Collection <?> ids, RequestOptions options)
+  {
+    RequestOptions opts = checkOptions (options, false);
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    Field idField = dataClass.getField (FIELD_ID);
+                    LinkedHashMap <Object, Object> requested = new LinkedHashMap<> ();
+
+                    for (Object id: ids)
+                      requested.put (normalizeId (id), id);
+
+                    // Start the request for each chunk before we wait on any of them so
+                    // the chunks are fetched in parallel.
+                    ArrayList <Object> allIds = new ArrayList<> (requested.values ());
+                    ArrayList <Promise <DataModelList <T>>> chunks = new ArrayList<> ();
+
+                    for (int i = 0; i < allIds.size (); i += this.bulkFetchLimit_)
+                    {
+                      List <Object> chunk = allIds.subList (i, Math.min (i + this.bulkFetchLimit_, allIds.size ()));
+
+                      HashMap <String, Object> query = new HashMap<> ();
+                      query.put (this.idListParameter_, TextUtils.join (",", chunk));
+
+                      chunks.add (this.query (dataClass, query, opts));
+                    }
+
+                    return Promise.all (chunks.toArray (new Promise [0]))
+                                  .then (modelLists -> {
+                                    LinkedHashMap <Object, T> models = new LinkedHashMap<> ();
+
+                                    for (Object modelList: modelLists)
+                                    {
+                                      for (T model: (DataModelList <T>)modelList)
+                                      {
+                                        Object id = requested.get (normalizeId (idField.get (model)));
+
+                                        if (id != null)
+                                          models.put (id, model);
+                                      }
+                                    }
+
+                                    return value (models);
+                                  });
+                  });
+  }
+
+  /**
+   * Synchronize the local models of a data class with the server.
+   *
+   * @param dataClass           Data model class
+   * @return                    Promise object with the changed models
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> sync (Class <T> dataClass)
+  {
+    return this.sync (dataClass, new HashMap<> ());
+  }
+
+  /**
+   * Synchronize the local models of a data class with the server. Only the changes since
+   * the watermark of the last sync are requested. The changed models, the tombstones of
+   * the models deleted on the server, and the new watermark are applied to the local
+   * database in a single transaction.
+   *
+   * The watermark is taken from the watermark field of the meta element in the response.
+   * If the server does not provide one, it is the largest value of the watermark field
+   * of the changed models. If the watermark field is not set, the watermark does not
+   * change, so a server that never provides one is sent no watermark, and each sync
+   * requests all the models. The watermark is kept per data class and query.
+   *
+   * @param dataClass           Data model class
+   * @param query               Optional query strings
+   * @return                    Promise object with the changed models
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> sync (Class <T> dataClass, Map <String, Object> query)
+  {
+    return this.sync (dataClass, query, null);
+  }
+
+  /**
+   * Synchronize the local models of a data class with the server with request options.
+   * The default priority for a sync is BACKGROUND. If the token of the options is
+   * cancelled before the response is applied, the watermark is not changed.
+   *
+   * @param dataClass           Data model class
+   * @param query               Query strings
+   * @param options             Optional request options
+   * @return                    Promise object with the changed models
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> sync (Class <T> dataClass, Map <String, Object> query, RequestOptions options)
+  {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.BACKGROUND);
+    CancellationToken token = opts.getCancellationToken ();
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass, priority, token);
+
+                    // Each query keeps its own watermark since a watermark for one query
+                    // says nothing about the models of another.
+                    String watermarkKey = "watermark:" + RequestCoalescer.makeKey (dataClass, null, query);
+                    String watermark = this.metadata_.get (this.databaseDefinition_.getWritableDatabase (), watermarkKey);
+
+                    HashMap <String, Object> syncQuery = query != null ? new HashMap<> (query) : new HashMap<> ();
+
+                    if (watermark != null)
+                      syncQuery.put (this.syncParameter_, Uri.encode (watermark));
+
+                    return endpoint.get (syncQuery).then (r -> {
+                      DataModelList<T> modelList = this.getModelList (r, dataClass);
+                      String newWatermark = this.getWatermark (r, dataClass, modelList, watermark);
+
+                      return this.applySync (r, dataClass, watermarkKey, newWatermark, token)
+                                 .then (done -> value (modelList));
+                    });
+                  });
+  }
+
+  /**
+   * Get the watermark for a sync response.
+   */
+  @SuppressWarnings ("unchecked")
+  private String getWatermark (Resource r, Class <?> dataClass, DataModelList <?> modelList, String current)
+      throws IllegalAccessException
+  {
+    JsonObject meta = r.get (Pager.META);
+
+    if (meta != null && meta.has (WATERMARK) && !meta.get (WATERMARK).isJsonNull ())
+      return meta.get (WATERMARK).getAsString ();
+
+    if (this.watermarkField_ == null)
+      return current;
+
+    Field field;
+
+    try
+    {
+      field = dataClass.getField (this.watermarkField_);
+    }
+    catch (NoSuchFieldException e)
+    {
+      return current;
+    }
+
+    Object max = null;
+
+    for (DataModel model: modelList)
+    {
+      Object value = field.get (model);
+
+      if (value == null)
+        continue;
+
+      if (max == null)
+        max = value;
+      else if (value instanceof Comparable && value.getClass ().equals (max.getClass ()))
+        max = ((Comparable <Object>)value).compareTo (max) > 0 ? value : max;
+      else if (value.toString ().compareTo (max.toString ()) > 0)
+        max = value;
+    }
+
+    return max != null ? max.toString () : current;
+  }
+
+  /**
+   * Apply a sync response to the local database.
+   */
+  private Promise <Void> applySync (Resource r, Class <? extends DataModel> startsAt, String watermarkKey, String watermark, CancellationToken token)
+  {
+    return new Promise<> ("data-store:applySync", settlement -> {
+      ArrayList <Class <?>> changed = new ArrayList<> ();
+      ArrayList <DataModel> saved = new ArrayList<> ();
+      LinkedHashMap <Class <?>, List <Object>> deleted = new LinkedHashMap<> ();
+
+      this.executeTransaction (
+          databaseWrapper -> {
+            throwIfCancelled (token);
+
+            List <Tombstone> tombstones = r.get (TOMBSTONES);
+
+            if (tombstones != null)
+              this.deleteTombstones (tombstones, startsAt, databaseWrapper, deleted);
+
+            this.writeResource (r, startsAt, databaseWrapper, changed, saved, null);
+
+            if (watermark != null)
+              this.metadata_.put (databaseWrapper, watermarkKey, watermark);
+          },
+          transaction -> {
+            for (Map.Entry <Class <?>, List <Object>> entry: deleted.entrySet ())
+              this.onModelsDeleted (entry.getKey (), entry.getValue ());
+
+            for (Class <?> dataClass: changed)
+              this.notifyTableChanged (dataClass);
+
+            this.onModelsWritten (saved);
+
+            settlement.resolve (null);
+          },
+          (transaction, throwable) -> settlement.reject (throwable));
+    });
+  }
+
+  /**
+   * Delete the models for the tombstones. The models are deleted in reverse insert
+   * order so models are deleted before the models they depend on.
+   */
+  private void deleteTombstones (List <Tombstone> tombstones,
+                                 Class <? extends DataModel> startsAt,
+                                 DatabaseWrapper databaseWrapper,
+                                 Map <Class <?>, List <Object>> deleted)
+  {
+    LinkedHashMap <DependencyGraph.Node, List <Object>> ids = new LinkedHashMap<> ();
+    ArrayList <DependencyGraph.Node> deleteOrder = new ArrayList<> (this.dependencyGraph_.getInsertOrder (startsAt));
+    Collections.reverse (deleteOrder);
+
+    for (DependencyGraph.Node node: deleteOrder)
+      ids.put (node, new ArrayList<> ());
+
+    for (Tombstone tombstone: tombstones)
+    {
+      DependencyGraph.Node node = this.dependencyGraph_.getNode (tombstone.type);
+
+      if (node == null)
+      {
+        this.logger_.warn ("Ignoring tombstone for unknown type {}", tombstone.type);
+        continue;
+      }
+
+      List <Object> nodeIds = ids.get (node);
+
+      if (nodeIds == null)
+      {
+        nodeIds = new ArrayList<> ();
+        ids.put (node, nodeIds);
+      }
+
+      nodeIds.add (tombstone._id);
+    }
+
+    for (Map.Entry <DependencyGraph.Node, List <Object>> entry: ids.entrySet ())
+    {
+      List <Object> nodeIds = entry.getValue ();
+
+      if (nodeIds.isEmpty ())
+        continue;
+
+      Class <? extends DataModel> dataClass = entry.getKey ().getDataClass ();
+      this.logger_.info ("Deleting {} {} from the database", nodeIds.size (), entry.getKey ().getPluralName ());
+
+      this.deleteIds (dataClass, nodeIds, databaseWrapper);
+      deleted.put (dataClass, nodeIds);
+    }
+  }
+
+  /**
+   * Delete a set of models by id in chunks. This method must be called inside a
+   * transaction.
+   *
+   * @param dataClass           Data class
+   * @param ids                 Ids of the models
+   * @param databaseWrapper     Database of the transaction
+   */
+  private void deleteIds (Class <?> dataClass, List <Object> ids, DatabaseWrapper databaseWrapper)
+  {
+    ModelAdapter <?> modelAdapter = this.getModelAdapter (dataClass);
+    boolean hasPartialRows = this.partialRows_.hasAny (databaseWrapper, modelAdapter);
+
+    for (int i = 0; i < ids.size (); i += MAX_SQL_VARIABLES)
+    {
+      List <Object> chunk = ids.subList (i, Math.min (i + MAX_SQL_VARIABLES, ids.size ()));
+
+      // A row inserted later with the same id must not be partial.
+      if (hasPartialRows)
+        this.removePartialRows (modelAdapter, chunk, databaseWrapper);
+
+      // We execute the statement ourselves since DBFlow notifies the observers of
+      // the table for each statement it executes.
+      String sql =
+          SQLite.delete ()
+                .from (dataClass)
+                .where (Operator.op (_ID).in (chunk))
+                .getQuery ();
+
+      databaseWrapper.execSQL (sql);
+    }
+  }
+
+  /**
+   * Remove the rows of a set of models from the partial rows. This method must be
+   * called before the rows are deleted.
+   *
+   * @param modelAdapter        Adapter of the table
+   * @param ids                 Ids of the models
+   * @param databaseWrapper     Database of the transaction
+   */
+  private <T> void removePartialRows (ModelAdapter <T> modelAdapter, List <Object> ids, DatabaseWrapper databaseWrapper)
+  {
+    List <T> models =
+        SQLite.select ()
+              .from (modelAdapter.getModelClass ())
+              .where (Operator.op (_ID).in (ids))
+              .queryList (databaseWrapper);
+
+    for (T model: models)
+      this.partialRows_.remove (databaseWrapper, modelAdapter, model);
+  }
+
+  /**
+   * Get all the models of a single data class by streaming them into the local database.
+   *
+   * @param dataClass           Data model class
+   * @param onModelsLoaded      Callback for each batch of models
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <Integer> stream (Class <T> dataClass, OnModelsLoaded <T> onModelsLoaded)
+  {
+    return this.stream (dataClass, new HashMap<> (), onModelsLoaded);
+  }
+
+  /**
+   * Query for a set of models by streaming them into the local database. The models
+   * are written to the database in batches while the response is still being read, and
+   * each batch is passed to the callback once it has been written. Unlike query (), the
+   * complete list of models is never held in memory.
+   *
+   * @param dataClass           Data model class
+   * @param query               Query strings
+   * @param onModelsLoaded      Callback for each batch of models
+   * @return                    Promise object with the number of models loaded
+   */
+  public <T extends DataModel> Promise <Integer> stream (Class <T> dataClass, Map <String, Object> query, OnModelsLoaded <T> onModelsLoaded)
+  {
+    return this.stream (dataClass, query, null, onModelsLoaded);
+  }
+
+  /**
+   * Query for a set of models by streaming them into the local database with request
+   * options. The default priority for a stream is BACKGROUND. Cancelling the token of
+   * the options aborts reading the stream, and skips the batches that have not been
+   * written. The batches that were already written stay in the database.
+   *
+   * @param dataClass           Data model class
+   * @param query               Query strings
+   * @param options             Optional request options
+   * @param onModelsLoaded      Callback for each batch of models
+   * @return                    Promise object with the number of models loaded
+   */
+  public <T extends DataModel> Promise <Integer> stream (Class <T> dataClass,
+                                                         Map <String, Object> query,
+                                                         RequestOptions options,
+                                                         OnModelsLoaded <T> onModelsLoaded)
+  {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.BACKGROUND);
+    CancellationToken token = opts.getCancellationToken ();
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass, priority, token);
+                    List <DependencyGraph.Node> insertOrder = this.dependencyGraph_.getInsertOrder (dataClass);
+
+                    ResourceStreamWriter <T> writer =
+                        new ResourceStreamWriter<> (this,
+                                                    insertOrder,
+                                                    this.streamBatchSize_,
+                                                    onModelsLoaded,
+                                                    token);
+
+                    // The stream is parsed on the parse executor since the parser blocks
+                    // on the network, and on the database when the batches fall behind.
+                    return endpoint.stream (query).then (body -> new Promise <Integer> (settlement ->
+                      this.parseExecutor_.execute (() -> {
+                        try
+                        {
+                          JsonReader reader = this.gson_.newJsonReader (body.charStream ());
+                          this.resourceSerializer_.read (reader, writer);
+
+                          settlement.resolve (writer.finish ());
+                        }
+                        catch (Throwable e)
+                        {
+                          // Cancelling the call closes the stream under the parser.
+                          if (token != null && token.isCancelled ())
+                            settlement.reject (new CancellationException ("The stream was cancelled"));
+                          else
+                            settlement.reject (e);
+                        }
+                        finally
+                        {
+                          // Closing the body also removes its call from the token.
+                          body.close ();
+                        }
+                      })));
+                  });
+  }
+
+  /**
+   * Insert the resource into the database. We need to know the start node
+   * so that we can insert the resources into the database in the correct
+   * order to ensure dependencies are meet.
+   *
+   * @param r
+   * @param startsAt
+   */
+  private Promise <Void> insertIntoDatabase (Resource r, Class <? extends DataModel> startsAt)
+  {
+    return this.insertIntoDatabase (Collections.singletonList (r), startsAt);
+  }
+
+  /**
+   * Insert a set of resources into the database in a single transaction. Each table
+   * that changed is notified once after the transaction completes.
+   *
+   * @param resources           Resources to insert
+   * @param startsAt            Data class of the primary models
+   * @return                    Promise object
+   */
+  private Promise <Void> insertIntoDatabase (List <Resource> resources, Class <? extends DataModel> startsAt)
+  {
+    return this.insertIntoDatabase (resources, startsAt, null);
+  }
+
+  /**
+   * Insert a set of resources into the database in a single transaction. If there is a
+   * projection, the primary models only have the fields in the projection.
+   *
+   * @param resources           Resources to insert
+   * @param startsAt            Data class of the primary models
+   * @param projection          Optional projection of the primary models
+   * @return                    Promise object
+   */
+  private Promise <Void> insertIntoDatabase (List <Resource> resources, Class <? extends DataModel> startsAt, Projection projection)
+  {
+    return this.insertIntoDatabase (resources, startsAt, projection, null);
+  }
+
+  /**
+   * Insert a set of resources into the database in a single transaction. If the token
+   * is cancelled before the transaction starts, the transaction is skipped and the
+   * Promise is rejected with a CancellationException.
+   *
+   * @param resources           Resources to insert
+   * @param startsAt            Data class of the primary models
+   * @param projection          Optional projection of the primary models
+   * @param token               Optional cancellation token
+   * @return                    Promise object
+   */
+  private Promise <Void> insertIntoDatabase (List <Resource> resources,
+                                             Class <? extends DataModel> startsAt,
+                                             Projection projection,
+                                             CancellationToken token)
+  {
+    return new Promise<> ("data-store:insertIntoDatabase", settlement -> {
+      LOG.info ("Inserting {} resources into the database", resources.size ());
+
+      ArrayList <Class <?>> changed = new ArrayList<> ();
+      ArrayList <DataModel> saved = new ArrayList<> ();
+
+      this.executeTransaction (
+          databaseWrapper -> {
+            throwIfCancelled (token);
+
+            for (Resource r: resources)
+              this.writeResource (r, startsAt, databaseWrapper, changed, saved, projection);
+          },
+          transaction -> {
+            for (Class <?> dataClass: new LinkedHashSet<> (changed))
+              this.notifyTableChanged (dataClass);
+
+            this.onModelsWritten (saved);
+
+            settlement.resolve (null);
+          },
+          (transaction, throwable) -> settlement.reject (throwable));
+    });
+  }
+
+  /**
+   * Write the models in a resource to the database in dependency order. This method
+   * must be called inside a transaction.
+   *
+   * @param r                   Resource to write
+   * @param startsAt            Data class of the primary models
+   * @param databaseWrapper     Database of the transaction
+   * @param changed             Data classes of the tables that changed
+   * @param saved               Models that were saved
+   * @param projection          Optional projection of the primary models
+   */
+  @SuppressWarnings ("unchecked")
+  private void writeResource (Resource r,
+                              Class <? extends DataModel> startsAt,
+                              DatabaseWrapper databaseWrapper,
+                              List <Class <?>> changed,
+                              List <DataModel> saved,
+                              Projection projection)
+  {
+    List <DependencyGraph.Node> insertOrder = this.dependencyGraph_.getInsertOrder (startsAt, r);
+
+    for (DependencyGraph.Node node: insertOrder)
+    {
+      // The models of a self-referencing table can reference each other in any order.
+      // We therefore defer the foreign key checks until the transaction commits. This
+      // has no effect before API 21 (see DependencyGraph.Node.isSelfReferencing).
+      if (node.isSelfReferencing ())
+        databaseWrapper.execSQL ("PRAGMA defer_foreign_keys = ON");
+
+      // Compile the statements for the table once, and reuse them for each
+      // model of this type in the resource.
+      ModelWriter writer = this.newModelWriter (node.getModelAdapter (), databaseWrapper);
+
+      // The sparse fieldset only applies to the primary models. The side-loaded
+      // models are complete.
+      Projection nodeProjection = node.getDataClass () == startsAt ? projection : null;
+
+      try
+      {
+        if (node.isPluraleTantum () && r.contains (node.getSingularName ()))
+        {
+          // The plural and singular name are the same.
+
+          this.logger_.info ("Inserting {} into the database", node.getSingularName ());
+
+          Object value = r.get (node.getSingularName ());
+          Class <?> valueClass = value.getClass ();
+
+          if (value instanceof DataModel)
+          {
+            DataModel <?> dataModel = (DataModel <?>)value;
+            this.saveModel (writer, dataModel, saved, nodeProjection);
+          }
+          else if (valueClass.equals (DataModelList.class))
+          {
+            DataModelList <? extends DataModel> dataModels = (DataModelList <? extends DataModel>)value;
+
+            for (DataModel model: dataModels)
+              this.saveModel (writer, model, saved, nodeProjection);
+          }
+          else
+          {
+            this.logger_.info ("Unexpected data model type: {}", valueClass.getName ());
+          }
+        }
+        else
+        {
+          // We could have either the plural and singular name.
+
+          if (r.contains (node.getPluralName ()))
+          {
+            this.logger_.info ("Inserting {} into the database", node.getPluralName ());
+
+            DataModelList<? extends DataModel> dataModels = r.get (node.getPluralName ());
+
+            for (DataModel model : dataModels)
+              this.saveModel (writer, model, saved, nodeProjection);
+          }
+
+          if (r.contains (node.getSingularName ()))
+          {
+            this.logger_.info ("Inserting {} into the database", node.getSingularName ());
+
+            DataModel dataModel = r.get (node.getSingularName ());
+            this.saveModel (writer, dataModel, saved, nodeProjection);
+          }
+        }
+      }
+      finally
+      {
+        writer.close ();
+      }
+
+      if (writer.getCount () > 0)
+        changed.add (node.getDataClass ());
+    }
+  }
+
+  @SuppressWarnings ("unchecked")
+  private void saveModel (ModelWriter writer, DataModel <?> dataModel, List <DataModel> saved, Projection projection)
+  {
+    if (dataModel == null)
+      return;
+
+    if (projection != null)
+    {
+      writer.savePartial (dataModel, projection);
+      dataModel.setPartial (true);
+    }
+    else
+    {
+      writer.save (dataModel);
+    }
+
+    dataModel.assignTo (this);
+    saved.add (dataModel);
+  }
+
+  /**
+   * Notify observers that the contents of a table have changed. The models written by
+   * the data store in bulk do not generate a notification for each row. Instead, we
+   * send a single notification for the table after the transaction is committed, which
+   * is coalesced with the other notifications in the debounce window.
+   *
+   * @param dataClass         Data class of the table
+   */
+  void notifyTableChanged (Class <?> dataClass)
+  {
+    this.changes_.tableChanged (dataClass);
+  }
+
+  /**
+   * Send the pending change notifications without waiting for the debounce window.
+   */
+  public void flushNotifications ()
+  {
+    this.changes_.flush ();
+  }
+
+  /**
+   * Query for a list of models.
+   *
+   * @param dataClass         Data class
+   * @param query             Query parameters
+   * @return                  Promise object
+   */
+  public <T extends DataModel> Promise <FlowCursor> queryCursor (Class <T> dataClass, Map <String, Object> query)
+  {
+    return this.queryCursor (dataClass, query, null);
+  }
+
+  /**
+   * Query for a list of models with request options. If the token of the options is
+   * cancelled before the models are inserted into the local database, the models are
+   * not inserted, and the Promise is rejected.
+   *
+   * @param dataClass         Data class
+   * @param query             Query parameters
+   * @param options           Optional request options
+   * @return                  Promise object
+   */
+  public <T extends DataModel> Promise <FlowCursor> queryCursor (Class <T> dataClass, Map <String, Object> query, RequestOptions options)
+  {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.NORMAL);
+    CancellationToken token = opts.getCancellationToken ();
+
     return Promise.resolve (null)
                   .then (nothing -> {
-                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass);
+                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass, priority, token);
                     ModelAdapter modelAdapter = this.getModelAdapter (dataClass);
                     String tableName = TableUtils.getRawTableName (modelAdapter.getTableName ());
 
-                    Resource r = await (endpoint.get (query));
-                    DataModelList<T> list = r.get (tableName);
-
-                    return list != null ? this.insertIntoDatabase (dataClass, list) : null;
+                    return endpoint.get (query).then (r -> {
+                      DataModelList<T> list = r.get (tableName);
+                      return list != null ? this.insertIntoDatabase (dataClass, list, token) : null;
+                    });
                   })
                   .then (resolved (ignore -> this.selectCursor (dataClass, query)));
   }
 
   /**
-   * Update an existing model element.
+   * Update an existing model element.
+   *
+   * @param dataClass       Class object
+   * @param model           Updated model
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <T> update (Class <T> dataClass, T model)
+  {
+    return this.update (dataClass, model, null);
+  }
+
+  /**
+   * Update an existing model element with request options. If the token of the options
+   * is cancelled before the updated model is inserted into the local database, the
+   * model is not inserted, and the Promise is rejected.
+   *
+   * @param dataClass       Class object
+   * @param model           Updated model
+   * @param options         Optional request options
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <T> update (Class <T> dataClass, T model, RequestOptions options)
+  {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.NORMAL);
+    CancellationToken token = opts.getCancellationToken ();
+
+    // The fields that are not in the projection would overwrite the model on the
+    // server with their default value.
+    if (model.isPartial ())
+      return Promise.reject (new IllegalStateException ("Cannot update a partial model"));
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass, priority, token);
+                    Field idField = dataClass.getField (FIELD_ID);
+                    Object id = idField.get (model);
+
+                    return endpoint.update (id.toString (), model).then (resource -> {
+                      // Get the new value and insert it to the database. We do this just in
+                      // case the update value is not the same as the value we receive from
+                      // the service.
+                      T newValue = resource.get (endpoint.getName ());
+
+                      return this.insertIntoDatabase (Collections.singletonList (resource), dataClass, null, token)
+                                 .then (nothing -> value (newValue));
+                    });
+                  });
+  }
+
+  /**
+   * Delete a single model from the data store.
+   *
+   * @param dataClass           Data class
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <Boolean> delete (Class <T> dataClass, T model)
+  {
+    return this.delete (dataClass, model, null);
+  }
+
+  /**
+   * Delete a single model from the data store with request options. The token of the
+   * options cancels the request. Once the server deletes the model, the model is also
+   * deleted from the local database so the two do not disagree.
+   *
+   * @param dataClass           Data class
+   * @param options             Optional request options
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <Boolean> delete (Class <T> dataClass, T model, RequestOptions options)
+  {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.NORMAL);
+    CancellationToken token = opts.getCancellationToken ();
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass, priority, token);
+                    Field idField = dataClass.getField (FIELD_ID);
+                    Object id = idField.get (model);
+
+                    return endpoint.delete (id.toString ())
+                                   .then (result -> result ? this.deleteFromDatabase (dataClass, id, model) : value (false));
+                  });
+  }
+
+  /**
+   * Create many models on the server. The models are sent in chunks of the bulk write
+   * limit, and the models returned by the server are inserted into the database in a
+   * single transaction.
+   *
+   * @param dataClass           Data class
+   * @param models              New models
+   * @return                    Promise object with the created models
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> createMany (Class <T> dataClass, List <T> models)
+  {
+    return this.createMany (dataClass, models, null);
+  }
+
+  /**
+   * Create many models on the server with request options. The options apply to the
+   * request of each chunk. If the token of the options is cancelled before the created
+   * models are inserted into the local database, none of them are inserted.
+   *
+   * @param dataClass           Data class
+   * @param models              New models
+   * @param options             Optional request options
+   * @return                    Promise object with the created models
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> createMany (Class <T> dataClass, List <T> models, RequestOptions options)
+  {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.NORMAL);
+    CancellationToken token = opts.getCancellationToken ();
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass, priority, token);
+                    ArrayList <Promise <Resource>> chunks = new ArrayList<> ();
+
+                    for (int i = 0; i < models.size (); i += this.bulkWriteLimit_)
+                      chunks.add (endpoint.createMany (models.subList (i, Math.min (i + this.bulkWriteLimit_, models.size ()))));
+
+                    return this.insertChunks (dataClass, chunks, token);
+                  });
+  }
+
+  /**
+   * Update many models on the server. The models are sent in chunks of the bulk write
+   * limit, and the models returned by the server are inserted into the database in a
+   * single transaction.
+   *
+   * @param dataClass           Data class
+   * @param models              Updated models
+   * @return                    Promise object with the updated models
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> updateMany (Class <T> dataClass, List <T> models)
+  {
+    return this.updateMany (dataClass, models, null);
+  }
+
+  /**
+   * Update many models on the server with request options. The options apply to the
+   * request of each chunk. If the token of the options is cancelled before the updated
+   * models are inserted into the local database, none of them are inserted.
+   *
+   * @param dataClass           Data class
+   * @param models              Updated models
+   * @param options             Optional request options
+   * @return                    Promise object with the updated models
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> updateMany (Class <T> dataClass, List <T> models, RequestOptions options)
+  {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.NORMAL);
+    CancellationToken token = opts.getCancellationToken ();
+
+    for (T model: models)
+    {
+      if (model.isPartial ())
+        return Promise.reject (new IllegalStateException ("Cannot update a partial model"));
+    }
+
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass, priority, token);
+                    ArrayList <Promise <Resource>> chunks = new ArrayList<> ();
+
+                    for (int i = 0; i < models.size (); i += this.bulkWriteLimit_)
+                      chunks.add (endpoint.updateMany (models.subList (i, Math.min (i + this.bulkWriteLimit_, models.size ()))));
+
+                    return this.insertChunks (dataClass, chunks, token);
+                  });
+  }
+
+  /**
+   * Combine the responses of a bulk mutation, and insert them into the database.
+   */
+  private <T extends DataModel> Promise <DataModelList <T>> insertChunks (Class <T> dataClass, List <Promise <Resource>> chunks, CancellationToken token)
+  {
+    return Promise.all (chunks.toArray (new Promise [0]))
+                  .then (results -> {
+                    ArrayList <Resource> resources = new ArrayList<> ();
+                    DataModelList <T> modelList = new DataModelList<> ();
+
+                    for (Object result: results)
+                    {
+                      Resource r = (Resource)result;
+
+                      resources.add (r);
+                      modelList.addAll (this.getModelList (r, dataClass));
+                    }
+
+                    return this.insertIntoDatabase (resources, dataClass, null, token)
+                               .then (done -> {
+                                 modelList.setDataStore (this);
+                                 return value (modelList);
+                               });
+                  });
+  }
+
+  /**
+   * Delete many models on the server. The ids are sent in chunks of the bulk write
+   * limit. The models of the chunks the server deleted are then deleted from the
+   * database in a single transaction. The Promise is resolved with false if the server
+   * did not delete one of the chunks.
+   *
+   * @param dataClass           Data class
+   * @param models              Models to delete
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <Boolean> deleteMany (Class <T> dataClass, List <T> models)
+  {
+    return this.deleteMany (dataClass, models, null);
+  }
+
+  /**
+   * Delete many models on the server with request options. The options apply to the
+   * request of each chunk. Like delete (), the models the server deleted are deleted
+   * from the local database even if the token is cancelled.
    *
-   * @param dataClass       Class object
-   * @param model           Updated model
-   * @return                Promise object
+   * @param dataClass           Data class
+   * @param models              Models to delete
+   * @param options             Optional request options
+   * @return                    Promise object
    */
-  public <T extends DataModel> Promise <T> update (Class <T> dataClass, T model)
+  public <T extends DataModel> Promise <Boolean> deleteMany (Class <T> dataClass, List <T> models, RequestOptions options)
   {
+    RequestOptions opts = checkOptions (options, false);
+    RequestScheduler.Priority priority = opts.getPriority (RequestScheduler.Priority.NORMAL);
+    CancellationToken token = opts.getCancellationToken ();
+
     return Promise.resolve (null)
                   .then (nothing -> {
-                    ResourceEndpoint<T> endpoint = this.getEndpoint (dataClass);
+                    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass, priority, token);
                     Field idField = dataClass.getField (FIELD_ID);
-                    Object id = idField.get (model);
+                    ArrayList <Object> ids = new ArrayList<> (models.size ());
+
+                    for (T model: models)
+                      ids.add (idField.get (model));
+
+                    ArrayList <Promise <Boolean>> chunks = new ArrayList<> ();
+
+                    for (int i = 0; i < ids.size (); i += this.bulkWriteLimit_)
+                    {
+                      HashMap <String, Object> query = new HashMap<> ();
+                      query.put (this.idListParameter_, TextUtils.join (",", ids.subList (i, Math.min (i + this.bulkWriteLimit_, ids.size ()))));
+
+                      chunks.add (endpoint.deleteMany (query));
+                    }
+
+                    return Promise.all (chunks.toArray (new Promise [0]))
+                                  .then (results -> {
+                                    // Only delete the models of the chunks the server deleted.
+                                    ArrayList <Object> deletedIds = new ArrayList<> (ids.size ());
+                                    ArrayList <T> deleted = new ArrayList<> (models.size ());
+
+                                    for (int i = 0; i < results.size (); ++ i)
+                                    {
+                                      if (!Boolean.TRUE.equals (results.get (i)))
+                                        continue;
+
+                                      int start = i * this.bulkWriteLimit_;
+                                      int end = Math.min (start + this.bulkWriteLimit_, ids.size ());
 
-                    // Perform the update and wait for completion.
-                    Resource resource = await (endpoint.update (id.toString (), model));
+                                      deletedIds.addAll (ids.subList (start, end));
+                                      deleted.addAll (models.subList (start, end));
+                                    }
 
-                    // Get the new value and insert it to the database. We do this just in
-                    // case the update value is not the same as the value we receive from
-                    // the service.
-                    T newValue = resource.get (endpoint.getName ());
-                    return this.push (dataClass, newValue);
+                                    boolean allDeleted = deleted.size () == models.size ();
+
+                                    if (deleted.isEmpty ())
+                                      return value (allDeleted);
+
+                                    return this.deleteFromDatabase (dataClass, deletedIds)
+                                               .then (done -> {
+                                                 for (T model: deleted)
+                                                   model.assignTo (null);
+
+                                                 return value (allDeleted);
+                                               });
+                                  });
                   });
   }
 
   /**
-   * Delete a single model from the data store.
+   * Delete a set of models from the database in a single transaction.
    *
-   * @param dataClass           Data class
-   * @return                    Promise object
+   * @param dataClass         Data class
+   * @param ids               Ids of the models
+   * @return                  Promise object
    */
-  public <T extends DataModel> Promise <Boolean> delete (Class <T> dataClass, T model)
+  private Promise <Void> deleteFromDatabase (Class <?> dataClass, List <Object> ids)
   {
-    return Promise.resolve (null)
-                  .then (nothing -> {
-                    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass);
-                    Field idField = dataClass.getField (FIELD_ID);
-                    Object id = idField.get (model);
-
-                    boolean result = await (endpoint.delete (id.toString ()));
-                    return result ? this.deleteFromDatabase (dataClass, id, model) : value (false);
-                  });
+    return new Promise<> ("data-store:deleteFromDatabase", settlement ->
+      this.executeTransaction (
+          databaseWrapper -> this.deleteIds (dataClass, ids, databaseWrapper),
+          transaction -> {
+            this.onModelsDeleted (dataClass, ids);
+            settlement.resolve (null);
+          },
+          (transaction, throwable) -> settlement.reject (throwable)));
   }
 
   /**
@@ -609,26 +2572,14 @@ public class DataStore
   private <T extends DataModel> Promise <Boolean> deleteFromDatabase (Class <T> dataClass, Object id, T model)
   {
     return new Promise<> (settlement -> {
-      Operator [] condition = {Operator.op (_ID).eq (id)};
-
       // Delete the object from our local cache, then notify all that the model
       // has indeed been deleted.
-      SQLite.delete ()
-            .from (dataClass)
-            .where (condition)
-            .execute ();
+      this.deleteIds (dataClass, Collections.singletonList (id), this.databaseDefinition_.getWritableDatabase ());
 
       // Unset the data store for the model.
       model.assignTo (null);
 
-      Uri changeUri = SqlUtils.getNotificationUri (this.contentAuthority_,
-                                                   dataClass,
-                                                   BaseModel.Action.DELETE,
-                                                   Arrays.asList (condition));
-
-      FlowManager.getContext()
-                 .getContentResolver()
-                 .notifyChange (changeUri, null, true);
+      this.onModelsDeleted (dataClass, Collections.singletonList (id));
 
       settlement.resolve (true);
     });
@@ -642,14 +2593,7 @@ public class DataStore
    */
   public <T extends DataModel> Promise <FlowCursor> peekCursor (Class <T> dataClass)
   {
-    return new Promise<> (settlement -> {
-      FlowCursor cursor =
-          SQLite.select ()
-                .from (dataClass)
-                .query ();
-
-      settlement.resolve (cursor);
-    });
+    return this.selectCursor (dataClass, new LocalQuery ());
   }
 
   /**
@@ -660,22 +2604,19 @@ public class DataStore
    */
   public <T extends DataModel> Promise <DataModelList <T>> peek (Class <T> dataClass)
   {
-    return Promise.resolve (null)
-                  .then (nothing -> {
-                    ModelAdapter<T> modelAdapter = this.getModelAdapter (dataClass);
-                    FlowCursor cursor = await (this.peekCursor (dataClass));
-                    DataModelList<T> modelList = new DataModelList<> (cursor.getCount ());
-
-                    while (cursor.moveToNext ())
-                    {
-                      T model = modelAdapter.loadFromCursor (cursor);
-                      model.assignTo (this);
-
-                      modelList.add (model);
-                    }
+    return this.select (dataClass, new LocalQuery ());
+  }
 
-                    return value (modelList);
-                  });
+  /**
+   * Get the models that match a query without making a network request.
+   *
+   * @param dataClass           Data model class
+   * @param query               Local query
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> peek (Class <T> dataClass, LocalQuery query)
+  {
+    return this.select (dataClass, query);
   }
 
   /**
@@ -686,22 +2627,181 @@ public class DataStore
    * @return                Promise object
    */
   public <T extends DataModel> Promise <DataModelList <T>> select (Class <T> dataClass, Map <String, Object> query)
+  {
+    return this.select (dataClass, LocalQuery.fromMap (query));
+  }
+
+  /**
+   * Get the models for the data class that match a query from the local data store.
+   *
+   * @param dataClass       Class object
+   * @param query           Local query
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> select (Class <T> dataClass, LocalQuery query)
+  {
+    return this.selectCursor (dataClass, query)
+               .then (cursor -> value (this.loadModels (this.getModelAdapter (dataClass), cursor, false)));
+  }
+
+  /**
+   * Get the partial models for the data class from the local data store. Only the
+   * columns in the projection are selected.
+   *
+   * The method is not an overload of select () since select (dataClass, query, null)
+   * would be ambiguous with the relations to include.
+   *
+   * @param dataClass       Class object
+   * @param query           Query string
+   * @param projection      Fields to select
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> selectProjected (Class <T> dataClass, Map <String, Object> query, Projection projection)
+  {
+    return this.selectProjected (dataClass, LocalQuery.fromMap (query), projection);
+  }
+
+  /**
+   * Get the partial models for the data class that match a query from the local data
+   * store. Only the columns in the projection are selected.
+   *
+   * @param dataClass       Class object
+   * @param query           Local query
+   * @param projection      Fields to select
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> selectProjected (Class <T> dataClass, LocalQuery query, Projection projection)
+  {
+    return this.selectCursor (dataClass, query, projection)
+               .then (cursor -> value (this.loadModels (this.getModelAdapter (dataClass), cursor, true)));
+  }
+
+  /**
+   * Load the models in a cursor.
+   *
+   * @param modelAdapter    Adapter of the table
+   * @param cursor          Cursor of the rows
+   * @param partial         The cursor only has the columns of a projection
+   * @return                List of models
+   */
+  private <T extends DataModel> DataModelList <T> loadModels (ModelAdapter <T> modelAdapter, FlowCursor cursor, boolean partial)
+  {
+    DataModelList <T> modelList = new DataModelList<> (cursor.getCount ());
+
+    while (cursor.moveToNext ())
+    {
+      // The adapter uses the default value for the columns that are not in the cursor.
+      T model = modelAdapter.loadFromCursor (cursor);
+      model.assignTo (this);
+
+      if (partial)
+        model.setPartial (true);
+      else
+        this.markPartial (modelAdapter, model);
+
+      modelList.add (model);
+    }
+
+    return modelList;
+  }
+
+  /**
+   * Get the models for the data class from the local data store, and hydrate the
+   * relations of the models.
+   *
+   * @param dataClass       Class object
+   * @param query           Query string
+   * @param include         Relations to hydrate
+   * @return                Promise object
+   * @see #include(Class, DataModelList, String...)
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> select (Class <T> dataClass, Map <String, Object> query, String... include)
+  {
+    return this.select (dataClass, query)
+               .then (modelList -> this.include (dataClass, modelList, include));
+  }
+
+  /**
+   * Replace the foreign key stubs of the models with the models from the local data
+   * store. A relation is the name of a foreign key field. A nested relation is a path
+   * of field names separated by a period (e.g., author.publisher).
+   *
+   * The ids referenced by a relation are collected across all the models, and loaded
+   * with a single batched query. Stubs whose model does not exist locally are not
+   * replaced.
+   *
+   * @param dataClass       Class object
+   * @param modelList       Models to hydrate
+   * @param relations       Relations to hydrate
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <DataModelList <T>> include (Class <T> dataClass, DataModelList <T> modelList, String... relations)
+  {
+    // The relations are hydrated one after the other since a later relation may
+    // depend on the models of an earlier one.
+    Promise <Void> hydrated = Promise.resolve (null);
+
+    for (String relation: relations)
+      hydrated = hydrated.then (nothing -> this.hydrate (dataClass, modelList, relation));
+
+    return hydrated.then (nothing -> value (modelList));
+  }
+
+  private Promise <Void> hydrate (Class <? extends DataModel> dataClass, List <? extends DataModel> models, String path)
   {
     return Promise.resolve (null)
                   .then (nothing -> {
-                    ModelAdapter <T> modelAdapter = this.getModelAdapter (dataClass);
-                    FlowCursor cursor = await (this.selectCursor (dataClass, query));
-                    DataModelList<T> modelList = new DataModelList<> (cursor.getCount ());
+                    int index = path.indexOf ('.');
+                    String name = index != -1 ? path.substring (0, index) : path;
+
+                    DependencyGraph.Node node = this.dependencyGraph_.getNode (dataClass);
+                    DependencyGraph.Relation relation = node != null ? node.getRelation (name) : null;
+
+                    if (relation == null)
+                      throw new IllegalArgumentException (dataClass.getName () + " does not have a relation named " + name);
 
-                    while (cursor.moveToNext ())
+                    Field field = relation.getField ();
+                    Class <? extends DataModel> targetClass = relation.getTarget ().getDataClass ();
+                    Field idField = targetClass.getField (FIELD_ID);
+
+                    // Collect the referenced ids across all the models.
+                    LinkedHashSet <Object> ids = new LinkedHashSet<> ();
+
+                    for (DataModel model: models)
                     {
-                      T model = modelAdapter.loadFromCursor (cursor);
-                      model.assignTo (this);
+                      Object ref = field.get (model);
 
-                      modelList.add (model);
+                      if (ref != null)
+                      {
+                        Object id = idField.get (ref);
+
+                        if (id != null)
+                          ids.add (id);
+                      }
                     }
 
-                    return value (modelList);
+                    if (ids.isEmpty ())
+                      return value (null);
+
+                    return this.peekMany (targetClass, ids).then (targets -> {
+                      for (DataModel model: models)
+                      {
+                        Object ref = field.get (model);
+
+                        if (ref == null)
+                          continue;
+
+                        DataModel target = targets.get (idField.get (ref));
+
+                        if (target != null)
+                          field.set (model, target);
+                      }
+
+                      if (index != -1)
+                        return this.hydrate (targetClass, new ArrayList<> (targets.values ()), path.substring (index + 1));
+
+                      return Promise.resolve (null);
+                    });
                   });
   }
 
@@ -718,7 +2818,15 @@ public class DataStore
   {
     return Promise.resolve (null)
                   .then (nothing -> {
-                    this.getModelAdapter (dataClass);
+                    ModelAdapter <T> modelAdapter = this.getModelAdapter (dataClass);
+
+                    if (this.modelCache_ != null)
+                    {
+                      T cached = this.modelCache_.get (dataClass, id);
+
+                      if (cached != null)
+                        return value (cached);
+                    }
 
                     T dataModel =
                         SQLite.select ()
@@ -727,12 +2835,75 @@ public class DataStore
                               .querySingle ();
 
                     if (dataModel != null)
+                    {
                       dataModel.assignTo (this);
+                      this.markPartial (modelAdapter, dataModel);
+
+                      if (this.modelCache_ != null)
+                        this.modelCache_.put (dataModel);
+                    }
 
                     return value (dataModel);
                   });
   }
 
+  /**
+   * Get a set of models by their id without making a network request. The models are
+   * selected in chunks using an IN clause. Ids that do not exist in the data store are
+   * not in the returned map.
+   *
+   * @param dataClass           Data model class
+   * @param ids                 Ids of the models
+   * @return                    Promise object with map of id to model
+   */
+  public <T extends DataModel> Promise <Map <Object, T>> peekMany (Class <T> dataClass, Collection <?> ids)
+  {
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    ModelAdapter <T> modelAdapter = this.getModelAdapter (dataClass);
+
+                    Field idField = dataClass.getField (FIELD_ID);
+                    LinkedHashMap <Object, T> models = new LinkedHashMap<> ();
+                    LinkedHashMap <Object, Object> pending = new LinkedHashMap<> ();
+
+                    for (Object id: ids)
+                    {
+                      T cached = this.modelCache_ != null ? this.modelCache_.get (dataClass, id) : null;
+
+                      if (cached != null)
+                        models.put (id, cached);
+                      else
+                        pending.put (normalizeId (id), id);
+                    }
+
+                    ArrayList <Object> remaining = new ArrayList<> (pending.values ());
+
+                    for (int i = 0; i < remaining.size (); i += MAX_SQL_VARIABLES)
+                    {
+                      List <Object> chunk = remaining.subList (i, Math.min (i + MAX_SQL_VARIABLES, remaining.size ()));
+
+                      List <T> modelList =
+                          SQLite.select ()
+                                .from (dataClass)
+                                .where (Operator.op (_ID).in (chunk))
+                                .queryList ();
+
+                      for (T model: modelList)
+                      {
+                        model.assignTo (this);
+                        this.markPartial (modelAdapter, model);
+
+                        if (this.modelCache_ != null)
+                          this.modelCache_.put (model);
+
+                        models.put (pending.get (normalizeId (idField.get (model))), model);
+                      }
+                    }
+
+                    return value (models);
+                  });
+  }
+
   /**
    * Load the contents of a model. It is assume the id of the model already
    * exists in the target model object.
@@ -746,9 +2917,23 @@ public class DataStore
                   .then (nothing -> {
                     @SuppressWarnings("unchecked")
                     ModelAdapter<T> modelAdapter = (ModelAdapter<T>) this.getModelAdapter (model.getClass ());
-                    modelAdapter.load (model);
 
+                    // The model is already up-to-date if it is the instance in our cache.
+                    if (this.modelCache_ != null && model.getStore () == this)
+                    {
+                      Object id = model.getClass ().getField (FIELD_ID).get (model);
+
+                      if (this.modelCache_.get (model.getClass (), id) == model)
+                        return value (model);
+                    }
+
+                    modelAdapter.load (model);
                     model.assignTo (this);
+                    model.setPartial (false);
+                    this.markPartial (modelAdapter, model);
+
+                    if (this.modelCache_ != null)
+                      this.modelCache_.put (model);
 
                     return value (model);
                   });
@@ -769,6 +2954,7 @@ public class DataStore
 
     T model = modelAdapter.loadFromCursor (cursor);
     model.assignTo (this);
+    this.markPartial (modelAdapter, model);
 
     return Promise.resolve (model);
   }
@@ -782,21 +2968,95 @@ public class DataStore
    * @return                Promise object
    */
   public <T extends DataModel> Promise <FlowCursor> selectCursor (Class <T> dataClass, Map <String, Object> params)
+  {
+    return this.selectCursor (dataClass, params, null);
+  }
+
+  /**
+   * Get the columns in the projection for all model elements that meet the specified
+   * criteria without making a network request.
+   *
+   * @param dataClass       Data model class
+   * @param params          Criteria
+   * @param projection      Optional projection
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <FlowCursor> selectCursor (Class <T> dataClass, Map <String, Object> params, Projection projection)
+  {
+    return this.selectCursor (dataClass, LocalQuery.fromMap (params), projection);
+  }
+
+  /**
+   * Get all model elements that match a query without making a network request.
+   *
+   * @param dataClass       Data model class
+   * @param query           Local query
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <FlowCursor> selectCursor (Class <T> dataClass, LocalQuery query)
+  {
+    return this.selectCursor (dataClass, query, null);
+  }
+
+  /**
+   * Get the columns in the projection for all model elements that match a query
+   * without making a network request.
+   *
+   * @param dataClass       Data model class
+   * @param query           Local query
+   * @param projection      Optional projection
+   * @return                Promise object
+   */
+  public <T extends DataModel> Promise <FlowCursor> selectCursor (Class <T> dataClass, LocalQuery query, Projection projection)
   {
     return Promise.resolve (null)
                   .then (nothing -> {
-                    this.getModelAdapter (dataClass);
+                    ModelAdapter <T> modelAdapter = this.getModelAdapter (dataClass);
+                    From <T> from = SQLite.select (getColumns (modelAdapter, projection)).from (dataClass);
+                    Where <T> where = query.applyTo (from);
 
-                    From<?> from = SQLite.select ().from (dataClass);
+                    if (this.indexAdvisor_.getMode () != IndexAdvisor.Mode.OFF)
+                      this.indexAdvisor_.record (TableUtils.getRawTableName (modelAdapter.getTableName ()),
+                                                 query.getIndexColumns (),
+                                                 where.getQuery ());
+
+                    return value (where.query ());
+                  });
+  }
 
-                    ArrayList<SQLOperator> conditions = new ArrayList<> ();
+  /**
+   * Get the columns of a table to select for a projection.
+   *
+   * @param modelAdapter    Adapter of the table
+   * @param projection      Optional projection
+   * @return                Columns to select, or an empty array for all columns
+   */
+  private static IProperty [] getColumns (ModelAdapter <?> modelAdapter, Projection projection)
+  {
+    if (projection == null)
+      return new IProperty[0];
 
-                    for (Map.Entry<String, Object> param : params.entrySet ())
-                      conditions.add (Operator.op (NameAlias.of (param.getKey ())).eq (param.getValue ()));
+    ArrayList <IProperty> columns = new ArrayList<> ();
 
-                    Queriable queriable = conditions.isEmpty () ? from : from.where (conditions.toArray (new SQLOperator[0]));
-                    return value (queriable.query ());
-                  });
+    for (IProperty property: modelAdapter.getAllColumnProperties ())
+    {
+      if (projection.includesColumn (property.getNameAlias ().nameRaw ()))
+        columns.add (property);
+    }
+
+    return columns.toArray (new IProperty[0]);
+  }
+
+  /**
+   * Normalize the id of a model so ids are equal regardless of their type. For example,
+   * the int 45, the long 45, and the string "45" (e.g., from a tombstone) are the same id.
+   *
+   * @param id              Id of a model
+   * @return                Normalized id
+   */
+  static Object normalizeId (Object id)
+  {
+    return id instanceof Number ? Long.toString (((Number)id).longValue ()) : id.toString ();
   }
 
   /**
@@ -818,12 +3078,33 @@ public class DataStore
     String singular = Pluralize.getInstance ().singular (tableName);
 
     // Cache the endpoint for later lookup.
-    endpoint = ResourceEndpoint.create (this.retrofit_, singular, tableName);
+    endpoint = ResourceEndpoint.create (this.retrofit_, singular, tableName, this.scheduler_);
     this.endpoints_.put (dataClass, endpoint);
 
     return endpoint;
   }
 
+  private <T> ResourceEndpoint <T> getEndpoint (Class <T> dataClass, RequestScheduler.Priority priority)
+  {
+    return this.getEndpoint (dataClass).withPriority (priority);
+  }
+
+  private <T> ResourceEndpoint <T> getEndpoint (Class <T> dataClass, RequestScheduler.Priority priority, CancellationToken token)
+  {
+    ResourceEndpoint <T> endpoint = this.getEndpoint (dataClass, priority);
+    return token != null ? endpoint.withCancellation (token) : endpoint;
+  }
+
+  /**
+   * Skip a transaction if its operation was cancelled. The exception rolls back the
+   * transaction, and rejects the Promise of the operation.
+   */
+  static void throwIfCancelled (CancellationToken token)
+  {
+    if (token != null)
+      token.throwIfCancelled ();
+  }
+
   /**
    * Get the model adapter for the database.
    *
@@ -854,12 +3135,9 @@ public class DataStore
                   .then (nothing -> {
                     LOG.info ("Pushing data model onto the database [class={}]", dataClass);
 
-                    // Save the model to our local database.
+                    // Save the model to our local database, and set its data store.
                     ModelAdapter <T> modelAdapter = FlowManager.getModelAdapter (dataClass);
-                    modelAdapter.save (model);
-
-                    // Set the data store for the model.
-                    model.assignTo (this);
+                    this.saveModel (modelAdapter, model);
 
                     return value (model);
                   });
@@ -886,13 +3164,38 @@ public class DataStore
                     T model = this.gson_.fromJson (json, modelAdapter.getModelClass ());
 
                     // Save the model to our local database.
-                    modelAdapter.save (model);
-                    model.assignTo (this);
+                    this.saveModel (modelAdapter, model);
 
                     return value (model);
                   });
   }
 
+  /**
+   * Save a single model to the local database. Unlike ModelAdapter.save (), the model
+   * is written without a notification for the row.
+   *
+   * @param modelAdapter      Adapter of the table
+   * @param model             Model to save
+   */
+  private <T extends DataModel> void saveModel (ModelAdapter <T> modelAdapter, T model)
+  {
+    ModelWriter <T> writer = this.newModelWriter (modelAdapter, this.databaseDefinition_.getWritableDatabase ());
+
+    try
+    {
+      writer.save (model);
+    }
+    finally
+    {
+      writer.close ();
+    }
+
+    model.assignTo (this);
+
+    this.notifyTableChanged (modelAdapter.getModelClass ());
+    this.onModelsWritten (Collections.singletonList (model));
+  }
+
   /**
    * Push a collection of models onto the data store.
    *
@@ -900,26 +3203,40 @@ public class DataStore
    * @param modelList       List of model elements
    * @return                Promise object
    */
-  private <T extends DataModel> Promise <DataModelList <T>> insertIntoDatabase (Class <T> dataClass, DataModelList <T> modelList)
+  private <T extends DataModel> Promise <DataModelList <T>> insertIntoDatabase (Class <T> dataClass, DataModelList <T> modelList, CancellationToken token)
   {
     return new Promise<> (settlement -> {
       LOG.info ("Inserting {} model(s) into database [class={}]", modelList.size (), dataClass);
 
       ModelAdapter <T> modelAdapter = FlowManager.getModelAdapter (dataClass);
 
-      FlowManager.getDatabase (this.databaseClass_)
-                 .beginTransactionAsync (databaseWrapper -> {
-                   for (T dataModel: modelList)
-                   {
-                     // Save the model to our local database, then set its data store.
-                     modelAdapter.save (dataModel, databaseWrapper);
-                     dataModel.assignTo (this);
-                   }
-                 })
-                 .success (transaction -> settlement.resolve (modelList))
-                 .error ((transaction, error) -> settlement.reject (error))
-                 .build ()
-                 .execute ();
+      this.executeTransaction (
+          databaseWrapper -> {
+            throwIfCancelled (token);
+
+            ModelWriter <T> writer = this.newModelWriter (modelAdapter, databaseWrapper);
+
+            try
+            {
+              for (T dataModel: modelList)
+              {
+                // Save the model to our local database, then set its data store.
+                writer.save (dataModel);
+                dataModel.assignTo (this);
+              }
+            }
+            finally
+            {
+              writer.close ();
+            }
+          },
+          transaction -> {
+            this.notifyTableChanged (dataClass);
+            this.onModelsWritten (modelList);
+
+            settlement.resolve (modelList);
+          },
+          (transaction, error) -> settlement.reject (error));
     });
   }
 }
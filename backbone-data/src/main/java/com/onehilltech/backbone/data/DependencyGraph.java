@@ -3,12 +3,31 @@ package com.onehilltech.backbone.data;
 import com.raizlabs.android.dbflow.config.DatabaseDefinition;
 import com.raizlabs.android.dbflow.structure.ModelAdapter;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 
+/**
+ * @class DependencyGraph
+ *
+ * The foreign key dependencies between the data models of a database. The graph is
+ * used to determine the order the models in a resource are inserted so that a model
+ * is always inserted after the models it references.
+ *
+ * The insert order for each data class is computed once when the graph is built. A
+ * data model that references itself does not create a cycle. Instead, its node is
+ * marked as self-referencing so the foreign key checks can be deferred until the end
+ * of the transaction. Any other cycle is reported, and broken at the edge that closes
+ * the cycle.
+ */
 public class DependencyGraph
 {
   public static class Builder
@@ -46,14 +65,47 @@ public class DependencyGraph
           if (targetAdapter == null)
             continue;
 
-          graph.addDependency (dataModelAdapter, targetAdapter);
+          graph.addDependency (dataModelAdapter, targetAdapter, field);
         }
       }
 
+      graph.computeInsertOrders ();
+
       return graph;
     }
   }
 
+  /**
+   * A foreign key field from one data model to another.
+   */
+  public static class Relation
+  {
+    private final Field field_;
+
+    private final Node target_;
+
+    private Relation (Field field, Node target)
+    {
+      this.field_ = field;
+      this.target_ = target;
+    }
+
+    public String getName ()
+    {
+      return this.field_.getName ();
+    }
+
+    public Field getField ()
+    {
+      return this.field_;
+    }
+
+    public Node getTarget ()
+    {
+      return this.target_;
+    }
+  }
+
   public static class Node
   {
     private final ModelAdapter <? extends DataModel> modelAdapter_;
@@ -66,6 +118,10 @@ public class DependencyGraph
 
     private final ArrayList <Node> depends_ = new ArrayList<> ();
 
+    private final LinkedHashMap <String, Relation> relations_ = new LinkedHashMap<> ();
+
+    private boolean isSelfReferencing_;
+
     private Node (ModelAdapter <? extends DataModel> modelAdapter)
     {
       this.modelAdapter_ = modelAdapter;
@@ -81,7 +137,46 @@ public class DependencyGraph
 
     void addDependency (Node node)
     {
-      this.depends_.add (node);
+      if (node == this)
+        this.isSelfReferencing_ = true;
+      else if (!this.depends_.contains (node))
+        this.depends_.add (node);
+    }
+
+    void addRelation (Relation relation)
+    {
+      this.relations_.put (relation.getName (), relation);
+    }
+
+    /**
+     * Get the foreign key relations of the data model.
+     */
+    public Collection <Relation> getRelations ()
+    {
+      return Collections.unmodifiableCollection (this.relations_.values ());
+    }
+
+    /**
+     * Get a foreign key relation by the name of its field.
+     *
+     * @param name        Name of the field
+     * @return            Relation object, or null
+     */
+    public Relation getRelation (String name)
+    {
+      return this.relations_.get (name);
+    }
+
+    /**
+     * Test if the data model has a foreign key to itself. The data store defers the
+     * foreign key checks of a transaction that writes a self-referencing data model
+     * (PRAGMA defer_foreign_keys). SQLite ignores this pragma before 3.8.0 (i.e., before
+     * API 21). On these devices, a model must be inserted after the model it references,
+     * so the server must list the models of a self-referencing table parents first.
+     */
+    public boolean isSelfReferencing ()
+    {
+      return this.isSelfReferencing_;
     }
 
     public boolean isPluraleTantum ()
@@ -110,8 +205,19 @@ public class DependencyGraph
     }
   }
 
+  private static final Logger LOG = LoggerFactory.getLogger (DependencyGraph.class);
+
   private final HashMap <Class <? extends DataModel>, Node> nodes_ = new HashMap<> ();
 
+  /// Lookup of the nodes by their plural and singular name.
+  private final HashMap <String, Node> names_ = new HashMap<> ();
+
+  /// The precomputed insert order for each data class.
+  private final HashMap <Class <? extends DataModel>, List <Node>> insertOrders_ = new HashMap<> ();
+
+  /// The cycles found while computing the insert orders.
+  private final ArrayList <List <Node>> cycles_ = new ArrayList<> ();
+
   private DependencyGraph ()
   {
 
@@ -129,7 +235,7 @@ public class DependencyGraph
     if (this.nodes_.containsKey (dataClass))
       return;
 
-    this.nodes_.put (dataClass, new Node (modelAdapter));
+    this.putNode (new Node (modelAdapter));
   }
 
   /**
@@ -144,6 +250,22 @@ public class DependencyGraph
     Node dstNode = this.getNodeOrCreate (dst);
 
     srcNode.addDependency (dstNode);
+
+    // The dependencies have changed so the insert orders are no longer valid.
+    this.insertOrders_.clear ();
+  }
+
+  /**
+   * Add a new dependency for a foreign key field.
+   *
+   * @param src
+   * @param dst
+   * @param field         Foreign key field of the source
+   */
+  void addDependency (ModelAdapter <? extends DataModel> src, ModelAdapter <? extends DataModel> dst, Field field)
+  {
+    this.addDependency (src, dst);
+    this.getNodeOrCreate (src).addRelation (new Relation (field, this.getNodeOrCreate (dst)));
   }
 
   /**
@@ -152,42 +274,173 @@ public class DependencyGraph
   void clear ()
   {
     this.nodes_.clear ();
+    this.names_.clear ();
+    this.insertOrders_.clear ();
+    this.cycles_.clear ();
+  }
+
+  /**
+   * Get the node for a resource name. The name can be either the plural or the
+   * singular name of the resource.
+   *
+   * @param name        Name of the resource
+   * @return            Node object, or null
+   */
+  public Node getNode (String name)
+  {
+    return this.names_.get (name);
+  }
+
+  /**
+   * Get the node for a data class.
+   *
+   * @param dataClass   Data class
+   * @return            Node object, or null
+   */
+  public Node getNode (Class <? extends DataModel> dataClass)
+  {
+    return this.nodes_.get (dataClass);
   }
 
-  public List <Node> getInsertOrder (Class <? extends DataModel> dataClass)
+  /**
+   * Get the cycles in the graph, excluding data models that reference themselves.
+   *
+   * @return            List of cycles
+   */
+  public synchronized List <List <Node>> getCycles ()
   {
-    ArrayList <Node> ordering = new ArrayList<> ();
-    Node currentNode = this.nodes_.get (dataClass);
+    if (this.insertOrders_.isEmpty ())
+      this.computeInsertOrders ();
 
-    // The current node will be first in our ordering.
-    ordering.add (currentNode);
-    this.getInsertOrderFrom (currentNode, ordering);
+    return Collections.unmodifiableList (this.cycles_);
+  }
 
-    // Reverse the ordering so we know what to insert first, and what to
-    // insert last.
-    Collections.reverse (ordering);
+  /**
+   * Get the insert order for a data class. The dependencies of the data class appear
+   * before the nodes that depend on them, and the node for the data class is last.
+   *
+   * @param dataClass       Data class
+   * @return                List of nodes
+   */
+  public synchronized List <Node> getInsertOrder (Class <? extends DataModel> dataClass)
+  {
+    if (this.insertOrders_.isEmpty ())
+      this.computeInsertOrders ();
+
+    List <Node> ordering = this.insertOrders_.get (dataClass);
+
+    if (ordering == null)
+      throw new IllegalArgumentException (dataClass.getName () + " is not part of the dependency graph");
 
     return ordering;
   }
 
-  private void getInsertOrderFrom (Node node, ArrayList <Node> ordering)
+  /**
+   * Get the insert order for a data class, limited to the nodes that have a value in
+   * the resource.
+   *
+   * @param dataClass       Data class
+   * @param r               Resource to insert
+   * @return                List of nodes
+   */
+  public List <Node> getInsertOrder (Class <? extends DataModel> dataClass, Resource r)
   {
-    ArrayList <Node> continuation = new ArrayList<> ();
+    List <Node> ordering = this.getInsertOrder (dataClass);
+    ArrayList <Node> present = new ArrayList<> (Math.min (ordering.size (), r.entityCount ()));
 
-    // The first iteration through the nodes will appends them to the current
-    // ordering since this nodes depends on each one. The second iteration goes
-    // adds the ordering for each dependency.
-    for (Node dependency: node.getDependencies ())
+    for (Node node: ordering)
     {
-      if (ordering.contains (dependency))
-        continue;
+      if (r.contains (node.getPluralName ()) || r.contains (node.getSingularName ()))
+        present.add (node);
+    }
+
+    return present;
+  }
+
+  /**
+   * Compute the insert order for each data class in the graph.
+   */
+  synchronized void computeInsertOrders ()
+  {
+    this.insertOrders_.clear ();
+    this.cycles_.clear ();
 
-      ordering.add (dependency);
-      continuation.add (dependency);
+    for (Node node: this.nodes_.values ())
+    {
+      ArrayList <Node> ordering = new ArrayList<> ();
+      this.visit (node, new HashSet<> (), new HashSet<> (), new ArrayList<> (), ordering);
+
+      this.insertOrders_.put (node.getDataClass (), Collections.unmodifiableList (ordering));
     }
+  }
 
-    for (Node dependency: continuation)
-      this.getInsertOrderFrom (dependency, ordering);
+  /**
+   * Visit the dependencies of a node in depth-first order. A node is added to the
+   * ordering after all its dependencies, which makes the ordering topological.
+   *
+   * @param node            Current node
+   * @param visited         Nodes already visited
+   * @param onPath          Nodes on the path from the start node
+   * @param path            The path from the start node
+   * @param ordering        The insert order
+   */
+  private void visit (Node node,
+                      HashSet <Node> visited,
+                      HashSet <Node> onPath,
+                      ArrayList <Node> path,
+                      ArrayList <Node> ordering)
+  {
+    visited.add (node);
+    onPath.add (node);
+    path.add (node);
+
+    for (Node dependency: node.depends_)
+    {
+      if (!visited.contains (dependency))
+      {
+        this.visit (dependency, visited, onPath, path, ordering);
+      }
+      else if (onPath.contains (dependency))
+      {
+        // The dependency is on the current path so we have found a cycle. We ignore
+        // this edge so the ordering is still defined.
+        List <Node> cycle = new ArrayList<> (path.subList (path.indexOf (dependency), path.size ()));
+
+        if (!this.containsCycle (cycle))
+        {
+          LOG.warn ("Found a foreign key cycle: {}", describe (cycle));
+          this.cycles_.add (Collections.unmodifiableList (cycle));
+        }
+      }
+    }
+
+    path.remove (path.size () - 1);
+    onPath.remove (node);
+    ordering.add (node);
+  }
+
+  /**
+   * Test if a cycle, possibly starting at a different node, was already found.
+   */
+  private boolean containsCycle (List <Node> cycle)
+  {
+    for (List <Node> existing: this.cycles_)
+    {
+      if (existing.size () == cycle.size () && existing.containsAll (cycle))
+        return true;
+    }
+
+    return false;
+  }
+
+  private static String describe (List <Node> cycle)
+  {
+    StringBuilder builder = new StringBuilder ();
+
+    for (Node node: cycle)
+      builder.append (node.getPluralName ()).append (" -> ");
+
+    return builder.append (cycle.get (0).getPluralName ()).toString ();
   }
 
   private Node getNodeOrCreate (ModelAdapter <? extends DataModel> modelAdapter)
@@ -199,10 +452,19 @@ public class DependencyGraph
       return node;
 
     node = new Node (modelAdapter);
-    this.nodes_.put (dataClass, node);
+    this.putNode (node);
 
     return node;
   }
 
+  private void putNode (Node node)
+  {
+    this.nodes_.put (node.getDataClass (), node);
+    this.names_.put (node.getPluralName (), node);
+    this.names_.put (node.getSingularName (), node);
+
+    this.insertOrders_.clear ();
+  }
+
 
 }
@@ -0,0 +1,79 @@
+package com.onehilltech.backbone.data;
+
+/**
+ * @class FetchPolicy
+ *
+ * Policy that controls where the data store gets the models for a read. The freshness
+ * of the local models is determined by the time the resource (or query) was last
+ * fetched from the server.
+ *
+ *   CACHE_ONLY               - Only read the local database.
+ *   CACHE_FIRST              - Read the local database if the resource was fetched within
+ *                              the max age. Otherwise, fetch it from the server.
+ *   NETWORK_FIRST            - Fetch the resource from the server. If the request fails,
+ *                              read the local database.
+ *   STALE_WHILE_REVALIDATE   - Read the local database right away. If the resource is
+ *                              older than the max age, fetch it from the server in the
+ *                              background and notify the client of the refreshed models.
+ */
+public class FetchPolicy
+{
+  public enum Type
+  {
+    CACHE_ONLY,
+    CACHE_FIRST,
+    NETWORK_FIRST,
+    STALE_WHILE_REVALIDATE
+  }
+
+  private final Type type_;
+
+  /// Max age, in milliseconds, of the local models.
+  private final long maxAge_;
+
+  public static FetchPolicy cacheOnly ()
+  {
+    return new FetchPolicy (Type.CACHE_ONLY, Long.MAX_VALUE);
+  }
+
+  /**
+   * Read the local models if they are not older than the max age.
+   *
+   * @param maxAge          Max age in milliseconds
+   */
+  public static FetchPolicy cacheFirst (long maxAge)
+  {
+    return new FetchPolicy (Type.CACHE_FIRST, maxAge);
+  }
+
+  public static FetchPolicy networkFirst ()
+  {
+    return new FetchPolicy (Type.NETWORK_FIRST, 0);
+  }
+
+  /**
+   * Read the local models, and revalidate them if they are older than the max age.
+   *
+   * @param maxAge          Max age in milliseconds
+   */
+  public static FetchPolicy staleWhileRevalidate (long maxAge)
+  {
+    return new FetchPolicy (Type.STALE_WHILE_REVALIDATE, maxAge);
+  }
+
+  private FetchPolicy (Type type, long maxAge)
+  {
+    this.type_ = type;
+    this.maxAge_ = maxAge;
+  }
+
+  public Type getType ()
+  {
+    return this.type_;
+  }
+
+  public long getMaxAge ()
+  {
+    return this.maxAge_;
+  }
+}
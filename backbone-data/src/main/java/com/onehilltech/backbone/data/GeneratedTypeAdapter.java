@@ -0,0 +1,67 @@
+package com.onehilltech.backbone.data;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.raizlabs.android.dbflow.structure.InvalidDBConfiguration;
+
+/**
+ * @class GeneratedTypeAdapter
+ *
+ * Base class for the type adapters generated by the backbone-data-processor. The
+ * generated adapter reads and writes the fields of a data model directly instead of
+ * using reflection. DataModelTypeAdapterFactory uses the generated adapter for a data
+ * model, if one exists.
+ *
+ * The generated adapter for a data model is named [Model]_TypeAdapter, and is in the
+ * same package as the data model.
+ */
+public abstract class GeneratedTypeAdapter <T> extends TypeAdapter <T>
+{
+  /// Suffix of the generated adapter class name.
+  public static final String SUFFIX = "_TypeAdapter";
+
+  private final Gson gson_;
+
+  protected GeneratedTypeAdapter (Gson gson)
+  {
+    this.gson_ = gson;
+  }
+
+  /**
+   * Get the type adapter for a field. A field that references another data model is
+   * a foreign key, and is read and written as the id of the referenced model.
+   *
+   * @param fieldType         Type of the field
+   * @return                  TypeAdapter object
+   */
+  @SuppressWarnings ("unchecked")
+  protected <F> TypeAdapter <F> getFieldAdapter (Class <F> fieldType)
+  {
+    if (fieldType.isPrimitive ())
+      return this.gson_.getAdapter (fieldType);
+
+    try
+    {
+      return (TypeAdapter <F>)DataModelTypeAdapterFactory.newForeignKeyTypeAdapter (fieldType);
+    }
+    catch (IllegalArgumentException | InvalidDBConfiguration e)
+    {
+      return this.gson_.getAdapter (fieldType);
+    }
+    catch (NoSuchFieldException e)
+    {
+      throw new AssertionError (e);
+    }
+  }
+
+  /**
+   * Get the name of the generated adapter class for a data class.
+   *
+   * @param dataClass         Data class
+   * @return                  Fully qualified class name
+   */
+  static String getGeneratedName (Class <?> dataClass)
+  {
+    return dataClass.getName ().replace ('$', '_') + SUFFIX;
+  }
+}
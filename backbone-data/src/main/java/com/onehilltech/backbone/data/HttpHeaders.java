@@ -5,4 +5,5 @@ public class HttpHeaders
   public static final String ETAG = "ETag";
   public static final String LAST_MODIFIED = "Last-Modified";
   public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  public static final String IF_NONE_MATCH = "If-None-Match";
 }
@@ -0,0 +1,273 @@
+package com.onehilltech.backbone.data;
+
+import android.text.TextUtils;
+
+import com.raizlabs.android.dbflow.config.DatabaseDefinition;
+import com.raizlabs.android.dbflow.structure.database.DatabaseWrapper;
+import com.raizlabs.android.dbflow.structure.database.FlowCursor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @class IndexAdvisor
+ *
+ * Records the shape (i.e., the table, the condition columns, and the ORDER BY columns)
+ * of the local queries executed by the data store. Once a shape has been executed
+ * enough times, the advisor looks at its plan with EXPLAIN QUERY PLAN. If SQLite has
+ * to scan the table, the advisor recommends an index on the columns of the query.
+ *
+ * In REPORT mode, the recommended indices are only available from getRecommendations ().
+ * In CREATE mode, the advisor also creates the indices. The plans are analyzed, and the
+ * indices are created, on a background thread.
+ */
+public class IndexAdvisor
+{
+  public enum Mode
+  {
+    /// Do not record the local queries.
+    OFF,
+
+    /// Record the local queries, and report the missing indices.
+    REPORT,
+
+    /// Record the local queries, and create the missing indices.
+    CREATE
+  }
+
+  /// Default number of times a query shape is executed before it is analyzed.
+  static final int DEFAULT_THRESHOLD = 5;
+
+  private static final String INDEX_PREFIX = "backbone_index_";
+
+  /**
+   * @class Recommendation
+   *
+   * An index that is missing for a query shape.
+   */
+  public static class Recommendation
+  {
+    private final String tableName_;
+
+    private final List <String> columns_;
+
+    private final String plan_;
+
+    private boolean isCreated_;
+
+    Recommendation (String tableName, List <String> columns, String plan)
+    {
+      this.tableName_ = tableName;
+      this.columns_ = Collections.unmodifiableList (columns);
+      this.plan_ = plan;
+    }
+
+    public String getTableName ()
+    {
+      return this.tableName_;
+    }
+
+    public List <String> getColumns ()
+    {
+      return this.columns_;
+    }
+
+    /**
+     * Get the plan of the query shape before the index was created.
+     */
+    public String getPlan ()
+    {
+      return this.plan_;
+    }
+
+    public synchronized boolean isCreated ()
+    {
+      return this.isCreated_;
+    }
+
+    public String getIndexName ()
+    {
+      return INDEX_PREFIX + this.tableName_ + "_" + TextUtils.join ("_", this.columns_);
+    }
+
+    /**
+     * Get the statement that creates the index.
+     */
+    public String getCreateStatement ()
+    {
+      return "CREATE INDEX IF NOT EXISTS `" + this.getIndexName () + "` ON `" + this.tableName_ + "` (`" + TextUtils.join ("`, `", this.columns_) + "`)";
+    }
+
+    synchronized void setCreated ()
+    {
+      this.isCreated_ = true;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return this.getCreateStatement ();
+    }
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger (IndexAdvisor.class);
+
+  private final DatabaseDefinition database_;
+
+  private final Mode mode_;
+
+  private final int threshold_;
+
+  /// Number of times each query shape was executed.
+  private final LinkedHashMap <String, Integer> counts_ = new LinkedHashMap<> ();
+
+  /// The recommendation for each index, by index name.
+  private final LinkedHashMap <String, Recommendation> recommendations_ = new LinkedHashMap<> ();
+
+  private final ExecutorService executor_ = Executors.newSingleThreadExecutor ();
+
+  IndexAdvisor (DatabaseDefinition database, Mode mode, int threshold)
+  {
+    this.database_ = database;
+    this.mode_ = mode;
+    this.threshold_ = threshold;
+  }
+
+  public Mode getMode ()
+  {
+    return this.mode_;
+  }
+
+  /**
+   * Get the indices that are missing for the recorded query shapes.
+   *
+   * @return          List of recommendations
+   */
+  public synchronized List <Recommendation> getRecommendations ()
+  {
+    return new ArrayList<> (this.recommendations_.values ());
+  }
+
+  /**
+   * Get the recorded query shapes and the number of times each was executed.
+   *
+   * @return          Map of query shape to count
+   */
+  public synchronized Map <String, Integer> getQueryShapes ()
+  {
+    return new LinkedHashMap<> (this.counts_);
+  }
+
+  /**
+   * Record the execution of a local query. The query is analyzed the first time its
+   * shape reaches the threshold.
+   *
+   * @param tableName       Raw name of the table
+   * @param columns         Index columns of the query
+   * @param sql             The SELECT statement
+   */
+  void record (String tableName, List <String> columns, String sql)
+  {
+    if (this.mode_ == Mode.OFF || columns.isEmpty ())
+      return;
+
+    String shape = tableName + "(" + TextUtils.join (",", columns) + ")";
+
+    synchronized (this)
+    {
+      Integer count = this.counts_.get (shape);
+      count = count != null ? count + 1 : 1;
+
+      this.counts_.put (shape, count);
+
+      if (count != this.threshold_)
+        return;
+    }
+
+    this.executor_.execute (() -> this.analyze (tableName, columns, sql));
+  }
+
+  private void analyze (String tableName, List <String> columns, String sql)
+  {
+    try
+    {
+      DatabaseWrapper database = this.database_.getWritableDatabase ();
+      String plan = explain (database, sql);
+
+      if (!needsIndex (plan))
+        return;
+
+      Recommendation recommendation = new Recommendation (tableName, columns, plan);
+
+      synchronized (this)
+      {
+        if (this.recommendations_.containsKey (recommendation.getIndexName ()))
+          return;
+
+        this.recommendations_.put (recommendation.getIndexName (), recommendation);
+      }
+
+      LOG.info ("Missing index for query: {} [plan={}]", recommendation, plan);
+
+      if (this.mode_ == Mode.CREATE)
+      {
+        database.execSQL (recommendation.getCreateStatement ());
+        recommendation.setCreated ();
+
+        LOG.info ("Created index {}", recommendation.getIndexName ());
+      }
+    }
+    catch (Exception e)
+    {
+      LOG.warn ("Failed to analyze query: {}", sql, e);
+    }
+  }
+
+  /**
+   * Test if a plan scans the table, or sorts the rows, without an index.
+   */
+  private static boolean needsIndex (String plan)
+  {
+    for (String step: plan.split ("\n"))
+    {
+      if (step.startsWith ("SCAN") && !step.contains ("USING"))
+        return true;
+
+      if (step.contains ("USE TEMP B-TREE FOR ORDER BY"))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Get the plan of a statement. Each line is the detail of one step in the plan.
+   */
+  private static String explain (DatabaseWrapper database, String sql)
+  {
+    FlowCursor cursor = database.rawQuery ("EXPLAIN QUERY PLAN " + sql, null);
+
+    try
+    {
+      ArrayList <String> details = new ArrayList<> ();
+      int detailColumn = cursor.getColumnIndex ("detail");
+
+      while (cursor.moveToNext ())
+        details.add (cursor.getString (detailColumn));
+
+      return TextUtils.join ("\n", details);
+    }
+    finally
+    {
+      cursor.close ();
+    }
+  }
+}
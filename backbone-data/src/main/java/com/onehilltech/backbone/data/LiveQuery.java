@@ -0,0 +1,351 @@
+package com.onehilltech.backbone.data;
+
+import com.raizlabs.android.dbflow.sql.language.NameAlias;
+import com.raizlabs.android.dbflow.sql.language.Operator;
+import com.raizlabs.android.dbflow.sql.language.SQLite;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * @class LiveQuery
+ *
+ * A subscription to the models that match a local query. The subscription emits the
+ * initial result of the query, and then a delta each time a data store transaction
+ * changes the result.
+ *
+ * The delta is computed from the write set of the transaction (i.e., the models it
+ * wrote and the ids it deleted) instead of running the query again. Only the written
+ * models are checked against the conditions of the query, so the cost of a delta is
+ * proportional to the size of the change instead of the size of the table.
+ *
+ * The position of a model in an ordered, paged query (i.e., a query with a limit,
+ * offset, or keyset) depends on the models around it. For a paged query, the query is
+ * executed again when the table changes, and the delta is the difference between the
+ * two results.
+ *
+ * The initial result and the deltas are computed on a single background thread of the
+ * data store, one transaction at a time. The listener is called on that thread, in the
+ * order the transactions committed.
+ *
+ * Changes made outside of the data store (e.g., with DBFlow directly) are not part of
+ * a write set, and are not observed.
+ */
+public class LiveQuery <T extends DataModel>
+{
+  public interface OnChanged <T extends DataModel>
+  {
+    void onChanged (Delta <T> delta);
+  }
+
+  /**
+   * @class Delta
+   *
+   * The change to the result of a live query. The initial result of the query is
+   * a delta where all the models are inserted.
+   */
+  public static class Delta <T extends DataModel>
+  {
+    private final boolean isInitial_;
+
+    private final List <T> inserted_;
+
+    private final List <T> updated_;
+
+    private final List <Object> removed_;
+
+    Delta (boolean isInitial, List <T> inserted, List <T> updated, List <Object> removed)
+    {
+      this.isInitial_ = isInitial;
+      this.inserted_ = Collections.unmodifiableList (inserted);
+      this.updated_ = Collections.unmodifiableList (updated);
+      this.removed_ = Collections.unmodifiableList (removed);
+    }
+
+    public boolean isInitial ()
+    {
+      return this.isInitial_;
+    }
+
+    /**
+     * Get the models that were added to the result.
+     */
+    public List <T> getInserted ()
+    {
+      return this.inserted_;
+    }
+
+    /**
+     * Get the models in the result that were written.
+     */
+    public List <T> getUpdated ()
+    {
+      return this.updated_;
+    }
+
+    /**
+     * Get the ids of the models that were removed from the result.
+     */
+    public List <Object> getRemoved ()
+    {
+      return this.removed_;
+    }
+
+    public boolean isEmpty ()
+    {
+      return this.inserted_.isEmpty () && this.updated_.isEmpty () && this.removed_.isEmpty ();
+    }
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger (LiveQuery.class);
+
+  private static final NameAlias _ID = NameAlias.of (DataStore.FIELD_ID);
+
+  private final DataStore store_;
+
+  private final Class <T> dataClass_;
+
+  private final LocalQuery query_;
+
+  private final OnChanged <T> onChanged_;
+
+  private final Field idField_;
+
+  /// Ids of the models in the result, by normalized id.
+  private final LinkedHashMap <Object, Object> ids_ = new LinkedHashMap<> ();
+
+  private boolean isStarted_;
+
+  private volatile boolean isClosed_;
+
+  LiveQuery (DataStore store, Class <T> dataClass, LocalQuery query, OnChanged <T> onChanged)
+      throws NoSuchFieldException
+  {
+    this.store_ = store;
+    this.dataClass_ = dataClass;
+    this.query_ = query;
+    this.onChanged_ = onChanged;
+    this.idField_ = dataClass.getField (DataStore.FIELD_ID);
+  }
+
+  public Class <T> getDataClass ()
+  {
+    return this.dataClass_;
+  }
+
+  /**
+   * Stop observing the query. The listener is not called after the subscription is
+   * closed.
+   */
+  public void close ()
+  {
+    this.isClosed_ = true;
+    this.store_.removeLiveQuery (this);
+  }
+
+  public boolean isClosed ()
+  {
+    return this.isClosed_;
+  }
+
+  /**
+   * Load the initial result of the query. This method, and onWriteSet (), run on the
+   * live query thread of the data store.
+   */
+  void start ()
+  {
+    if (this.isClosed_)
+      return;
+
+    try
+    {
+      List <T> models =
+          this.query_.applyTo (SQLite.select ().from (this.dataClass_))
+                     .queryList ();
+
+      for (T model: models)
+      {
+        model.assignTo (this.store_);
+        this.addId (model);
+      }
+
+      this.isStarted_ = true;
+      this.emit (new Delta<> (true, models, new ArrayList<> (), new ArrayList<> ()));
+    }
+    catch (Exception e)
+    {
+      LOG.error ("Failed to load live query for {}", this.dataClass_.getName (), e);
+    }
+  }
+
+  /**
+   * Apply the write set of a transaction to the result.
+   *
+   * @param written         Models of the data class that were written
+   * @param deleted         Ids of the models of the data class that were deleted
+   */
+  void onWriteSet (Collection <? extends DataModel> written, Collection <?> deleted)
+  {
+    // A write set that arrives before the initial result committed before the query
+    // was loaded, so it is already part of the initial result.
+    if (this.isClosed_ || !this.isStarted_)
+      return;
+
+    try
+    {
+      Delta <T> delta = this.query_.isPaged () ? this.requery (written) : this.applyWriteSet (written, deleted);
+
+      if (!delta.isEmpty ())
+        this.emit (delta);
+    }
+    catch (Exception e)
+    {
+      LOG.error ("Failed to update live query for {}", this.dataClass_.getName (), e);
+    }
+  }
+
+  /**
+   * Compute the delta by checking the written models against the conditions of the
+   * query.
+   */
+  private Delta <T> applyWriteSet (Collection <? extends DataModel> written, Collection <?> deleted)
+  {
+    ArrayList <T> inserted = new ArrayList<> ();
+    ArrayList <T> updated = new ArrayList<> ();
+    ArrayList <Object> removed = new ArrayList<> ();
+
+    // Select the written models that match the conditions of the query.
+    LinkedHashMap <Object, Object> writtenIds = new LinkedHashMap<> ();
+
+    for (DataModel model: written)
+    {
+      Object id = this.getRawId (model);
+      writtenIds.put (DataStore.normalizeId (id), id);
+    }
+
+    HashSet <Object> matches = new HashSet<> ();
+    ArrayList <Object> ids = new ArrayList<> (writtenIds.values ());
+
+    for (int i = 0; i < ids.size (); i += DataStore.MAX_SQL_VARIABLES)
+    {
+      List <Object> chunk = ids.subList (i, Math.min (i + DataStore.MAX_SQL_VARIABLES, ids.size ()));
+
+      List <T> models =
+          this.query_.applyConditionsTo (SQLite.select ().from (this.dataClass_), Operator.op (_ID).in (chunk))
+                     .queryList ();
+
+      for (T model: models)
+      {
+        model.assignTo (this.store_);
+        matches.add (this.getId (model));
+
+        if (this.addId (model))
+          inserted.add (model);
+        else
+          updated.add (model);
+      }
+    }
+
+    // A written model that no longer matches the query is removed.
+    for (Object id: writtenIds.keySet ())
+    {
+      if (!matches.contains (id) && this.ids_.remove (id) != null)
+        removed.add (writtenIds.get (id));
+    }
+
+    for (Object id: deleted)
+    {
+      if (this.ids_.remove (DataStore.normalizeId (id)) != null)
+        removed.add (id);
+    }
+
+    return new Delta<> (false, inserted, updated, removed);
+  }
+
+  /**
+   * Compute the delta by executing the query again. Only the written models in the
+   * new result are updated.
+   */
+  private Delta <T> requery (Collection <? extends DataModel> written)
+  {
+    List <T> models =
+        this.query_.applyTo (SQLite.select ().from (this.dataClass_))
+                   .queryList ();
+
+    HashSet <Object> writtenIds = new HashSet<> ();
+
+    for (DataModel model: written)
+      writtenIds.add (this.getId (model));
+
+    ArrayList <T> inserted = new ArrayList<> ();
+    ArrayList <T> updated = new ArrayList<> ();
+    ArrayList <Object> removed = new ArrayList<> ();
+
+    LinkedHashMap <Object, Object> previous = new LinkedHashMap<> (this.ids_);
+    this.ids_.clear ();
+
+    for (T model: models)
+    {
+      model.assignTo (this.store_);
+      this.addId (model);
+
+      Object id = this.getId (model);
+
+      if (!previous.containsKey (id))
+        inserted.add (model);
+      else if (writtenIds.contains (id))
+        updated.add (model);
+    }
+
+    for (Object id: previous.keySet ())
+    {
+      if (!this.ids_.containsKey (id))
+        removed.add (previous.get (id));
+    }
+
+    return new Delta<> (false, inserted, updated, removed);
+  }
+
+  private void emit (Delta <T> delta)
+  {
+    if (!this.isClosed_)
+      this.onChanged_.onChanged (delta);
+  }
+
+  /**
+   * Add the id of a model to the result.
+   *
+   * @return          True if the model was not in the result
+   */
+  private boolean addId (DataModel model)
+  {
+    Object id = this.getRawId (model);
+    return this.ids_.put (DataStore.normalizeId (id), id) == null;
+  }
+
+  private Object getId (DataModel model)
+  {
+    return DataStore.normalizeId (this.getRawId (model));
+  }
+
+  private Object getRawId (DataModel model)
+  {
+    try
+    {
+      return this.idField_.get (model);
+    }
+    catch (IllegalAccessException e)
+    {
+      // The id field is public.
+      throw new AssertionError (e);
+    }
+  }
+}
@@ -0,0 +1,348 @@
+package com.onehilltech.backbone.data;
+
+import com.raizlabs.android.dbflow.sql.language.From;
+import com.raizlabs.android.dbflow.sql.language.NameAlias;
+import com.raizlabs.android.dbflow.sql.language.Operator;
+import com.raizlabs.android.dbflow.sql.language.OperatorGroup;
+import com.raizlabs.android.dbflow.sql.language.SQLOperator;
+import com.raizlabs.android.dbflow.sql.language.Where;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @class LocalQuery
+ *
+ * Query for the models in the local database. The query is compiled to a single
+ * SELECT statement so the filtering, sorting, and paging are done by SQLite (and can
+ * use the indices of the table) instead of in Java.
+ *
+ *   LocalQuery query = new LocalQuery ()
+ *       .greaterThan ("age", 21)
+ *       .like ("name", "J%")
+ *       .orderBy ("createdAt", false)
+ *       .orderBy ("_id", false)
+ *       .limit (20);
+ *
+ * The conditions are combined with AND. Use after () for keyset pagination, which
+ * continues after the last model of the previous page instead of skipping rows with
+ * an offset.
+ */
+public class LocalQuery
+{
+  private static class Order
+  {
+    private final NameAlias column_;
+
+    private final boolean ascending_;
+
+    Order (String column, boolean ascending)
+    {
+      this.column_ = NameAlias.of (column);
+      this.ascending_ = ascending;
+    }
+  }
+
+  private final ArrayList <SQLOperator> conditions_ = new ArrayList<> ();
+
+  private final ArrayList <Order> orderBy_ = new ArrayList<> ();
+
+  /// Columns with an equality condition, for the index advisor. The columns are kept
+  /// without quotes since the advisor quotes them in the CREATE INDEX statement.
+  private final LinkedHashSet <String> equalityColumns_ = new LinkedHashSet<> ();
+
+  /// Columns with a range condition, for the index advisor.
+  private final LinkedHashSet <String> rangeColumns_ = new LinkedHashSet<> ();
+
+  private List <Object> after_;
+
+  private int limit_ = -1;
+
+  private int offset_ = -1;
+
+  /**
+   * Create a query with an equality condition for each parameter.
+   *
+   * @param params          Map of column name to value
+   * @return                LocalQuery object
+   */
+  public static LocalQuery fromMap (Map <String, Object> params)
+  {
+    LocalQuery query = new LocalQuery ();
+
+    for (Map.Entry <String, Object> param: params.entrySet ())
+      query.eq (param.getKey (), param.getValue ());
+
+    return query;
+  }
+
+  public LocalQuery eq (String column, Object value)
+  {
+    this.equalityColumns_.add (rawName (column));
+    return this.where (op (column).eq (value));
+  }
+
+  public LocalQuery notEq (String column, Object value)
+  {
+    return this.where (op (column).notEq (value));
+  }
+
+  public LocalQuery lessThan (String column, Object value)
+  {
+    this.rangeColumns_.add (rawName (column));
+    return this.where (op (column).lessThan (value));
+  }
+
+  public LocalQuery lessThanOrEq (String column, Object value)
+  {
+    this.rangeColumns_.add (rawName (column));
+    return this.where (op (column).lessThanOrEq (value));
+  }
+
+  public LocalQuery greaterThan (String column, Object value)
+  {
+    this.rangeColumns_.add (rawName (column));
+    return this.where (op (column).greaterThan (value));
+  }
+
+  public LocalQuery greaterThanOrEq (String column, Object value)
+  {
+    this.rangeColumns_.add (rawName (column));
+    return this.where (op (column).greaterThanOrEq (value));
+  }
+
+  /**
+   * Add an inclusive range condition.
+   *
+   * @param column          Name of the column
+   * @param low             Lower bound
+   * @param high            Upper bound
+   */
+  public LocalQuery between (String column, Object low, Object high)
+  {
+    this.rangeColumns_.add (rawName (column));
+    return this.where (op (column).between (low).and (high));
+  }
+
+  public LocalQuery in (String column, Collection <?> values)
+  {
+    this.equalityColumns_.add (rawName (column));
+    return this.where (op (column).in (asObjects (values)));
+  }
+
+  public LocalQuery notIn (String column, Collection <?> values)
+  {
+    return this.where (op (column).notIn (asObjects (values)));
+  }
+
+  /**
+   * Add a LIKE condition. The pattern uses % and _ as wildcards.
+   *
+   * @param column          Name of the column
+   * @param pattern         Pattern to match
+   */
+  public LocalQuery like (String column, String pattern)
+  {
+    this.rangeColumns_.add (rawName (column));
+    return this.where (op (column).like (pattern));
+  }
+
+  public LocalQuery isNull (String column)
+  {
+    this.equalityColumns_.add (rawName (column));
+    return this.where (op (column).isNull ());
+  }
+
+  public LocalQuery isNotNull (String column)
+  {
+    return this.where (op (column).isNotNull ());
+  }
+
+  /**
+   * Add a DBFlow condition to the query.
+   *
+   * @param condition       The condition
+   */
+  public LocalQuery where (SQLOperator condition)
+  {
+    this.conditions_.add (condition);
+    return this;
+  }
+
+  /**
+   * Sort the models by a column. The models are sorted by the columns in the order
+   * they are added to the query.
+   *
+   * @param column          Name of the column
+   * @param ascending       Sort in ascending order
+   */
+  public LocalQuery orderBy (String column, boolean ascending)
+  {
+    this.orderBy_.add (new Order (column, ascending));
+    return this;
+  }
+
+  /**
+   * Continue after the model with the given values for the ORDER BY columns (i.e.,
+   * keyset pagination). There must be one value for each ORDER BY column, and the
+   * last ORDER BY column must be unique (e.g., _id) so there are no ties between
+   * pages.
+   *
+   * @param values          Values of the ORDER BY columns of the last model
+   */
+  public LocalQuery after (Object... values)
+  {
+    this.after_ = Arrays.asList (values);
+    return this;
+  }
+
+  public LocalQuery limit (int limit)
+  {
+    this.limit_ = limit;
+    return this;
+  }
+
+  public LocalQuery offset (int offset)
+  {
+    this.offset_ = offset;
+    return this;
+  }
+
+  /**
+   * Get the columns of the query that can use an index, in the order of the index: the
+   * columns with an equality condition, the first column with a range condition, and
+   * then the ORDER BY columns.
+   *
+   * @return          Names of the columns
+   */
+  List <String> getIndexColumns ()
+  {
+    LinkedHashSet <String> columns = new LinkedHashSet<> (this.equalityColumns_);
+
+    // An index can only be used for the first range condition.
+    for (String column: this.rangeColumns_)
+    {
+      if (columns.add (column))
+        break;
+    }
+
+    // The ORDER BY columns can use the index if there is no range condition, or the
+    // range is on the first ORDER BY column.
+    if (columns.size () == this.equalityColumns_.size () ||
+        (!this.orderBy_.isEmpty () && this.rangeColumns_.contains (this.orderBy_.get (0).column_.nameRaw ())))
+    {
+      for (Order order: this.orderBy_)
+        columns.add (order.column_.nameRaw ());
+    }
+
+    return new ArrayList<> (columns);
+  }
+
+  /**
+   * Test if the query selects a page of the models (i.e., it has a limit, offset, or
+   * keyset).
+   */
+  boolean isPaged ()
+  {
+    return this.limit_ >= 0 || this.offset_ >= 0 || this.after_ != null;
+  }
+
+  /**
+   * Apply only the conditions of the query to a SELECT statement, with an additional
+   * condition. The ORDER BY and paging of the query are ignored.
+   *
+   * @param from            The SELECT statement
+   * @param condition       Additional condition
+   * @return                The statement with the conditions
+   */
+  <T> Where <T> applyConditionsTo (From <T> from, SQLOperator condition)
+  {
+    ArrayList <SQLOperator> conditions = new ArrayList<> (this.conditions_);
+    conditions.add (condition);
+
+    return from.where (conditions.toArray (new SQLOperator[0]));
+  }
+
+  /**
+   * Apply the query to a SELECT statement.
+   *
+   * @param from            The SELECT statement
+   * @return                The statement with the query
+   */
+  <T> Where <T> applyTo (From <T> from)
+  {
+    ArrayList <SQLOperator> conditions = new ArrayList<> (this.conditions_);
+
+    if (this.after_ != null)
+      conditions.add (this.getKeysetCondition ());
+
+    Where <T> where = from.where (conditions.toArray (new SQLOperator[0]));
+
+    for (Order order: this.orderBy_)
+      where = where.orderBy (order.column_, order.ascending_);
+
+    // SQLite does not allow an OFFSET without a LIMIT.
+    if (this.limit_ >= 0 || this.offset_ >= 0)
+      where = where.limit (this.limit_ >= 0 ? this.limit_ : Integer.MAX_VALUE);
+
+    if (this.offset_ >= 0)
+      where = where.offset (this.offset_);
+
+    return where;
+  }
+
+  /**
+   * Get the condition for the rows after the keyset. For ORDER BY a, b, the condition
+   * is (a > ?) OR (a = ? AND b > ?), where > is < for a descending column.
+   */
+  private SQLOperator getKeysetCondition ()
+  {
+    if (this.after_.size () != this.orderBy_.size ())
+      throw new IllegalArgumentException ("after () needs a value for each of the " + this.orderBy_.size () + " ORDER BY columns");
+
+    OperatorGroup keyset = OperatorGroup.clause ();
+
+    for (int i = 0; i < this.orderBy_.size (); ++ i)
+    {
+      OperatorGroup term = OperatorGroup.clause ();
+
+      for (int j = 0; j < i; ++ j)
+        term.and (Operator.op (this.orderBy_.get (j).column_).eq (this.after_.get (j)));
+
+      Order order = this.orderBy_.get (i);
+      Object value = this.after_.get (i);
+
+      term.and (order.ascending_ ?
+                    Operator.op (order.column_).greaterThan (value) :
+                    Operator.op (order.column_).lessThan (value));
+
+      keyset.or (term);
+    }
+
+    return keyset;
+  }
+
+  private static Operator <Object> op (String column)
+  {
+    return Operator.op (NameAlias.of (column));
+  }
+
+  /**
+   * Get the name of a column without quotes (e.g., the key of a property from the
+   * generated _Table class is `column`).
+   */
+  private static String rawName (String column)
+  {
+    return NameAlias.of (column).nameRaw ();
+  }
+
+  @SuppressWarnings ("unchecked")
+  private static Collection <Object> asObjects (Collection <?> values)
+  {
+    return (Collection <Object>)values;
+  }
+}
@@ -0,0 +1,99 @@
+package com.onehilltech.backbone.data;
+
+import com.raizlabs.android.dbflow.structure.database.DatabaseStatement;
+import com.raizlabs.android.dbflow.structure.database.DatabaseWrapper;
+import com.raizlabs.android.dbflow.structure.database.FlowCursor;
+
+/**
+ * @class MetadataTable
+ *
+ * Key-value table the data store uses to keep its own bookkeeping (e.g., sync
+ * watermarks) in the same database as the models. The table is not part of the
+ * application database definition, so it is created on first use.
+ */
+class MetadataTable
+{
+  static final String TABLE_NAME = "_backbone_metadata";
+
+  private volatile boolean isCreated_;
+
+  /**
+   * Get a value from the table.
+   *
+   * @param database        Target database
+   * @param key             Key of the value
+   * @return                The value, or null
+   */
+  String get (DatabaseWrapper database, String key)
+  {
+    this.ensureCreated (database);
+
+    FlowCursor cursor = database.rawQuery ("SELECT value FROM " + TABLE_NAME + " WHERE key = ?", new String[] {key});
+
+    try
+    {
+      return cursor.moveToFirst () ? cursor.getString (0) : null;
+    }
+    finally
+    {
+      cursor.close ();
+    }
+  }
+
+  /**
+   * Put a value into the table.
+   *
+   * @param database        Target database
+   * @param key             Key of the value
+   * @param value           The value
+   */
+  void put (DatabaseWrapper database, String key, String value)
+  {
+    this.ensureCreated (database);
+
+    DatabaseStatement statement = database.compileStatement ("INSERT OR REPLACE INTO " + TABLE_NAME + " (key, value) VALUES (?, ?)");
+
+    try
+    {
+      statement.bindString (1, key);
+      statement.bindString (2, value);
+      statement.execute ();
+    }
+    finally
+    {
+      statement.close ();
+    }
+  }
+
+  /**
+   * Remove a value from the table.
+   *
+   * @param database        Target database
+   * @param key             Key of the value
+   */
+  void remove (DatabaseWrapper database, String key)
+  {
+    this.ensureCreated (database);
+
+    DatabaseStatement statement = database.compileStatement ("DELETE FROM " + TABLE_NAME + " WHERE key = ?");
+
+    try
+    {
+      statement.bindString (1, key);
+      statement.execute ();
+    }
+    finally
+    {
+      statement.close ();
+    }
+  }
+
+  private void ensureCreated (DatabaseWrapper database)
+  {
+    if (this.isCreated_)
+      return;
+
+    database.execSQL ("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (key TEXT PRIMARY KEY, value TEXT)");
+    this.isCreated_ = true;
+  }
+}
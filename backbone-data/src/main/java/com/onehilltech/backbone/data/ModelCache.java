@@ -0,0 +1,195 @@
+package com.onehilltech.backbone.data;
+
+import android.util.LruCache;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @class ModelCache
+ *
+ * Identity map for the models in a data store. The cache maps the (model class, id) of
+ * a model to the single instance of the model loaded by the data store. The least
+ * recently used models are evicted once the cache reaches its maximum size.
+ *
+ * The cache is only kept consistent with the changes made through the data store. If
+ * the database is modified directly, then the cache must be cleared.
+ */
+public class ModelCache
+{
+  private static final String FIELD_ID = "_id";
+
+  private final LruCache <Key, DataModel> cache_;
+
+  private final ConcurrentHashMap <Class <?>, Field> idFields_ = new ConcurrentHashMap<> ();
+
+  /**
+   * Initializing constructor.
+   *
+   * @param maxSize         Maximum number of models in the cache
+   */
+  ModelCache (int maxSize)
+  {
+    this.cache_ = new LruCache<> (maxSize);
+  }
+
+  /**
+   * Get the model from the cache.
+   *
+   * @param dataClass       Data model class
+   * @param id              Id of the model
+   * @return                The model, or null
+   */
+  @SuppressWarnings ("unchecked")
+  <T extends DataModel> T get (Class <T> dataClass, Object id)
+  {
+    return (T)this.cache_.get (new Key (dataClass, id));
+  }
+
+  /**
+   * Add a model to the cache. If the model does not have an id, it is not cached.
+   *
+   * A partial model is not cached. Instead, it evicts the cached model with the same
+   * id since the columns of the model in the database have changed.
+   *
+   * @param model           Model to cache
+   */
+  void put (DataModel model)
+  {
+    Object id = this.getId (model);
+
+    if (id == null)
+      return;
+
+    Key key = new Key (model.getClass (), id);
+
+    if (model.isPartial ())
+      this.cache_.remove (key);
+    else
+      this.cache_.put (key, model);
+  }
+
+  /**
+   * Add a collection of models to the cache.
+   *
+   * @param models          Models to cache
+   */
+  void putAll (Iterable <? extends DataModel> models)
+  {
+    for (DataModel model: models)
+      this.put (model);
+  }
+
+  /**
+   * Remove a model from the cache.
+   *
+   * @param dataClass       Data model class
+   * @param id              Id of the model
+   */
+  void remove (Class <?> dataClass, Object id)
+  {
+    this.cache_.remove (new Key (dataClass, id));
+  }
+
+  /**
+   * Remove all models from the cache.
+   */
+  public void evictAll ()
+  {
+    this.cache_.evictAll ();
+  }
+
+  /**
+   * Get the number of models in the cache.
+   */
+  public int size ()
+  {
+    return this.cache_.size ();
+  }
+
+  /**
+   * Get the maximum number of models in the cache.
+   */
+  public int maxSize ()
+  {
+    return this.cache_.maxSize ();
+  }
+
+  /**
+   * Get the number of times a model was found in the cache.
+   */
+  public int hitCount ()
+  {
+    return this.cache_.hitCount ();
+  }
+
+  /**
+   * Get the number of times a model was not found in the cache.
+   */
+  public int missCount ()
+  {
+    return this.cache_.missCount ();
+  }
+
+  /**
+   * Get the number of models evicted from the cache.
+   */
+  public int evictionCount ()
+  {
+    return this.cache_.evictionCount ();
+  }
+
+  private Object getId (DataModel model)
+  {
+    Class <?> dataClass = model.getClass ();
+    Field idField = this.idFields_.get (dataClass);
+
+    try
+    {
+      if (idField == null)
+      {
+        idField = dataClass.getField (FIELD_ID);
+        this.idFields_.put (dataClass, idField);
+      }
+
+      return idField.get (model);
+    }
+    catch (NoSuchFieldException | IllegalAccessException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * The key for a model in the cache. The id is normalized so a numeric id matches
+   * the model regardless of its boxed type.
+   */
+  private static final class Key
+  {
+    private final Class <?> dataClass_;
+
+    private final Object id_;
+
+    Key (Class <?> dataClass, Object id)
+    {
+      this.dataClass_ = dataClass;
+      this.id_ = DataStore.normalizeId (id);
+    }
+
+    @Override
+    public boolean equals (Object obj)
+    {
+      if (!(obj instanceof Key))
+        return false;
+
+      Key key = (Key)obj;
+      return this.dataClass_.equals (key.dataClass_) && this.id_.equals (key.id_);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return 31 * this.dataClass_.hashCode () + this.id_.hashCode ();
+    }
+  }
+}
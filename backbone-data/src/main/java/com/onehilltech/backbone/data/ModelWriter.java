@@ -0,0 +1,165 @@
+package com.onehilltech.backbone.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.raizlabs.android.dbflow.structure.ModelAdapter;
+import com.raizlabs.android.dbflow.structure.database.DatabaseStatement;
+import com.raizlabs.android.dbflow.structure.database.DatabaseWrapper;
+
+import java.util.ArrayList;
+
+/**
+ * @class ModelWriter
+ *
+ * Upsert models into a single table inside an existing transaction. The writer compiles
+ * the update and insert statement for the table once, and then binds each model to the
+ * compiled statements. Unlike ModelAdapter.save (), the writer does not first query the
+ * table to see if the model exists. Instead, it attempts an update by primary key, and
+ * only inserts the model if no rows were updated.
+ *
+ * We do not use INSERT OR REPLACE because the replace deletes the existing row, which
+ * would cascade to any rows that reference it via a foreign key.
+ *
+ * The rows are not bound in multi-row chunks (i.e., INSERT ... VALUES (...), (...)).
+ * The generated adapters only bind a model starting at the first parameter, and the
+ * update of each row must be executed on its own to know if the row exists. Since the
+ * statements are compiled once, and all the rows are written in the transaction of
+ * the caller, the cost of a row is executing a compiled statement, not parsing the
+ * statement or committing the row.
+ *
+ * A model from a response with a sparse fieldset is written with savePartial (), which
+ * only writes the columns in the projection.
+ */
+class ModelWriter <T>
+{
+  private final ModelAdapter <T> modelAdapter_;
+
+  private final DatabaseWrapper database_;
+
+  private final DatabaseStatement updateStatement_;
+
+  private final DatabaseStatement insertStatement_;
+
+  private final PartialRows partialRows_;
+
+  private int count_;
+
+  /**
+   * Initializing constructor.
+   *
+   * @param modelAdapter        Adapter for the target table
+   * @param database            Database of the current transaction
+   */
+  ModelWriter (ModelAdapter <T> modelAdapter, DatabaseWrapper database)
+  {
+    this (modelAdapter, database, null);
+  }
+
+  /**
+   * Initializing constructor.
+   *
+   * @param modelAdapter        Adapter for the target table
+   * @param database            Database of the current transaction
+   * @param partialRows         Optional partial rows of the data store
+   */
+  ModelWriter (ModelAdapter <T> modelAdapter, DatabaseWrapper database, PartialRows partialRows)
+  {
+    this.modelAdapter_ = modelAdapter;
+    this.database_ = database;
+    this.partialRows_ = partialRows;
+    this.updateStatement_ = modelAdapter.getUpdateStatement (database);
+    this.insertStatement_ = modelAdapter.getInsertStatement (database);
+  }
+
+  /**
+   * Save a single model to the table.
+   *
+   * @param model         Model to save
+   */
+  void save (T model)
+  {
+    this.modelAdapter_.saveForeignKeys (model, this.database_);
+
+    this.modelAdapter_.bindToUpdateStatement (this.updateStatement_, model);
+    long updated = this.updateStatement_.executeUpdateDelete ();
+
+    if (updated == 0)
+    {
+      this.modelAdapter_.bindToInsertStatement (this.insertStatement_, model);
+      long id = this.insertStatement_.executeInsert ();
+
+      if (id > -1)
+        this.modelAdapter_.updateAutoIncrement (model, id);
+    }
+
+    // The full model replaces the columns of a partial row.
+    if (this.partialRows_ != null)
+      this.partialRows_.remove (this.database_, this.modelAdapter_, model);
+
+    ++ this.count_;
+  }
+
+  /**
+   * Save the columns of a partial model. The other columns of an existing row are not
+   * changed. If the row does not exist, it is inserted and marked as partial.
+   *
+   * @param model         Partial model to save
+   * @param projection    Columns of the model to save
+   */
+  void savePartial (T model, Projection projection)
+  {
+    ContentValues values = new ContentValues ();
+    this.modelAdapter_.bindToInsertValues (values, model);
+
+    for (String column: new ArrayList<> (values.keySet ()))
+    {
+      if (!projection.includesColumn (column))
+        values.remove (column);
+    }
+
+    String tableName = this.modelAdapter_.getTableName ();
+    String where = this.modelAdapter_.getPrimaryConditionClause (model).getQuery ();
+    long updated = this.database_.updateWithOnConflict (tableName, values, where, null, SQLiteDatabase.CONFLICT_ABORT);
+
+    if (updated == 0)
+    {
+      this.database_.insertWithOnConflict (tableName, null, values, SQLiteDatabase.CONFLICT_ABORT);
+
+      if (this.partialRows_ != null)
+        this.partialRows_.add (this.database_, this.modelAdapter_, model);
+    }
+
+    ++ this.count_;
+  }
+
+  /**
+   * Save a collection of models to the table.
+   *
+   * @param models        Models to save
+   */
+  void saveAll (Iterable <? extends T> models)
+  {
+    for (T model: models)
+      this.save (model);
+  }
+
+  /**
+   * Get the number of models saved by this writer.
+   *
+   * @return          Number of models
+   */
+  int getCount ()
+  {
+    return this.count_;
+  }
+
+  /**
+   * Release the compiled statements.
+   */
+  void close ()
+  {
+    this.updateStatement_.close ();
+    this.insertStatement_.close ();
+  }
+}
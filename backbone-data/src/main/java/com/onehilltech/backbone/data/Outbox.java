@@ -0,0 +1,753 @@
+package com.onehilltech.backbone.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.onehilltech.promises.Promise;
+import com.raizlabs.android.dbflow.config.DatabaseDefinition;
+import com.raizlabs.android.dbflow.config.FlowManager;
+import com.raizlabs.android.dbflow.structure.database.DatabaseStatement;
+import com.raizlabs.android.dbflow.structure.database.DatabaseWrapper;
+import com.raizlabs.android.dbflow.structure.database.FlowCursor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.onehilltech.promises.Promise.rejected;
+import static com.onehilltech.promises.Promise.resolved;
+import static com.onehilltech.promises.Promise.value;
+
+/**
+ * @class Outbox
+ *
+ * Durable queue of the mutations that have not been sent to the server. A mutation is
+ * applied to the local database right away, and recorded in the outbox. The outbox
+ * then replays the mutations in the background, in the order they were made.
+ *
+ * Multiple mutations to the same model are coalesced while they wait in the outbox.
+ * For example, several updates become a single update with the latest value, and a
+ * delete of a model that was never sent to the server removes the create. A mutation
+ * that is being sent is never coalesced.
+ *
+ * Consecutive updates, or deletes, of the same data class are sent in a single bulk
+ * request (see DataStore.updateMany () and DataStore.deleteMany ()). Each create is
+ * sent on its own since the server may assign the model a different id.
+ *
+ * If a mutation fails because the server cannot be reached, or the server fails, the
+ * outbox retries with an exponential backoff, and immediately when connectivity returns.
+ * The mutation is only dropped if the server rejects it with a 4xx status code other
+ * than 401 (Unauthorized), 408 (Request Timeout), or 429 (Too Many Requests). If the
+ * server rejects a bulk request, its mutations are sent one at a time so only the
+ * rejected mutations are dropped.
+ *
+ * The outbox reads its table on a background thread, and only listens for changes in
+ * connectivity while it is waiting to retry. Close the outbox (see DataStore.close ())
+ * to stop the thread, and the connectivity receiver.
+ *
+ * Models created through the outbox must have a client-assigned id. If the server
+ * assigns a different id, the local model is replaced by the model from the server.
+ */
+public class Outbox
+{
+  static final String TABLE_NAME = "_backbone_outbox";
+
+  private static final String OP_CREATE = "create";
+
+  private static final String OP_UPDATE = "update";
+
+  private static final String OP_DELETE = "delete";
+
+  private static final String FIELD_ID = "_id";
+
+  private static final long MIN_BACKOFF = 1000;
+
+  private static final long MAX_BACKOFF = 5 * 60 * 1000;
+
+  private static final int HTTP_BAD_REQUEST = 400;
+
+  private static final int HTTP_UNAUTHORIZED = 401;
+
+  private static final int HTTP_REQUEST_TIMEOUT = 408;
+
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  private static final int HTTP_SERVER_ERROR = 500;
+
+  private static final Logger LOG = LoggerFactory.getLogger (Outbox.class);
+
+  /**
+   * Listener for the completion of a replay batch. This is a hook for the tests.
+   */
+  interface OnBatchCompleteListener
+  {
+    /**
+     * The batch completed.
+     *
+     * @param reason        The reason the batch failed, or null
+     */
+    void onBatchComplete (Throwable reason);
+  }
+
+  /**
+   * A mutation in the outbox.
+   */
+  private static class Entry
+  {
+    private final long seq_;
+
+    private final String type_;
+
+    private final String op_;
+
+    private final String body_;
+
+    Entry (long seq, String type, String op, String body)
+    {
+      this.seq_ = seq;
+      this.type_ = type;
+      this.op_ = op;
+      this.body_ = body;
+    }
+  }
+
+  private final DataStore store_;
+
+  private final DatabaseDefinition database_;
+
+  private final int batchSize_;
+
+  /// Thread that replays the outbox.
+  private final HandlerThread thread_;
+
+  /// Handler of the thread that replays the outbox.
+  private final Handler handler_;
+
+  /// The entries that are being sent to the server.
+  private final HashSet <Long> inFlight_ = new HashSet<> ();
+
+  private final Runnable replayRunnable_ = this::replayBatch;
+
+  private boolean isCreated_;
+
+  private boolean isReplaying_;
+
+  private boolean isReceiverRegistered_;
+
+  /// A replay was requested while the outbox was replaying.
+  private boolean isReplayRequested_;
+
+  /// A replay is scheduled after the backoff of a failed batch.
+  private boolean isRetryPending_;
+
+  private boolean isClosed_;
+
+  private long backoff_ = MIN_BACKOFF;
+
+  private OnBatchCompleteListener onBatchCompleteListener_;
+
+  private final BroadcastReceiver connectivityReceiver_ = new BroadcastReceiver ()
+  {
+    @Override
+    public void onReceive (Context context, Intent intent)
+    {
+      if (intent.getBooleanExtra (ConnectivityManager.EXTRA_NO_CONNECTIVITY, false))
+        return;
+
+      // Connectivity has returned. There is no need to wait for the backoff.
+      synchronized (Outbox.this)
+      {
+        backoff_ = MIN_BACKOFF;
+        isRetryPending_ = false;
+      }
+
+      handler_.removeCallbacks (replayRunnable_);
+      handler_.post (replayRunnable_);
+    }
+  };
+
+  Outbox (DataStore store, DatabaseDefinition database, int batchSize)
+  {
+    this.store_ = store;
+    this.database_ = database;
+    this.batchSize_ = batchSize;
+
+    this.thread_ = new HandlerThread ("backbone-outbox");
+    this.thread_.start ();
+
+    this.handler_ = new Handler (this.thread_.getLooper ());
+
+    // Replay the mutations left over from the last session.
+    this.handler_.post (this.replayRunnable_);
+  }
+
+  /**
+   * Create a model. The model is pushed onto the local database, and created on the
+   * server in the background.
+   *
+   * @param dataClass           Data class
+   * @param model               New model
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <T> create (Class <T> dataClass, T model)
+  {
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    // Check the model can be added to the outbox before it is pushed
+                    // so it is not left in the local database.
+                    getModelId (dataClass, model);
+                    return this.store_.push (dataClass, model);
+                  })
+                  .then (pushed -> {
+                    this.enqueue (dataClass, OP_CREATE, pushed);
+                    return value (pushed);
+                  });
+  }
+
+  /**
+   * Update a model. The model is pushed onto the local database, and updated on the
+   * server in the background.
+   *
+   * @param dataClass           Data class
+   * @param model               Updated model
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <T> update (Class <T> dataClass, T model)
+  {
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    getModelId (dataClass, model);
+                    return this.store_.push (dataClass, model);
+                  })
+                  .then (pushed -> {
+                    this.enqueue (dataClass, OP_UPDATE, pushed);
+                    return value (pushed);
+                  });
+  }
+
+  /**
+   * Delete a model. The model is removed from the local database, and deleted on the
+   * server in the background.
+   *
+   * @param dataClass           Data class
+   * @param model               Model to delete
+   * @return                    Promise object
+   */
+  public <T extends DataModel> Promise <Boolean> delete (Class <T> dataClass, T model)
+  {
+    return Promise.resolve (null)
+                  .then (nothing -> {
+                    // Record the mutation first since removing the model detaches it
+                    // from the data store.
+                    this.enqueue (dataClass, OP_DELETE, model);
+                    return this.store_.remove (dataClass, model);
+                  });
+  }
+
+  /**
+   * Get the number of mutations waiting to be sent to the server.
+   */
+  public synchronized int getPendingCount ()
+  {
+    DatabaseWrapper database = this.getDatabase ();
+    FlowCursor cursor = database.rawQuery ("SELECT COUNT(*) FROM " + TABLE_NAME, null);
+
+    try
+    {
+      return cursor.moveToFirst () ? cursor.getInt (0) : 0;
+    }
+    finally
+    {
+      cursor.close ();
+    }
+  }
+
+  /**
+   * Send the pending mutations to the server in the background. Only one replay runs
+   * at a time. If a replay is already running, the mutations that are not part of it
+   * are sent after it completes.
+   */
+  public void replay ()
+  {
+    this.handler_.post (this.replayRunnable_);
+  }
+
+  /**
+   * Stop replaying the outbox. The pending mutations stay in the outbox, and are sent
+   * by the next outbox for the database. A replay that is already sending mutations
+   * is not cancelled, but the outbox does not send another batch.
+   */
+  public void close ()
+  {
+    synchronized (this)
+    {
+      if (this.isClosed_)
+        return;
+
+      this.isClosed_ = true;
+      this.unregisterReceiver ();
+    }
+
+    this.handler_.removeCallbacksAndMessages (null);
+
+    // The outbox supports API 15, which does not have quitSafely ().
+    this.thread_.quit ();
+  }
+
+  void setOnBatchCompleteListener (OnBatchCompleteListener listener)
+  {
+    this.onBatchCompleteListener_ = listener;
+  }
+
+  /**
+   * Send the next batch of mutations to the server. This method runs on the thread of
+   * the outbox.
+   */
+  private void replayBatch ()
+  {
+    List <Entry> entries;
+
+    synchronized (this)
+    {
+      if (this.isClosed_)
+        return;
+
+      if (this.isReplaying_)
+      {
+        this.isReplayRequested_ = true;
+        return;
+      }
+
+      this.isRetryPending_ = false;
+      this.isReplayRequested_ = false;
+
+      entries = this.nextBatch ();
+
+      if (entries.isEmpty ())
+        return;
+
+      this.isReplaying_ = true;
+
+      for (Entry entry: entries)
+        this.inFlight_.add (entry.seq_);
+    }
+
+    // Send the mutations in order, and stop at the first failure so that a
+    // mutation is never sent before one it depends on.
+    Promise <Boolean> chain = Promise.resolve (true);
+
+    for (List <Entry> run: getRuns (entries))
+      chain = chain.then (nothing -> this.sendRun (run));
+
+    chain.then (resolved (nothing -> this.onBatchComplete (entries, null)))
+         ._catch (rejected (reason -> this.onBatchComplete (entries, reason)));
+  }
+
+  private void onBatchComplete (List <Entry> entries, Throwable reason)
+  {
+    synchronized (this)
+    {
+      for (Entry entry: entries)
+        this.inFlight_.remove (entry.seq_);
+
+      this.isReplaying_ = false;
+
+      if (this.isClosed_)
+      {
+        LOG.info ("Outbox closed while replaying");
+      }
+      else if (reason == null)
+      {
+        this.backoff_ = MIN_BACKOFF;
+        this.unregisterReceiver ();
+
+        // There may be more mutations waiting in the outbox.
+        if (entries.size () == this.batchSize_ || this.isReplayRequested_)
+          this.handler_.post (this.replayRunnable_);
+      }
+      else
+      {
+        LOG.warn ("Failed to replay outbox; retrying in {} ms", this.backoff_, reason);
+
+        // Retry right away if the failure was due to a loss of connectivity.
+        this.registerReceiver ();
+
+        this.handler_.removeCallbacks (this.replayRunnable_);
+        this.handler_.postDelayed (this.replayRunnable_, this.backoff_);
+
+        this.isRetryPending_ = true;
+        this.backoff_ = Math.min (this.backoff_ * 2, MAX_BACKOFF);
+      }
+    }
+
+    OnBatchCompleteListener listener = this.onBatchCompleteListener_;
+
+    if (listener != null)
+      listener.onBatchComplete (reason);
+  }
+
+  private synchronized void registerReceiver ()
+  {
+    if (this.isReceiverRegistered_)
+      return;
+
+    FlowManager.getContext ()
+               .registerReceiver (this.connectivityReceiver_, new IntentFilter (ConnectivityManager.CONNECTIVITY_ACTION));
+
+    this.isReceiverRegistered_ = true;
+  }
+
+  private synchronized void unregisterReceiver ()
+  {
+    if (!this.isReceiverRegistered_)
+      return;
+
+    FlowManager.getContext ().unregisterReceiver (this.connectivityReceiver_);
+    this.isReceiverRegistered_ = false;
+  }
+
+  /**
+   * Split a batch into runs of consecutive updates, or deletes, of the same data class.
+   * Each create is a run of its own.
+   */
+  private static List <List <Entry>> getRuns (List <Entry> entries)
+  {
+    ArrayList <List <Entry>> runs = new ArrayList<> ();
+    List <Entry> run = null;
+
+    for (Entry entry: entries)
+    {
+      if (run != null && !OP_CREATE.equals (entry.op_) && run.get (0).op_.equals (entry.op_) && run.get (0).type_.equals (entry.type_))
+      {
+        run.add (entry);
+        continue;
+      }
+
+      run = new ArrayList<> ();
+      run.add (entry);
+      runs.add (run);
+    }
+
+    return runs;
+  }
+
+  /**
+   * Send a run of entries to the server in a single bulk request. If the server rejects
+   * the request, the entries are sent one at a time.
+   */
+  private Promise <Boolean> sendRun (List <Entry> run)
+  {
+    Class <? extends DataModel> dataClass = getDataClass (run.get (0).type_);
+
+    if (run.size () == 1 || dataClass == null)
+      return this.sendEach (run);
+
+    return new Promise<> (settlement ->
+      this.executeMany (dataClass, run)
+          .then (resolved (result -> this.handler_.post (() -> {
+            for (Entry entry: run)
+              this.removeEntry (entry.seq_);
+
+            settlement.resolve (true);
+          })))
+          ._catch (rejected (reason -> {
+            if (!isRejected (reason))
+            {
+              settlement.reject (reason);
+              return;
+            }
+
+            // A single mutation can cause the server to reject the whole request.
+            LOG.warn ("Server rejected bulk {} of {}; sending the mutations one at a time", run.get (0).op_, run.get (0).type_, reason);
+
+            this.sendEach (run)
+                .then (resolved (result -> settlement.resolve (result)))
+                ._catch (rejected (failure -> settlement.reject (failure)));
+          })));
+  }
+
+  private Promise <Boolean> sendEach (List <Entry> entries)
+  {
+    Promise <Boolean> chain = Promise.resolve (true);
+
+    for (Entry entry: entries)
+      chain = chain.then (nothing -> this.send (entry));
+
+    return chain;
+  }
+
+  /**
+   * Send a single entry to the server. The entry is removed from the outbox if the
+   * server accepts, or permanently rejects, the mutation.
+   */
+  private Promise <Boolean> send (Entry entry)
+  {
+    return new Promise<> (settlement ->
+      this.execute (entry)
+          .then (resolved (result -> this.handler_.post (() -> {
+            this.removeEntry (entry.seq_);
+            settlement.resolve (true);
+          })))
+          ._catch (rejected (reason -> {
+            if (!isRejected (reason))
+            {
+              settlement.reject (reason);
+              return;
+            }
+
+            LOG.error ("Server rejected {} of {}; dropping mutation", entry.op_, entry.type_, reason);
+
+            this.handler_.post (() -> {
+              this.removeEntry (entry.seq_);
+              settlement.resolve (false);
+            });
+          })));
+  }
+
+  /**
+   * Test if the server permanently rejected a mutation. The server errors, and the
+   * client errors that can succeed on retry (e.g., an expired token), are not
+   * permanent.
+   */
+  private static boolean isRejected (Throwable reason)
+  {
+    if (!(reason instanceof HttpError))
+      return false;
+
+    int statusCode = ((HttpError)reason).getStatusCode ();
+
+    return statusCode >= HTTP_BAD_REQUEST &&
+           statusCode < HTTP_SERVER_ERROR &&
+           statusCode != HTTP_UNAUTHORIZED &&
+           statusCode != HTTP_REQUEST_TIMEOUT &&
+           statusCode != HTTP_TOO_MANY_REQUESTS;
+  }
+
+  @SuppressWarnings ("unchecked")
+  private static Class <? extends DataModel> getDataClass (String type)
+  {
+    try
+    {
+      return (Class <? extends DataModel>)Class.forName (type);
+    }
+    catch (ClassNotFoundException e)
+    {
+      return null;
+    }
+  }
+
+  private Promise <?> execute (Entry entry)
+  {
+    Class <? extends DataModel> dataClass = getDataClass (entry.type_);
+
+    if (dataClass != null)
+      return this.execute (dataClass, entry);
+
+    // The mutation can never be sent.
+    LOG.error ("Unknown data class {}; dropping mutation", entry.type_);
+    return Promise.resolve (false);
+  }
+
+  private <T extends DataModel> Promise <?> execute (Class <T> dataClass, Entry entry)
+  {
+    T model = this.store_.getGson ().fromJson (entry.body_, dataClass);
+
+    switch (entry.op_)
+    {
+      case OP_CREATE:
+        return this.store_.create (dataClass, model)
+                          .then (created -> {
+                            Object localId = dataClass.getField (FIELD_ID).get (model);
+                            Object remoteId = dataClass.getField (FIELD_ID).get (created);
+
+                            // The server assigned a different id. Remove the local model
+                            // so it is not duplicated.
+                            if (localId != null && !DataStore.normalizeId (localId).equals (DataStore.normalizeId (remoteId)))
+                              return this.store_.remove (dataClass, model);
+
+                            return value (true);
+                          });
+
+      case OP_UPDATE:
+        return this.store_.update (dataClass, model);
+
+      case OP_DELETE:
+        return this.store_.delete (dataClass, model);
+
+      default:
+        throw new IllegalStateException ("Unknown outbox operation " + entry.op_);
+    }
+  }
+
+  private <T extends DataModel> Promise <?> executeMany (Class <T> dataClass, List <Entry> run)
+  {
+    ArrayList <T> models = new ArrayList<> (run.size ());
+
+    for (Entry entry: run)
+      models.add (this.store_.getGson ().fromJson (entry.body_, dataClass));
+
+    if (OP_UPDATE.equals (run.get (0).op_))
+      return this.store_.updateMany (dataClass, models);
+    else
+      return this.store_.deleteMany (dataClass, models);
+  }
+
+  /**
+   * Add a mutation to the outbox, coalescing it with the pending mutation for the
+   * same model.
+   */
+  private <T extends DataModel> void enqueue (Class <T> dataClass, String op, T model)
+      throws NoSuchFieldException, IllegalAccessException
+  {
+    String modelId = getModelId (dataClass, model);
+    String body = this.store_.getGson ().toJson (model, dataClass);
+
+    synchronized (this)
+    {
+      DatabaseWrapper database = this.getDatabase ();
+
+      database.beginTransaction ();
+
+      try
+      {
+        this.coalesce (database, dataClass.getName (), modelId, op, body);
+        database.setTransactionSuccessful ();
+      }
+      finally
+      {
+        database.endTransaction ();
+      }
+
+      // The mutation waits for the retry so a new mutation does not defeat the
+      // backoff while the server cannot be reached.
+      if (this.isRetryPending_)
+        return;
+    }
+
+    this.handler_.post (this.replayRunnable_);
+  }
+
+  /**
+   * Get the id of a model in the outbox.
+   *
+   * @throws IllegalArgumentException     The model does not have an id
+   */
+  private static String getModelId (Class <?> dataClass, DataModel model)
+      throws NoSuchFieldException, IllegalAccessException
+  {
+    Object id = dataClass.getField (FIELD_ID).get (model);
+
+    if (id == null)
+      throw new IllegalArgumentException ("The model must have an id to be added to the outbox");
+
+    return DataStore.normalizeId (id).toString ();
+  }
+
+  private void coalesce (DatabaseWrapper database, String type, String modelId, String op, String body)
+  {
+    long seq = -1;
+    String pendingOp = null;
+
+    FlowCursor cursor =
+        database.rawQuery ("SELECT seq, op FROM " + TABLE_NAME + " WHERE type = ? AND model_id = ? ORDER BY seq DESC LIMIT 1",
+                           new String[] {type, modelId});
+
+    try
+    {
+      if (cursor.moveToFirst ())
+      {
+        seq = cursor.getLong (0);
+        pendingOp = cursor.getString (1);
+      }
+    }
+    finally
+    {
+      cursor.close ();
+    }
+
+    if (pendingOp != null && !this.inFlight_.contains (seq))
+    {
+      if (OP_DELETE.equals (op) && OP_CREATE.equals (pendingOp))
+      {
+        // The model was never sent to the server.
+        this.executeSql (database, "DELETE FROM " + TABLE_NAME + " WHERE seq = ?", Long.toString (seq));
+        return;
+      }
+
+      if (!OP_DELETE.equals (pendingOp))
+      {
+        // An update of a pending create is still a create.
+        String newOp = OP_UPDATE.equals (op) ? pendingOp : op;
+
+        this.executeSql (database, "UPDATE " + TABLE_NAME + " SET op = ?, body = ? WHERE seq = ?", newOp, body, Long.toString (seq));
+        return;
+      }
+    }
+
+    this.executeSql (database, "INSERT INTO " + TABLE_NAME + " (type, model_id, op, body) VALUES (?, ?, ?, ?)", type, modelId, op, body);
+  }
+
+  private List <Entry> nextBatch ()
+  {
+    ArrayList <Entry> entries = new ArrayList<> ();
+
+    FlowCursor cursor =
+        this.getDatabase ().rawQuery ("SELECT seq, type, op, body FROM " + TABLE_NAME + " ORDER BY seq LIMIT " + this.batchSize_, null);
+
+    try
+    {
+      while (cursor.moveToNext ())
+        entries.add (new Entry (cursor.getLong (0), cursor.getString (1), cursor.getString (2), cursor.getString (3)));
+    }
+    finally
+    {
+      cursor.close ();
+    }
+
+    return entries;
+  }
+
+  private synchronized void removeEntry (long seq)
+  {
+    this.executeSql (this.getDatabase (), "DELETE FROM " + TABLE_NAME + " WHERE seq = ?", Long.toString (seq));
+  }
+
+  private void executeSql (DatabaseWrapper database, String sql, String... args)
+  {
+    DatabaseStatement statement = database.compileStatement (sql);
+
+    try
+    {
+      for (int i = 0; i < args.length; ++ i)
+        statement.bindString (i + 1, args[i]);
+
+      statement.execute ();
+    }
+    finally
+    {
+      statement.close ();
+    }
+  }
+
+  private DatabaseWrapper getDatabase ()
+  {
+    DatabaseWrapper database = this.database_.getWritableDatabase ();
+
+    if (!this.isCreated_)
+    {
+      database.execSQL ("CREATE TABLE IF NOT EXISTS " + TABLE_NAME +
+                        " (seq INTEGER PRIMARY KEY AUTOINCREMENT, type TEXT NOT NULL, model_id TEXT NOT NULL, op TEXT NOT NULL, body TEXT)");
+      this.isCreated_ = true;
+    }
+
+    return database;
+  }
+}
@@ -0,0 +1,277 @@
+package com.onehilltech.backbone.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.onehilltech.promises.Promise;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import static com.onehilltech.promises.Promise.value;
+
+/**
+ * @class Pager
+ *
+ * Iterate over the pages of a remote query. Each page is inserted into the local
+ * database when it is received. While the client consumes the current page, the pager
+ * prefetches the following pages in the background.
+ *
+ * The pager supports three modes:
+ *
+ *   OFFSET  - Each page is requested with a limit and an offset. Since the parameters
+ *             for a page are known ahead of time, the prefetched pages are requested
+ *             in parallel.
+ *   KEYSET  - Each page is requested with a limit, and the _id of the last model in
+ *             the previous page. Since ObjectId values are time-ordered, the server is
+ *             expected to sort the results by _id.
+ *   CURSOR  - Each page is requested with the cursor returned in the meta element of
+ *             the previous page.
+ *
+ * The KEYSET and CURSOR modes depend on the previous page, so the prefetched pages are
+ * requested one after the other.
+ */
+public class Pager <T extends DataModel>
+{
+  public enum Mode
+  {
+    OFFSET,
+    KEYSET,
+    CURSOR
+  }
+
+  /**
+   * Options for the pager.
+   */
+  public static class Options
+  {
+    private Mode mode_ = Mode.OFFSET;
+
+    private int pageSize_ = 50;
+
+    private int prefetchDepth_ = 1;
+
+    private String limitParameter_ = "limit";
+
+    private String offsetParameter_ = "offset";
+
+    private String keysetParameter_ = "after";
+
+    private String cursorParameter_ = "cursor";
+
+    public Options setMode (Mode mode)
+    {
+      this.mode_ = mode;
+      return this;
+    }
+
+    public Options setPageSize (int pageSize)
+    {
+      this.pageSize_ = pageSize;
+      return this;
+    }
+
+    /**
+     * Set the number of pages to request ahead of the current page.
+     *
+     * @param prefetchDepth       Number of pages
+     */
+    public Options setPrefetchDepth (int prefetchDepth)
+    {
+      this.prefetchDepth_ = prefetchDepth;
+      return this;
+    }
+
+    public Options setLimitParameter (String limitParameter)
+    {
+      this.limitParameter_ = limitParameter;
+      return this;
+    }
+
+    public Options setOffsetParameter (String offsetParameter)
+    {
+      this.offsetParameter_ = offsetParameter;
+      return this;
+    }
+
+    public Options setKeysetParameter (String keysetParameter)
+    {
+      this.keysetParameter_ = keysetParameter;
+      return this;
+    }
+
+    /**
+     * Set the name of the cursor. The same name is used for the query parameter in
+     * the request, and the field in the meta element of the response.
+     *
+     * @param cursorParameter     Name of the cursor
+     */
+    public Options setCursorParameter (String cursorParameter)
+    {
+      this.cursorParameter_ = cursorParameter;
+      return this;
+    }
+  }
+
+  /// Name of the resource element that contains paging information.
+  static final String META = "meta";
+
+  private static class Page <T extends DataModel>
+  {
+    private final DataModelList <T> models_;
+
+    /// Parameter for the next page, or null if this is the last page.
+    private final Object next_;
+
+    Page (DataModelList <T> models, Object next)
+    {
+      this.models_ = models;
+      this.next_ = next;
+    }
+  }
+
+  private final DataStore store_;
+
+  private final Class <T> dataClass_;
+
+  private final Map <String, Object> query_;
+
+  private final Options options_;
+
+  private final Field idField_;
+
+  /// The pages that have been requested, but not consumed.
+  private final LinkedList <Promise <Page <T>>> pages_ = new LinkedList<> ();
+
+  /// The last page requested.
+  private Promise <Page <T>> tail_;
+
+  /// Number of pages requested.
+  private int pageCount_;
+
+  /// The last page has been received.
+  private volatile boolean isDone_;
+
+  Pager (DataStore store, Class <T> dataClass, Map <String, Object> query, Options options)
+      throws NoSuchFieldException
+  {
+    this.store_ = store;
+    this.dataClass_ = dataClass;
+    this.query_ = query;
+    this.options_ = options;
+    this.idField_ = dataClass.getField ("_id");
+  }
+
+  /**
+   * Get the next page of models. Once all pages have been consumed, the Promise is
+   * resolved with an empty list.
+   *
+   * @return          Promise object
+   */
+  public synchronized Promise <DataModelList <T>> next ()
+  {
+    this.prefetch ();
+
+    // The pages left in the queue are the prefetched pages.
+    Promise <Page <T>> page = this.pages_.removeFirst ();
+    return page.then (p -> value (p.models_));
+  }
+
+  /**
+   * Fill the queue with the next page, and the pages to prefetch after it.
+   */
+  private void prefetch ()
+  {
+    while (this.pages_.size () <= this.options_.prefetchDepth_)
+    {
+      Promise <Page <T>> page;
+
+      if (this.isDone_)
+      {
+        page = Promise.resolve (new Page<> (new DataModelList<> (), null));
+      }
+      else if (this.options_.mode_ == Mode.OFFSET)
+      {
+        page = this.requestPage (this.pageCount_ * this.options_.pageSize_);
+      }
+      else if (this.tail_ == null)
+      {
+        page = this.requestPage (null);
+      }
+      else
+      {
+        page = this.tail_.then (prev -> prev.next_ != null ?
+            this.requestPage (prev.next_) :
+            value (new Page<> (new DataModelList<> (), null)));
+      }
+
+      this.pages_.add (page);
+      this.tail_ = page;
+
+      ++ this.pageCount_;
+    }
+  }
+
+  private Promise <Page <T>> requestPage (Object param)
+  {
+    HashMap <String, Object> query = new HashMap<> (this.query_);
+    query.put (this.options_.limitParameter_, this.options_.pageSize_);
+
+    switch (this.options_.mode_)
+    {
+      case OFFSET:
+        query.put (this.options_.offsetParameter_, param);
+        break;
+
+      case KEYSET:
+        if (param != null)
+          query.put (this.options_.keysetParameter_, param);
+        break;
+
+      case CURSOR:
+        if (param != null)
+          query.put (this.options_.cursorParameter_, param);
+        break;
+    }
+
+    return this.store_.queryResource (this.dataClass_, query)
+                      .then (r -> {
+                        DataModelList <T> models = this.store_.getModelList (r, this.dataClass_);
+                        Object next = this.getNext (r, models, param);
+
+                        if (next == null)
+                          this.isDone_ = true;
+
+                        return value (new Page<> (models, next));
+                      });
+  }
+
+  /**
+   * Get the parameter for the page after the page in the resource.
+   */
+  private Object getNext (Resource r, DataModelList <T> models, Object param)
+      throws IllegalAccessException
+  {
+    switch (this.options_.mode_)
+    {
+      case OFFSET:
+        return models.size () < this.options_.pageSize_ ? null : (Integer)param + this.options_.pageSize_;
+
+      case KEYSET:
+        return models.size () < this.options_.pageSize_ ? null : this.idField_.get (models.get (models.size () - 1));
+
+      case CURSOR:
+        JsonObject meta = r.get (META);
+
+        if (meta == null)
+          return null;
+
+        JsonElement cursor = meta.get (this.options_.cursorParameter_);
+        return cursor != null && !cursor.isJsonNull () ? cursor.getAsString () : null;
+
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package com.onehilltech.backbone.data;
+
+import com.raizlabs.android.dbflow.structure.ModelAdapter;
+import com.raizlabs.android.dbflow.structure.database.DatabaseStatement;
+import com.raizlabs.android.dbflow.structure.database.DatabaseWrapper;
+import com.raizlabs.android.dbflow.structure.database.FlowCursor;
+import com.raizlabs.android.dbflow.structure.database.transaction.ITransaction;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @class PartialRows
+ *
+ * The rows the data store inserted from a response with a sparse fieldset. The other
+ * columns of these rows have their default value, so a model loaded from the row is
+ * a partial model. A row is no longer partial once the full model is written to it.
+ *
+ * The rows are kept in a table in the same database as the models so they survive
+ * a restart. We also keep the rows in memory since the data store checks each model
+ * it loads, and most tables never have a partial row.
+ *
+ * A transaction of the data store may roll back after it marks a row. The rows marked
+ * by a transaction are therefore kept with the transaction (see track ()), and only
+ * applied to the rows in memory once the transaction commits.
+ */
+class PartialRows
+{
+  static final String TABLE_NAME = "_backbone_partial";
+
+  /**
+   * @class Changes
+   *
+   * The rows a transaction marked as partial, or complete.
+   */
+  static class Changes
+  {
+    /// Map of table name to the rows marked partial (true), or complete (false).
+    private final HashMap <String, LinkedHashMap <String, Boolean>> tables_ = new HashMap<> ();
+
+    private Boolean get (String tableName, String key)
+    {
+      LinkedHashMap <String, Boolean> rows = this.tables_.get (tableName);
+      return rows != null ? rows.get (key) : null;
+    }
+
+    private boolean hasAny (String tableName)
+    {
+      LinkedHashMap <String, Boolean> rows = this.tables_.get (tableName);
+      return rows != null && rows.containsValue (true);
+    }
+
+    private void put (String tableName, String key, boolean isPartial)
+    {
+      LinkedHashMap <String, Boolean> rows = this.tables_.get (tableName);
+
+      if (rows == null)
+      {
+        rows = new LinkedHashMap<> ();
+        this.tables_.put (tableName, rows);
+      }
+
+      rows.put (key, isPartial);
+    }
+  }
+
+  /// Map of table name to the primary key conditions of its committed partial rows.
+  private HashMap <String, HashSet <String>> rows_;
+
+  /// Changes of the transaction running on the current thread.
+  private final ThreadLocal <Changes> current_ = new ThreadLocal<> ();
+
+  /**
+   * Execute the work of a transaction. The rows the work marks are recorded in the
+   * changes instead of the rows in memory. The changes must be committed after the
+   * transaction commits, and dropped if it rolls back.
+   *
+   * @param changes         Changes of the transaction
+   * @param database        Database of the transaction
+   * @param work            Work of the transaction
+   */
+  void track (Changes changes, DatabaseWrapper database, ITransaction work)
+  {
+    this.current_.set (changes);
+
+    try
+    {
+      work.execute (database);
+    }
+    finally
+    {
+      this.current_.remove ();
+    }
+  }
+
+  /**
+   * Apply the changes of a committed transaction to the rows in memory.
+   *
+   * @param changes         Changes of the transaction
+   */
+  synchronized void commit (Changes changes)
+  {
+    // The rows have not been loaded. They are loaded from the table, which has the
+    // changes, when they are needed.
+    if (this.rows_ == null)
+      return;
+
+    for (Map.Entry <String, LinkedHashMap <String, Boolean>> table: changes.tables_.entrySet ())
+    {
+      for (Map.Entry <String, Boolean> row: table.getValue ().entrySet ())
+        this.apply (table.getKey (), row.getKey (), row.getValue ());
+    }
+  }
+
+  /**
+   * Test if the table of a model has any partial rows.
+   *
+   * @param database        Target database
+   * @param modelAdapter    Adapter of the table
+   * @return                True if the table has partial rows
+   */
+  synchronized boolean hasAny (DatabaseWrapper database, ModelAdapter <?> modelAdapter)
+  {
+    String tableName = modelAdapter.getTableName ();
+    HashSet <String> rows = this.getRows (database).get (tableName);
+
+    if (rows != null && !rows.isEmpty ())
+      return true;
+
+    Changes changes = this.current_.get ();
+    return changes != null && changes.hasAny (tableName);
+  }
+
+  /**
+   * Test if the row of a model is partial.
+   *
+   * @param database        Target database
+   * @param modelAdapter    Adapter of the table
+   * @param model           The model
+   * @return                True if the row is partial
+   */
+  synchronized <T> boolean contains (DatabaseWrapper database, ModelAdapter <T> modelAdapter, T model)
+  {
+    return this.isPartial (database, modelAdapter.getTableName (), getKey (modelAdapter, model));
+  }
+
+  /**
+   * Mark the row of a model as partial.
+   *
+   * @param database        Target database
+   * @param modelAdapter    Adapter of the table
+   * @param model           The model
+   */
+  synchronized <T> void add (DatabaseWrapper database, ModelAdapter <T> modelAdapter, T model)
+  {
+    String tableName = modelAdapter.getTableName ();
+    String key = getKey (modelAdapter, model);
+
+    if (this.isPartial (database, tableName, key))
+      return;
+
+    DatabaseStatement statement = database.compileStatement ("INSERT OR REPLACE INTO " + TABLE_NAME + " (table_name, row_key) VALUES (?, ?)");
+
+    try
+    {
+      statement.bindString (1, tableName);
+      statement.bindString (2, key);
+      statement.execute ();
+    }
+    finally
+    {
+      statement.close ();
+    }
+
+    this.mark (tableName, key, true);
+  }
+
+  /**
+   * Mark the row of a model as complete. This method does nothing if the row is not
+   * partial.
+   *
+   * @param database        Target database
+   * @param modelAdapter    Adapter of the table
+   * @param model           The model
+   */
+  synchronized <T> void remove (DatabaseWrapper database, ModelAdapter <T> modelAdapter, T model)
+  {
+    String tableName = modelAdapter.getTableName ();
+
+    if (!this.hasAny (database, modelAdapter))
+      return;
+
+    String key = getKey (modelAdapter, model);
+
+    if (!this.isPartial (database, tableName, key))
+      return;
+
+    DatabaseStatement statement = database.compileStatement ("DELETE FROM " + TABLE_NAME + " WHERE table_name = ? AND row_key = ?");
+
+    try
+    {
+      statement.bindString (1, tableName);
+      statement.bindString (2, key);
+      statement.execute ();
+    }
+    finally
+    {
+      statement.close ();
+    }
+
+    this.mark (tableName, key, false);
+  }
+
+  /**
+   * Test if a row is partial, including the changes of the current transaction.
+   */
+  private boolean isPartial (DatabaseWrapper database, String tableName, String key)
+  {
+    HashSet <String> rows = this.getRows (database).get (tableName);
+    Changes changes = this.current_.get ();
+    Boolean isPartial = changes != null ? changes.get (tableName, key) : null;
+
+    if (isPartial != null)
+      return isPartial;
+
+    return rows != null && rows.contains (key);
+  }
+
+  /**
+   * Record that a row was marked. Outside of a transaction, the row is marked in
+   * memory right away.
+   */
+  private void mark (String tableName, String key, boolean isPartial)
+  {
+    Changes changes = this.current_.get ();
+
+    if (changes != null)
+      changes.put (tableName, key, isPartial);
+    else
+      this.apply (tableName, key, isPartial);
+  }
+
+  private void apply (String tableName, String key, boolean isPartial)
+  {
+    HashSet <String> rows = this.rows_.get (tableName);
+
+    if (isPartial)
+    {
+      if (rows == null)
+      {
+        rows = new HashSet<> ();
+        this.rows_.put (tableName, rows);
+      }
+
+      rows.add (key);
+    }
+    else if (rows != null)
+    {
+      rows.remove (key);
+    }
+  }
+
+  /**
+   * The key of a row is its primary key condition (e.g., `_id`=5), which does not
+   * depend on the type of the id field.
+   */
+  private static <T> String getKey (ModelAdapter <T> modelAdapter, T model)
+  {
+    return modelAdapter.getPrimaryConditionClause (model).getQuery ();
+  }
+
+  private HashMap <String, HashSet <String>> getRows (DatabaseWrapper database)
+  {
+    if (this.rows_ != null)
+      return this.rows_;
+
+    database.execSQL ("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (table_name TEXT, row_key TEXT, PRIMARY KEY (table_name, row_key))");
+
+    HashMap <String, HashSet <String>> tables = new HashMap<> ();
+    FlowCursor cursor = database.rawQuery ("SELECT table_name, row_key FROM " + TABLE_NAME, null);
+
+    try
+    {
+      while (cursor.moveToNext ())
+      {
+        String tableName = cursor.getString (0);
+        HashSet <String> rows = tables.get (tableName);
+
+        if (rows == null)
+        {
+          rows = new HashSet<> ();
+          tables.put (tableName, rows);
+        }
+
+        rows.add (cursor.getString (1));
+      }
+    }
+    finally
+    {
+      cursor.close ();
+    }
+
+    this.rows_ = tables;
+    return tables;
+  }
+}
@@ -0,0 +1,71 @@
+package com.onehilltech.backbone.data;
+
+import android.text.TextUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @class Projection
+ *
+ * The subset of fields to request for a model (i.e., a sparse fieldset). The fields
+ * are sent to the server as a query parameter, and are the columns selected from the
+ * local database. The id of the model is always part of the projection.
+ *
+ * A field that is a foreign key matches the columns of the foreign key (e.g., the
+ * field author matches the column author__id).
+ *
+ * The models loaded with a projection are partial models. See DataModel.isPartial ().
+ */
+public class Projection
+{
+  private final LinkedHashSet <String> fields_ = new LinkedHashSet<> ();
+
+  /**
+   * Create a projection for a set of fields.
+   *
+   * @param fields          Names of the fields
+   * @return                Projection object
+   */
+  public static Projection of (String... fields)
+  {
+    return new Projection (fields);
+  }
+
+  private Projection (String... fields)
+  {
+    this.fields_.add (DataStore.FIELD_ID);
+    Collections.addAll (this.fields_, fields);
+  }
+
+  public Set <String> getFields ()
+  {
+    return Collections.unmodifiableSet (this.fields_);
+  }
+
+  /**
+   * Test if a column is part of the projection.
+   *
+   * @param columnName      Name of the column, with or without quotes
+   * @return                True if the column is selected
+   */
+  boolean includesColumn (String columnName)
+  {
+    String column = columnName.replace ("`", "");
+
+    for (String field: this.fields_)
+    {
+      if (column.equals (field) || column.startsWith (field + "__"))
+        return true;
+    }
+
+    return false;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return TextUtils.join (",", this.fields_);
+  }
+}
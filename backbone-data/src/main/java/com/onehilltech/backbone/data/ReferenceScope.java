@@ -0,0 +1,97 @@
+package com.onehilltech.backbone.data;
+
+import java.util.HashMap;
+
+/**
+ * @class ReferenceScope
+ *
+ * The models read while parsing a single resource. Within a scope, each (model class,
+ * id) pair maps to a single instance. A foreign key that references the same model
+ * as an earlier foreign key, or as a side-loaded model, shares its instance instead of
+ * allocating a new stub.
+ *
+ * The scope is bound to the thread parsing the resource. Models parsed outside of a
+ * scope (e.g., Gson.fromJson on a single model, or a streamed resource) are not
+ * interned.
+ */
+final class ReferenceScope
+{
+  private static final ThreadLocal <ReferenceScope> CURRENT = new ThreadLocal<> ();
+
+  private final ReferenceScope parent_;
+
+  private final HashMap <Class <?>, HashMap <Object, Object>> instances_ = new HashMap<> ();
+
+  private ReferenceScope (ReferenceScope parent)
+  {
+    this.parent_ = parent;
+  }
+
+  /**
+   * Begin a new scope on the current thread. The scope must be ended by the caller.
+   *
+   * @return          ReferenceScope object
+   */
+  static ReferenceScope begin ()
+  {
+    ReferenceScope scope = new ReferenceScope (CURRENT.get ());
+    CURRENT.set (scope);
+
+    return scope;
+  }
+
+  /**
+   * Get the scope for the current thread.
+   *
+   * @return          ReferenceScope object, or null
+   */
+  static ReferenceScope current ()
+  {
+    return CURRENT.get ();
+  }
+
+  /**
+   * End the scope, and restore the previous scope on the current thread.
+   */
+  void end ()
+  {
+    if (this.parent_ != null)
+      CURRENT.set (this.parent_);
+    else
+      CURRENT.remove ();
+  }
+
+  /**
+   * Get the instance for a model.
+   *
+   * @param dataClass       Class of the model
+   * @param id              Id of the model
+   * @return                The instance, or null
+   */
+  @SuppressWarnings ("unchecked")
+  <E> E get (Class <E> dataClass, Object id)
+  {
+    HashMap <Object, Object> instances = this.instances_.get (dataClass);
+    return instances != null ? (E)instances.get (id) : null;
+  }
+
+  /**
+   * Set the instance for a model.
+   *
+   * @param dataClass       Class of the model
+   * @param id              Id of the model
+   * @param model           The instance
+   */
+  void put (Class <?> dataClass, Object id, Object model)
+  {
+    HashMap <Object, Object> instances = this.instances_.get (dataClass);
+
+    if (instances == null)
+    {
+      instances = new HashMap<> ();
+      this.instances_.put (dataClass, instances);
+    }
+
+    instances.put (id, model);
+  }
+}
@@ -0,0 +1,160 @@
+package com.onehilltech.backbone.data;
+
+import android.os.SystemClock;
+
+import com.onehilltech.promises.Promise;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.onehilltech.promises.Promise.rejected;
+import static com.onehilltech.promises.Promise.resolved;
+
+/**
+ * @class RequestCoalescer
+ *
+ * Coalesce identical read requests so they share a single in-flight Promise. A request
+ * is identified by the endpoint (i.e., the data class), the id, and the query. While a
+ * request is in flight, each identical request receives the same Promise instead of
+ * making its own network request. The result of a completed request can also be shared
+ * for a short window after it completes to dedupe near-simultaneous requests.
+ *
+ * Since the Promise is shared, each client receives the same result object.
+ */
+class RequestCoalescer
+{
+  /**
+   * Factory for the Promise of a new request.
+   */
+  interface PromiseFactory <T>
+  {
+    Promise <T> newPromise ();
+  }
+
+  private static class Flight
+  {
+    private final Promise <?> promise_;
+
+    private boolean isComplete_;
+
+    private long completedAt_;
+
+    Flight (Promise <?> promise)
+    {
+      this.promise_ = promise;
+    }
+  }
+
+  private final HashMap <String, Flight> flights_ = new HashMap<> ();
+
+  /// Amount of time, in milliseconds, a completed request can be shared.
+  private final long window_;
+
+  RequestCoalescer (long window)
+  {
+    this.window_ = window;
+  }
+
+  /**
+   * Make the key for a request.
+   *
+   * @param dataClass       Data class of the endpoint
+   * @param id              Optional id of the resource
+   * @param query           Optional query parameters
+   * @return                The request key
+   */
+  static String makeKey (Class <?> dataClass, Object id, Map <String, Object> query)
+  {
+    StringBuilder builder = new StringBuilder (dataClass.getName ());
+
+    if (id != null)
+      builder.append ('/').append (id);
+
+    // Sort the query parameters so the order they were added does not matter.
+    if (query != null && !query.isEmpty ())
+      builder.append ('?').append (new TreeMap<> (query));
+
+    return builder.toString ();
+  }
+
+  /**
+   * Make the key for a request with a priority. Identical requests of a different
+   * priority have a different key so a request never joins a request that waits at a
+   * lower priority than its own.
+   *
+   * @param dataClass       Data class of the endpoint
+   * @param id              Optional id of the resource
+   * @param query           Optional query parameters
+   * @param priority        Priority of the request
+   * @return                The request key
+   */
+  static String makeKey (Class <?> dataClass, Object id, Map <String, Object> query, RequestScheduler.Priority priority)
+  {
+    return makeKey (dataClass, id, query) + '#' + priority;
+  }
+
+  /**
+   * Execute a request, or join an identical request that is already in flight.
+   *
+   * @param key             Key for the request
+   * @param factory         Factory for a new request
+   * @return                Promise object
+   */
+  @SuppressWarnings ("unchecked")
+  synchronized <T> Promise <T> execute (String key, PromiseFactory <T> factory)
+  {
+    this.prune ();
+
+    Flight flight = this.flights_.get (key);
+
+    if (flight != null)
+      return (Promise <T>)flight.promise_;
+
+    Promise <T> promise = factory.newPromise ();
+    Flight newFlight = new Flight (promise);
+    this.flights_.put (key, newFlight);
+
+    promise.then (resolved (value -> this.complete (key, newFlight)))
+           ._catch (rejected (reason -> this.remove (key, newFlight)));
+
+    return promise;
+  }
+
+  private synchronized void complete (String key, Flight flight)
+  {
+    if (this.window_ > 0)
+    {
+      flight.isComplete_ = true;
+      flight.completedAt_ = SystemClock.elapsedRealtime ();
+    }
+    else
+    {
+      this.remove (key, flight);
+    }
+  }
+
+  private synchronized void remove (String key, Flight flight)
+  {
+    if (this.flights_.get (key) == flight)
+      this.flights_.remove (key);
+  }
+
+  /**
+   * Remove the completed requests whose window has expired.
+   */
+  private void prune ()
+  {
+    long now = SystemClock.elapsedRealtime ();
+    Iterator <Map.Entry <String, Flight>> iter = this.flights_.entrySet ().iterator ();
+
+    while (iter.hasNext ())
+    {
+      Flight flight = iter.next ().getValue ();
+
+      if (flight.isComplete_ && now - flight.completedAt_ >= this.window_)
+        iter.remove ();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.onehilltech.backbone.data;
+
+/**
+ * @class RequestOptions
+ *
+ * Options for a request of the data store.
+ *
+ *   priority             - Priority of the network request. The default depends on the
+ *                          request (e.g., INTERACTIVE for a single model, and BACKGROUND
+ *                          for a sync).
+ *   cancellation token   - Token that cancels the request. A request with a token does
+ *                          not share its network request with identical requests, so
+ *                          cancelling it does not affect them.
+ *   fetch policy         - Where the models are read from. By default, the models are
+ *                          requested from the server.
+ *   projection           - Sparse fieldset of the primary models. A projection cannot be
+ *                          combined with a fetch policy.
+ *
+ * The priority and the cancellation token apply to all the requests. The fetch policy
+ * and the projection only apply to get () and query ().
+ */
+public class RequestOptions
+{
+  private RequestScheduler.Priority priority_;
+
+  private CancellationToken token_;
+
+  private FetchPolicy fetchPolicy_;
+
+  private Projection projection_;
+
+  public RequestOptions setPriority (RequestScheduler.Priority priority)
+  {
+    this.priority_ = priority;
+    return this;
+  }
+
+  public RequestOptions setCancellationToken (CancellationToken token)
+  {
+    this.token_ = token;
+    return this;
+  }
+
+  public RequestOptions setFetchPolicy (FetchPolicy fetchPolicy)
+  {
+    this.fetchPolicy_ = fetchPolicy;
+    return this;
+  }
+
+  public RequestOptions setProjection (Projection projection)
+  {
+    this.projection_ = projection;
+    return this;
+  }
+
+  /**
+   * Get the priority of the request.
+   *
+   * @param defaultPriority     Priority if the options do not have one
+   * @return                    The priority
+   */
+  public RequestScheduler.Priority getPriority (RequestScheduler.Priority defaultPriority)
+  {
+    return this.priority_ != null ? this.priority_ : defaultPriority;
+  }
+
+  public CancellationToken getCancellationToken ()
+  {
+    return this.token_;
+  }
+
+  public FetchPolicy getFetchPolicy ()
+  {
+    return this.fetchPolicy_;
+  }
+
+  public Projection getProjection ()
+  {
+    return this.projection_;
+  }
+}
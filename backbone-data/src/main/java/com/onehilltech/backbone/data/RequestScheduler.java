@@ -0,0 +1,426 @@
+package com.onehilltech.backbone.data;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * @class RequestScheduler
+ *
+ * Schedules network requests by priority. A request waits in the queue of its priority
+ * until there is an open slot, and the number of running requests for its priority is
+ * below the limit of the priority. The requests of a higher priority are started first.
+ *
+ * A request that waited longer than the maximum wait is started before the requests
+ * of a higher priority so a steady stream of interactive requests cannot starve the
+ * background requests.
+ *
+ * The running requests are not visible to the OkHttp dispatcher until they start, so
+ * the maximum number of requests should not be larger than the maximum requests per
+ * host of the dispatcher (5 by default). Otherwise, the requests queue in the
+ * dispatcher without regard to their priority.
+ *
+ * A streaming call (i.e., a call whose response body is read after the call completes)
+ * keeps its slot until its response body is closed so reading the body counts against
+ * the limits of its priority.
+ *
+ * The default scheduler is shared by the data stores, the Gatekeeper clients, and the
+ * messaging clients so the requests of all the clients are scheduled together.
+ */
+public class RequestScheduler
+{
+  public enum Priority
+  {
+    /// Requests for what the user is waiting on (e.g., opening a model).
+    INTERACTIVE,
+
+    /// Requests without a deadline.
+    NORMAL,
+
+    /// Requests the user is not waiting on (e.g., a sync).
+    BACKGROUND
+  }
+
+  /**
+   * @class Builder
+   *
+   * Builder for creating RequestScheduler objects.
+   */
+  public static class Builder
+  {
+    private int maxRequests_ = 5;
+
+    /// By default, interactive requests can use all the slots, and the other priorities
+    /// always leave a slot open for interactive requests.
+    private final int [] maxRequestsPerPriority_ = {5, 3, 1};
+
+    private long maxWait_ = 5000;
+
+    /**
+     * Set the maximum number of requests running at the same time.
+     *
+     * @param maxRequests         Number of requests
+     */
+    public Builder setMaxRequests (int maxRequests)
+    {
+      this.maxRequests_ = maxRequests;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of requests of a single priority running at the same time.
+     *
+     * @param priority            The priority
+     * @param maxRequests         Number of requests
+     */
+    public Builder setMaxRequests (Priority priority, int maxRequests)
+    {
+      this.maxRequestsPerPriority_[priority.ordinal ()] = maxRequests;
+      return this;
+    }
+
+    /**
+     * Set the time a request can wait before it is started ahead of the requests of a
+     * higher priority.
+     *
+     * @param maxWait             Wait in milliseconds
+     */
+    public Builder setMaxWait (long maxWait)
+    {
+      this.maxWait_ = maxWait;
+      return this;
+    }
+
+    public RequestScheduler build ()
+    {
+      if (this.maxRequests_ < 1)
+        throw new IllegalStateException ("The maximum number of requests must be at least 1");
+
+      for (int maxRequests: this.maxRequestsPerPriority_)
+      {
+        if (maxRequests < 1)
+          throw new IllegalStateException ("The maximum number of requests for a priority must be at least 1");
+      }
+
+      return new RequestScheduler (this);
+    }
+  }
+
+  private static RequestScheduler default_;
+
+  private final int maxRequests_;
+
+  private final int [] maxRequestsPerPriority_;
+
+  private final long maxWait_;
+
+  private final ArrayList <ArrayDeque <Request <?>>> queues_ = new ArrayList<> ();
+
+  private final int [] running_ = new int[Priority.values ().length];
+
+  private int totalRunning_;
+
+  /**
+   * Get the scheduler shared by the clients that are not given a scheduler.
+   *
+   * @return          RequestScheduler object
+   */
+  public static synchronized RequestScheduler getDefault ()
+  {
+    if (default_ == null)
+      default_ = new Builder ().build ();
+
+    return default_;
+  }
+
+  /**
+   * Replace the default scheduler. This must be called before the clients that use
+   * the default scheduler are created.
+   *
+   * @param scheduler       The new default scheduler
+   */
+  public static synchronized void setDefault (RequestScheduler scheduler)
+  {
+    default_ = scheduler;
+  }
+
+  private RequestScheduler (Builder builder)
+  {
+    this.maxRequests_ = builder.maxRequests_;
+    this.maxRequestsPerPriority_ = builder.maxRequestsPerPriority_.clone ();
+    this.maxWait_ = TimeUnit.MILLISECONDS.toNanos (builder.maxWait_);
+
+    for (int i = 0; i < Priority.values ().length; ++ i)
+      this.queues_.add (new ArrayDeque<> ());
+  }
+
+  /**
+   * Schedule a call. The callback is called when the call completes, like the callback
+   * of Call.enqueue.
+   *
+   * @param call            The call
+   * @param priority        Priority of the call
+   * @param callback        Callback for the response
+   */
+  public <T> void enqueue (Call <T> call, Priority priority, Callback <T> callback)
+  {
+    this.enqueue (new Request<> (call, priority, callback));
+  }
+
+  /**
+   * Schedule a streaming call. The call keeps its slot until the body of a successful
+   * response is closed, so the callback must close the body.
+   *
+   * @param call            The call
+   * @param priority        Priority of the call
+   * @param callback        Callback for the response
+   */
+  public void enqueueStreaming (Call <ResponseBody> call, Priority priority, Callback <ResponseBody> callback)
+  {
+    this.enqueue (new StreamingRequest (call, priority, callback));
+  }
+
+  private void enqueue (Request <?> request)
+  {
+    synchronized (this)
+    {
+      this.queues_.get (request.priority_.ordinal ()).add (request);
+    }
+
+    this.promote ();
+  }
+
+  /**
+   * Get the number of requests waiting to start.
+   */
+  public synchronized int getQueuedCount ()
+  {
+    int count = 0;
+
+    for (ArrayDeque <Request <?>> queue: this.queues_)
+      count += queue.size ();
+
+    return count;
+  }
+
+  public synchronized int getRunningCount ()
+  {
+    return this.totalRunning_;
+  }
+
+  /**
+   * Start the requests that have an open slot.
+   */
+  private void promote ()
+  {
+    ArrayList <Request <?>> ready = new ArrayList<> ();
+
+    synchronized (this)
+    {
+      Request <?> request;
+
+      while ((request = this.next ()) != null)
+      {
+        ++ this.running_[request.priority_.ordinal ()];
+        ++ this.totalRunning_;
+
+        ready.add (request);
+      }
+    }
+
+    // Start the requests outside of the lock since a call can fail synchronously.
+    for (Request <?> request: ready)
+      request.start ();
+  }
+
+  /**
+   * Remove the next request to start from its queue. This method must be called while
+   * holding the lock.
+   *
+   * @return          The request, or null
+   */
+  private Request <?> next ()
+  {
+    if (this.totalRunning_ >= this.maxRequests_)
+      return null;
+
+    long now = System.nanoTime ();
+    ArrayDeque <Request <?>> selected = null;
+
+    // Starvation protection: start the request that waited the longest past the
+    // maximum wait, regardless of its priority.
+    for (int i = 0; i < this.queues_.size (); ++ i)
+    {
+      Request <?> head = this.queues_.get (i).peek ();
+
+      if (head == null || this.running_[i] >= this.maxRequestsPerPriority_[i] || now - head.enqueuedAt_ < this.maxWait_)
+        continue;
+
+      if (selected == null || head.enqueuedAt_ < selected.peek ().enqueuedAt_)
+        selected = this.queues_.get (i);
+    }
+
+    if (selected != null)
+      return selected.poll ();
+
+    for (int i = 0; i < this.queues_.size (); ++ i)
+    {
+      if (!this.queues_.get (i).isEmpty () && this.running_[i] < this.maxRequestsPerPriority_[i])
+        return this.queues_.get (i).poll ();
+    }
+
+    return null;
+  }
+
+  private void finished (Request <?> request)
+  {
+    synchronized (this)
+    {
+      -- this.running_[request.priority_.ordinal ()];
+      -- this.totalRunning_;
+    }
+
+    this.promote ();
+  }
+
+  /**
+   * A call waiting in the queue of its priority.
+   */
+  private class Request <T>
+  {
+    private final Call <T> call_;
+
+    private final Priority priority_;
+
+    private final Callback <T> callback_;
+
+    private final long enqueuedAt_ = System.nanoTime ();
+
+    Request (Call <T> call, Priority priority, Callback <T> callback)
+    {
+      this.call_ = call;
+      this.priority_ = priority;
+      this.callback_ = callback;
+    }
+
+    void start ()
+    {
+      // Do not use a slot for a call that was cancelled while it was waiting.
+      if (this.call_.isCanceled ())
+      {
+        finished (this);
+        this.callback_.onFailure (this.call_, new IOException ("Canceled"));
+        return;
+      }
+
+      this.call_.enqueue (new Callback <T> ()
+      {
+        @Override
+        public void onResponse (Call <T> call, Response <T> response)
+        {
+          Request.this.onResponse (call, response);
+        }
+
+        @Override
+        public void onFailure (Call <T> call, Throwable t)
+        {
+          finished (Request.this);
+          callback_.onFailure (call, t);
+        }
+      });
+    }
+
+    void onResponse (Call <T> call, Response <T> response)
+    {
+      finished (this);
+      this.callback_.onResponse (call, response);
+    }
+  }
+
+  /**
+   * A streaming call. The slot of the call is released when the body of a successful
+   * response is closed instead of when the response arrives.
+   */
+  private class StreamingRequest extends Request <ResponseBody>
+  {
+    StreamingRequest (Call <ResponseBody> call, Priority priority, Callback <ResponseBody> callback)
+    {
+      super (call, priority, callback);
+    }
+
+    @Override
+    void onResponse (Call <ResponseBody> call, Response <ResponseBody> response)
+    {
+      ResponseBody body = response.body ();
+
+      if (!response.isSuccessful () || body == null)
+      {
+        super.onResponse (call, response);
+        return;
+      }
+
+      ResponseBody slotBody = new SlotResponseBody (body, this);
+      this.callback_.onResponse (call, Response.success (slotBody, response.raw ()));
+    }
+  }
+
+  /**
+   * The body of a streaming response. Closing the body releases the slot of its call.
+   */
+  private class SlotResponseBody extends ResponseBody
+  {
+    private final ResponseBody body_;
+
+    private final Request <?> request_;
+
+    private final AtomicBoolean closed_ = new AtomicBoolean ();
+
+    SlotResponseBody (ResponseBody body, Request <?> request)
+    {
+      this.body_ = body;
+      this.request_ = request;
+    }
+
+    @Override
+    public MediaType contentType ()
+    {
+      return this.body_.contentType ();
+    }
+
+    @Override
+    public long contentLength ()
+    {
+      return this.body_.contentLength ();
+    }
+
+    @Override
+    public BufferedSource source ()
+    {
+      return this.body_.source ();
+    }
+
+    @Override
+    public void close ()
+    {
+      try
+      {
+        this.body_.close ();
+      }
+      finally
+      {
+        // The body can be closed more than once, but the slot is only released once.
+        if (this.closed_.compareAndSet (false, true))
+          finished (this.request_);
+      }
+    }
+  }
+}
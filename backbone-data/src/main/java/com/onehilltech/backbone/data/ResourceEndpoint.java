@@ -6,9 +6,13 @@ import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
+import okhttp3.MediaType;
 import okhttp3.ResponseBody;
+import okio.BufferedSource;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Converter;
@@ -17,10 +21,12 @@ import retrofit2.Retrofit;
 import retrofit2.http.Body;
 import retrofit2.http.DELETE;
 import retrofit2.http.GET;
+import retrofit2.http.HeaderMap;
 import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
 import retrofit2.http.QueryMap;
+import retrofit2.http.Streaming;
 
 /**
  * Endpoint for managing a resource type.
@@ -29,6 +35,8 @@ import retrofit2.http.QueryMap;
  */
 public class ResourceEndpoint <T>
 {
+  public static final int HTTP_NOT_MODIFIED = 304;
+
   /// Name of the resource
   private final String name_;
 
@@ -42,6 +50,14 @@ public class ResourceEndpoint <T>
 
   private final Converter<ResponseBody, Resource> resourceConverter_;
 
+  /// Optional scheduler for the requests.
+  private final RequestScheduler scheduler_;
+
+  private final RequestScheduler.Priority priority_;
+
+  /// Optional token that cancels the requests.
+  private final CancellationToken token_;
+
   /**
    * Create a new instance of the resource endpoint.
    *
@@ -64,7 +80,23 @@ public class ResourceEndpoint <T>
    */
   public static <T> ResourceEndpoint<T> create (Retrofit retrofit, String name, String path)
   {
-    return new ResourceEndpoint<> (retrofit, name, path);
+    return create (retrofit, name, path, null);
+  }
+
+  /**
+   * Create a new instance of the resource endpoint whose requests are scheduled by
+   * priority. The requests have NORMAL priority unless the priority is changed with
+   * withPriority ().
+   *
+   * @param retrofit        Retrofit instance
+   * @param name            Name of the resource
+   * @param path            Absolute/relative path to the resource
+   * @param scheduler       Scheduler for the requests
+   * @return
+   */
+  public static <T> ResourceEndpoint<T> create (Retrofit retrofit, String name, String path, RequestScheduler scheduler)
+  {
+    return new ResourceEndpoint<> (retrofit, name, path, scheduler);
   }
 
   /**
@@ -72,8 +104,9 @@ public class ResourceEndpoint <T>
    *
    * @param name            Name of the resource
    * @param path            Absolute/relative path to the resource
+   * @param scheduler       Optional scheduler for the requests
    */
-  private ResourceEndpoint (Retrofit retrofit, String name, String path)
+  private ResourceEndpoint (Retrofit retrofit, String name, String path, RequestScheduler scheduler)
   {
     this.retrofit_ = retrofit;
     this.methods_ = this.retrofit_.create (ResourceEndpoint.Methods.class);
@@ -81,6 +114,57 @@ public class ResourceEndpoint <T>
 
     this.name_ = name;
     this.path_ = path;
+    this.scheduler_ = scheduler;
+    this.priority_ = RequestScheduler.Priority.NORMAL;
+    this.token_ = null;
+  }
+
+  /**
+   * Copy constructor that changes the priority, or the cancellation token, of the
+   * requests.
+   */
+  private ResourceEndpoint (ResourceEndpoint <T> endpoint, RequestScheduler.Priority priority, CancellationToken token)
+  {
+    this.retrofit_ = endpoint.retrofit_;
+    this.methods_ = endpoint.methods_;
+    this.resourceConverter_ = endpoint.resourceConverter_;
+
+    this.name_ = endpoint.name_;
+    this.path_ = endpoint.path_;
+    this.scheduler_ = endpoint.scheduler_;
+    this.priority_ = priority;
+    this.token_ = token;
+  }
+
+  /**
+   * Get a view of the endpoint whose requests have a different priority. The view
+   * shares the resource methods with this endpoint. The priority has no effect if the
+   * endpoint does not have a scheduler.
+   *
+   * @param priority        Priority of the requests
+   * @return                ResourceEndpoint object
+   */
+  public ResourceEndpoint <T> withPriority (RequestScheduler.Priority priority)
+  {
+    return priority == this.priority_ ? this : new ResourceEndpoint<> (this, priority, this.token_);
+  }
+
+  /**
+   * Get a view of the endpoint whose requests are cancelled by a token. When the token
+   * is cancelled, the calls of the view are cancelled, and their promises are rejected
+   * with a CancellationException.
+   *
+   * @param token           Cancellation token
+   * @return                ResourceEndpoint object
+   */
+  public ResourceEndpoint <T> withCancellation (CancellationToken token)
+  {
+    return token == this.token_ ? this : new ResourceEndpoint<> (this, this.priority_, token);
+  }
+
+  public RequestScheduler.Priority getPriority ()
+  {
+    return this.priority_;
   }
 
   /**
@@ -120,7 +204,7 @@ public class ResourceEndpoint <T>
   public Promise<Resource> create (T obj, HashMap <String, Object> query)
   {
     return new Promise<> ((settlement) -> {
-      this.methods_.create (this.path_, new Resource (this.name_, obj), query).enqueue (new Callback<Resource> ()
+      this.enqueue (this.methods_.create (this.path_, new Resource (this.name_, obj), query), new Callback<Resource> ()
       {
         @Override
         public void onResponse (Call<Resource> call, Response<Resource> response)
@@ -193,6 +277,79 @@ public class ResourceEndpoint <T>
     return this.executeCall (call);
   }
 
+  /**
+   * Make a conditional request for a single resource. The Promise is resolved with the
+   * response if the request is successful, or the resource has not been modified (i.e.,
+   * the status code is 304).
+   *
+   * @param id
+   * @param query
+   * @param headers           Conditional request headers
+   * @return
+   */
+  public Promise<Response<Resource>> get (String id, Map <String, Object> query, Map <String, String> headers)
+  {
+    Call <Resource> call = this.methods_.get (this.path_, id, query, headers);
+    return this.executeConditionalCall (call);
+  }
+
+  /**
+   * Make a conditional request for all the resources that match the specified query
+   * string. The Promise is resolved with the response if the request is successful, or
+   * the resources have not been modified (i.e., the status code is 304).
+   *
+   * @param params
+   * @param headers           Conditional request headers
+   * @return
+   */
+  public Promise<Response<Resource>> get (Map <String, Object> params, Map <String, String> headers)
+  {
+    Call <Resource> call = this.methods_.get (this.path_, params, headers);
+    return this.executeConditionalCall (call);
+  }
+
+  /**
+   * Open a stream to all the resources. The response body is not buffered, and must
+   * be closed by the caller.
+   *
+   * @return
+   */
+  public Promise<ResponseBody> stream ()
+  {
+    return this.stream (new HashMap<> ());
+  }
+
+  /**
+   * Open a stream to all the resources that match the specified query string. The
+   * response body is not buffered, and must be closed by the caller. The request keeps
+   * its slot on the scheduler until the body is closed.
+   *
+   * @param params
+   * @return
+   */
+  public Promise<ResponseBody> stream (Map <String, Object> params)
+  {
+    Call <ResponseBody> call = this.methods_.stream (this.path_, params);
+
+    if (this.token_ == null)
+      return this.executeCall (call, true);
+
+    // The body is read after the call completes. The call stays registered with the
+    // token until the body is closed so cancelling the token also aborts reading the
+    // body.
+    CancellationToken token = this.token_;
+    CancellationToken.OnCancelListener listener = call::cancel;
+
+    token.addOnCancelListener (listener);
+
+    return this.executeCall (call, true)
+               .then (body -> Promise.resolve ((ResponseBody)new CancellableResponseBody (body, token, listener)))
+               ._catch (reason -> {
+                 token.removeOnCancelListener (listener);
+                 return Promise.reject (reason);
+               });
+  }
+
   public ArrayList <HttpError> getErrors (Response <?> response)
       throws IOException
   {
@@ -201,15 +358,40 @@ public class ResourceEndpoint <T>
     if (errorBody == null)
       return new ArrayList<> ();
 
-    Resource r = this.resourceConverter_.convert (errorBody);
-    return r.get ("errors");
+    Resource r;
+
+    try
+    {
+      r = this.resourceConverter_.convert (errorBody);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      // The body is not a resource (e.g., an empty body, or an error page from a
+      // proxy). The status code of the response still describes the error.
+      return new ArrayList<> ();
+    }
+
+    ArrayList <HttpError> errors = r != null ? r.get ("errors") : null;
+
+    return errors != null ? errors : new ArrayList<> ();
   }
 
+  /**
+   * Get the first error in the response body. The error has the status code of the
+   * response.
+   *
+   * @param response
+   * @return
+   * @throws IOException
+   */
   public HttpError getFirstError (Response <?> response)
       throws IOException
   {
     ArrayList <HttpError> errors = this.getErrors (response);
-    return !errors.isEmpty () ? errors.get (0) : new HttpError ();
+    HttpError httpError = !errors.isEmpty () ? errors.get (0) : new HttpError ();
+    httpError.setStatusCode (response.code ());
+
+    return httpError;
   }
 
   /**
@@ -237,6 +419,53 @@ public class ResourceEndpoint <T>
     return this.executeCall (call);
   }
 
+  /**
+   * Create many resources in a single request. The values are sent as a plural
+   * resource (e.g., {"books": [...]}).
+   *
+   * @param values          Resource values
+   * @return
+   */
+  public Promise<Resource> createMany (List <T> values)
+  {
+    Call <Resource> call = this.methods_.createMany (this.path_, new Resource (this.getPluralName (), values));
+    return this.executeCall (call);
+  }
+
+  /**
+   * Update many resources in a single request. The values are sent as a plural
+   * resource (e.g., {"books": [...]}).
+   *
+   * @param values          Updated resource values
+   * @return
+   */
+  public Promise<Resource> updateMany (List <T> values)
+  {
+    Call <Resource> call = this.methods_.updateMany (this.path_, new Resource (this.getPluralName (), values));
+    return this.executeCall (call);
+  }
+
+  /**
+   * Delete many resources in a single request. The query identifies the resources
+   * to delete (e.g., a list of ids).
+   *
+   * @param query           Query parameters
+   * @return
+   */
+  public Promise<Boolean> deleteMany (Map <String, Object> query)
+  {
+    Call <Boolean> call = this.methods_.deleteMany (this.path_, query);
+    return this.executeCall (call);
+  }
+
+  /**
+   * Get the plural name of the resource, which is the last segment of the path.
+   */
+  private String getPluralName ()
+  {
+    return this.path_.substring (this.path_.lastIndexOf ('/') + 1);
+  }
+
   /**
    * Retrieve the number of resources.
    *
@@ -260,10 +489,70 @@ public class ResourceEndpoint <T>
     return this.executeCall (call);
   }
 
+  /**
+   * Enqueue a call on the scheduler, or directly on the call if the endpoint does not
+   * have a scheduler.
+   */
+  private <T> void enqueue (Call <T> call, Callback <T> callback)
+  {
+    this.enqueue (call, false, callback);
+  }
+
+  /**
+   * Enqueue a call. On the scheduler, a streaming call keeps its slot until its
+   * response body is closed.
+   */
+  @SuppressWarnings ("unchecked")
+  private <T> void enqueue (Call <T> call, boolean streaming, Callback <T> callback)
+  {
+    Callback <T> target = this.token_ != null ? this.makeCancellable (call, callback) : callback;
+
+    if (this.scheduler_ == null)
+      call.enqueue (target);
+    else if (streaming)
+      this.scheduler_.enqueueStreaming ((Call <ResponseBody>)call, this.priority_, (Callback <ResponseBody>)target);
+    else
+      this.scheduler_.enqueue (call, this.priority_, target);
+  }
+
+  /**
+   * Register a call with the cancellation token of the endpoint. The call is removed
+   * from the token when it completes.
+   */
+  private <T> Callback <T> makeCancellable (Call <T> call, Callback <T> callback)
+  {
+    CancellationToken token = this.token_;
+    CancellationToken.OnCancelListener listener = call::cancel;
+
+    token.addOnCancelListener (listener);
+
+    return new Callback<T> ()
+    {
+      @Override
+      public void onResponse (Call<T> call, Response<T> response)
+      {
+        token.removeOnCancelListener (listener);
+        callback.onResponse (call, response);
+      }
+
+      @Override
+      public void onFailure (Call<T> call, Throwable t)
+      {
+        token.removeOnCancelListener (listener);
+        callback.onFailure (call, call.isCanceled () ? new CancellationException ("The request was cancelled") : t);
+      }
+    };
+  }
+
   private <T> Promise <T> executeCall (Call <T> call)
+  {
+    return this.executeCall (call, false);
+  }
+
+  private <T> Promise <T> executeCall (Call <T> call, boolean streaming)
   {
     return new Promise<> (settlement ->
-      call.enqueue (new Callback<T> ()
+      this.enqueue (call, streaming, new Callback<T> ()
       {
         @Override
         public void onResponse (Call<T> call, Response<T> response)
@@ -272,7 +561,7 @@ public class ResourceEndpoint <T>
           {
             settlement.resolve (response.body ());
           }
-          else if (response.code () == 304)
+          else if (response.code () == HTTP_NOT_MODIFIED)
           {
             HttpError httpError = new HttpError ("NotModified", "Not Modified");
             httpError.setStatusCode (response.code ());
@@ -302,6 +591,86 @@ public class ResourceEndpoint <T>
     );
   }
 
+  private <T> Promise <Response <T>> executeConditionalCall (Call <T> call)
+  {
+    return new Promise<> (settlement ->
+      this.enqueue (call, new Callback<T> ()
+      {
+        @Override
+        public void onResponse (Call<T> call, Response<T> response)
+        {
+          if (response.isSuccessful () || response.code () == HTTP_NOT_MODIFIED)
+          {
+            settlement.resolve (response);
+          }
+          else
+          {
+            try
+            {
+              HttpError httpError = getFirstError (response);
+              settlement.reject (httpError);
+            }
+            catch (IOException e)
+            {
+              settlement.reject (e);
+            }
+          }
+        }
+
+        @Override
+        public void onFailure (Call<T> call, Throwable t)
+        {
+          settlement.reject (t);
+        }
+      })
+    );
+  }
+
+  /**
+   * The body of a stream whose call is registered with a cancellation token. Closing
+   * the body removes the call from the token.
+   */
+  private static class CancellableResponseBody extends ResponseBody
+  {
+    private final ResponseBody body_;
+
+    private final CancellationToken token_;
+
+    private final CancellationToken.OnCancelListener listener_;
+
+    CancellableResponseBody (ResponseBody body, CancellationToken token, CancellationToken.OnCancelListener listener)
+    {
+      this.body_ = body;
+      this.token_ = token;
+      this.listener_ = listener;
+    }
+
+    @Override
+    public MediaType contentType ()
+    {
+      return this.body_.contentType ();
+    }
+
+    @Override
+    public long contentLength ()
+    {
+      return this.body_.contentLength ();
+    }
+
+    @Override
+    public BufferedSource source ()
+    {
+      return this.body_.source ();
+    }
+
+    @Override
+    public void close ()
+    {
+      this.token_.removeOnCancelListener (this.listener_);
+      this.body_.close ();
+    }
+  }
+
   /**
    * @interface Methods
    *
@@ -350,6 +719,28 @@ public class ResourceEndpoint <T>
     @GET("{name}")
     Call<Resource> get (@Path("name") String name, @QueryMap(encoded = true) Map<String, Object> options);
 
+    /**
+     * Query a list of resources with additional request headers.
+     *
+     * @param name
+     * @param options
+     * @param headers
+     * @return
+     */
+    @GET("{name}")
+    Call<Resource> get (@Path("name") String name, @QueryMap(encoded = true) Map<String, Object> options, @HeaderMap Map<String, String> headers);
+
+    /**
+     * Query a list of resources without buffering the response body.
+     *
+     * @param name
+     * @param options
+     * @return
+     */
+    @Streaming
+    @GET("{name}")
+    Call<ResponseBody> stream (@Path("name") String name, @QueryMap(encoded = true) Map<String, Object> options);
+
     /**
      * Get a single resources.
      *
@@ -370,6 +761,18 @@ public class ResourceEndpoint <T>
     @GET("{name}/{id}")
     Call<Resource> get (@Path("name") String name, @Path("id") String id, @QueryMap(encoded = true) Map<String, Object> options);
 
+    /**
+     * Get a single resource with additional request headers.
+     *
+     * @param name
+     * @param id
+     * @param options
+     * @param headers
+     * @return
+     */
+    @GET("{name}/{id}")
+    Call<Resource> get (@Path("name") String name, @Path("id") String id, @QueryMap(encoded = true) Map<String, Object> options, @HeaderMap Map<String, String> headers);
+
     /**
      * Update an existing resource.
      *
@@ -384,6 +787,36 @@ public class ResourceEndpoint <T>
     @DELETE("{name}/{id}")
     Call<Boolean> delete (@Path("name") String name, @Path("id") String id);
 
+    /**
+     * Create many resources.
+     *
+     * @param name
+     * @param rc          Plural resource
+     * @return
+     */
+    @POST("{name}")
+    Call<Resource> createMany (@Path("name") String name, @Body Resource rc);
+
+    /**
+     * Update many existing resources.
+     *
+     * @param name
+     * @param rc          Plural resource
+     * @return
+     */
+    @PUT("{name}")
+    Call<Resource> updateMany (@Path("name") String name, @Body Resource rc);
+
+    /**
+     * Delete the resources that match the query.
+     *
+     * @param name
+     * @param options
+     * @return
+     */
+    @DELETE("{name}")
+    Call<Boolean> deleteMany (@Path("name") String name, @QueryMap(encoded = true) Map<String, Object> options);
+
     /**
      * Retrieve the number of resources from the server.
      *
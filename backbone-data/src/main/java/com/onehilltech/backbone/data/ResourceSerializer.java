@@ -1,28 +1,26 @@
 package com.onehilltech.backbone.data;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.ArrayList;
 
 /**
  * @class ResourceSerializer
  *
- * Resource marshaller for Gson extensions.
+ * Resource marshaller for Gson extensions. The resource is read from, and written to,
+ * the underlying stream directly. This means each element in the resource is converted
+ * as it is read without first building an intermediate JSON tree for the payload.
  */
-public class ResourceSerializer
-    implements JsonDeserializer <Resource>, JsonSerializer <Resource>
+public class ResourceSerializer extends TypeAdapter <Resource>
 {
   private Gson gson_ = new Gson ();
 
@@ -43,20 +41,114 @@ public class ResourceSerializer
     this.types_.put (name, dataClass);
   }
 
+  /**
+   * Listener for values read from a resource stream.
+   */
+  public interface OnValueListener
+  {
+    /**
+     * A value was read from the stream. If the resource element is an array, then
+     * this method is called for each value in the array.
+     *
+     * @param name          Name of the resource element
+     * @param value         The value
+     */
+    void onValue (String name, Object value) throws IOException;
+  }
+
+  /**
+   * Read a resource from the stream, and pass each value to the listener as soon as
+   * it is read. Unlike read (JsonReader), the values are not collected into a Resource
+   * object. This allows the client to process very large resources one value at a time.
+   *
+   * The models are not interned since the scope would hold every model in the stream
+   * until the end of the resource. Each foreign key is a separate stub, even if another
+   * value in the stream references the same model.
+   *
+   * @param in              The source stream
+   * @param listener        Listener for the values
+   */
+  public void read (JsonReader in, OnValueListener listener)
+      throws IOException
+  {
+    if (in.peek () == JsonToken.NULL)
+    {
+      in.nextNull ();
+      return;
+    }
+
+    in.beginObject ();
+
+    while (in.hasNext ())
+    {
+      String field = in.nextName ();
+      Class <?> dataClass = this.types_.get (field);
+
+      if (dataClass == null)
+        throw new JsonParseException (String.format ("%s does not have a registered type", field));
+
+      TypeAdapter <?> adapter = this.gson_.getAdapter (dataClass).nullSafe ();
+      JsonToken token = in.peek ();
+
+      if (token == JsonToken.BEGIN_OBJECT)
+      {
+        listener.onValue (field, adapter.read (in));
+      }
+      else if (token == JsonToken.BEGIN_ARRAY)
+      {
+        in.beginArray ();
+
+        while (in.hasNext ())
+          listener.onValue (field, adapter.read (in));
+
+        in.endArray ();
+      }
+      else
+      {
+        in.skipValue ();
+      }
+    }
+
+    in.endObject ();
+  }
+
   @SuppressWarnings ("unchecked")
   @Override
-  public Resource deserialize (JsonElement json, Type typeOfT, JsonDeserializationContext context)
-      throws JsonParseException
+  public Resource read (JsonReader in)
+      throws IOException
+  {
+    if (in.peek () == JsonToken.NULL)
+    {
+      in.nextNull ();
+      return null;
+    }
+
+    // Intern the models in the resource so each reference to the same model shares
+    // a single instance.
+    ReferenceScope scope = ReferenceScope.begin ();
+
+    try
+    {
+      return this.readResource (in);
+    }
+    finally
+    {
+      scope.end ();
+    }
+  }
+
+  @SuppressWarnings ("unchecked")
+  private Resource readResource (JsonReader in)
+      throws IOException
   {
     // The element is a JSON object. Each field in the object should be a registered
     // object. Iterate over each field and convert it to its concrete type.
-    JsonObject obj = json.getAsJsonObject ();
     Resource resource = new Resource ();
+    in.beginObject ();
 
-    for (Map.Entry <String, JsonElement> entry : obj.entrySet ())
+    while (in.hasNext ())
     {
-      String field = entry.getKey ();
-      JsonElement element = entry.getValue ();
+      String field = in.nextName ();
 
       // Get the name of the resource element, and locate its adapter. We need
       // the adapter to transform the JSON element to a Java object.
@@ -65,69 +157,93 @@ public class ResourceSerializer
       if (dataClass == null)
         throw new JsonParseException (String.format ("%s does not have a registered type", field));
 
-      if (element.isJsonObject ())
+      TypeAdapter <?> adapter = this.gson_.getAdapter (dataClass).nullSafe ();
+      JsonToken token = in.peek ();
+
+      if (token == JsonToken.BEGIN_OBJECT)
       {
-        Object value = this.gson_.fromJson (element, dataClass);
+        Object value = adapter.read (in);
         resource.add (field, value);
       }
-      else if (element.isJsonArray ())
+      else if (token == JsonToken.BEGIN_ARRAY)
       {
-        JsonArray jsonArray = element.getAsJsonArray ();
-        ArrayList list = DataModel.class.isAssignableFrom (dataClass) ? new DataModelList (jsonArray.size ()) : new ArrayList (jsonArray.size ());
+        // Read one element at a time from the stream so we never hold both the
+        // raw array and its converted values in memory.
+        ArrayList list = DataModel.class.isAssignableFrom (dataClass) ? new DataModelList () : new ArrayList ();
+
+        in.beginArray ();
+
+        while (in.hasNext ())
+          list.add (adapter.read (in));
 
-        for (JsonElement item: jsonArray)
-          list.add (this.gson_.fromJson (item, dataClass));
+        in.endArray ();
 
         resource.add (field, list);
       }
-      else if (element.isJsonNull ())
+      else if (token == JsonToken.NULL)
       {
+        in.nextNull ();
         resource.add (field, null);
       }
+      else
+      {
+        in.skipValue ();
+      }
     }
 
+    in.endObject ();
+
     return resource;
   }
 
+  @SuppressWarnings ("unchecked")
   @Override
-  public JsonElement serialize (Resource src, Type typeOfSrc, JsonSerializationContext context)
+  public void write (JsonWriter out, Resource src)
+      throws IOException
   {
-    JsonObject jsonObject = new JsonObject ();
+    if (src == null)
+    {
+      out.nullValue ();
+      return;
+    }
+
+    out.beginObject ();
 
     for (Map.Entry <String, Object> entry: src.entitySet ())
     {
       String field = entry.getKey ();
       Object object = entry.getValue ();
 
-      boolean isCollection = (object instanceof Collection);
-
       // Get the name of the resource element, and locate its adapter. We need
-      // the adapter to transform the JSON element to a Java object.
+      // the adapter to transform the Java object to a JSON element.
       Class <?> dataClass = this.types_.get (field);
 
       if (dataClass == null)
         throw new JsonParseException (String.format ("%s does not have a registered type", field));
 
-      // Get the name of the resource element, and locate its adapter. We need
-      // the adapter to transform the Java object to a JSON element.
+      TypeAdapter adapter = this.gson_.getAdapter (dataClass).nullSafe ();
+      out.name (field);
 
-      if (isCollection)
+      if (object == null)
+      {
+        out.nullValue ();
+      }
+      else if (object instanceof Collection)
       {
         Collection collection = (Collection)object;
-        JsonArray array = new JsonArray ();
+        out.beginArray ();
 
         for (Object item : collection)
-          array.add (this.gson_.toJsonTree (item, dataClass));
+          adapter.write (out, item);
 
-        jsonObject.add (field, array);
+        out.endArray ();
       }
       else
       {
-        JsonElement element = this.gson_.toJsonTree (object, dataClass);
-        jsonObject.add (field, element);
+        adapter.write (out, object);
       }
     }
 
-    return jsonObject;
+    out.endObject ();
   }
 }
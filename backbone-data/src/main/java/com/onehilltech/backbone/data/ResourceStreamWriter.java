@@ -0,0 +1,208 @@
+package com.onehilltech.backbone.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @class ResourceStreamWriter
+ *
+ * Write the values read from a resource stream to the database in bounded batches.
+ * Each batch is written in its own transaction (see DataStore.executeTransaction) while
+ * the parser continues to read the stream. The number of batches waiting to be written
+ * is bounded so the parser cannot get too far ahead of the database.
+ *
+ * If the cancellation token is cancelled, the writer stops the parser at the next value,
+ * and the batches waiting to be written are skipped.
+ *
+ * Each batch is written in dependency order. The side-loaded models a batch depends on
+ * must therefore appear in the stream before the models that reference them, or be in
+ * the same batch.
+ */
+class ResourceStreamWriter <T extends DataModel>
+    implements ResourceSerializer.OnValueListener
+{
+  /// Number of batches that can be waiting on the transaction queue.
+  private static final int MAX_PENDING_BATCHES = 2;
+
+  private final DataStore store_;
+
+  private final List <DependencyGraph.Node> insertOrder_;
+
+  private final Map <String, DependencyGraph.Node> nodes_ = new HashMap<> ();
+
+  private final DependencyGraph.Node startNode_;
+
+  private final int batchSize_;
+
+  private final DataStore.OnModelsLoaded <T> onModelsLoaded_;
+
+  private final CancellationToken token_;
+
+  private final Semaphore pending_ = new Semaphore (MAX_PENDING_BATCHES);
+
+  private final AtomicInteger count_ = new AtomicInteger ();
+
+  private LinkedHashMap <DependencyGraph.Node, DataModelList <DataModel>> batch_ = new LinkedHashMap<> ();
+
+  private int batchCount_;
+
+  private volatile Throwable error_;
+
+  ResourceStreamWriter (DataStore store,
+                        List <DependencyGraph.Node> insertOrder,
+                        int batchSize,
+                        DataStore.OnModelsLoaded <T> onModelsLoaded,
+                        CancellationToken token)
+  {
+    this.store_ = store;
+    this.insertOrder_ = insertOrder;
+    this.batchSize_ = batchSize;
+    this.onModelsLoaded_ = onModelsLoaded;
+    this.token_ = token;
+
+    // The insert order always ends with the node we started at.
+    this.startNode_ = insertOrder.get (insertOrder.size () - 1);
+
+    for (DependencyGraph.Node node: insertOrder)
+    {
+      this.nodes_.put (node.getPluralName (), node);
+      this.nodes_.put (node.getSingularName (), node);
+    }
+  }
+
+  @Override
+  public void onValue (String name, Object value)
+      throws IOException
+  {
+    DataStore.throwIfCancelled (this.token_);
+
+    if (this.error_ != null)
+      throw new IOException ("Failed to write resource to the database", this.error_);
+
+    // Ignore the values that are not part of the insert order.
+    DependencyGraph.Node node = this.nodes_.get (name);
+
+    if (node == null || value == null)
+      return;
+
+    DataModelList <DataModel> models = this.batch_.get (node);
+
+    if (models == null)
+    {
+      models = new DataModelList<> ();
+      this.batch_.put (node, models);
+    }
+
+    models.add ((DataModel)value);
+
+    if (++ this.batchCount_ >= this.batchSize_)
+      this.flush ();
+  }
+
+  /**
+   * Write the current batch to the database.
+   */
+  @SuppressWarnings ("unchecked")
+  private void flush ()
+      throws IOException
+  {
+    if (this.batchCount_ == 0)
+      return;
+
+    LinkedHashMap <DependencyGraph.Node, DataModelList <DataModel>> batch = this.batch_;
+
+    this.batch_ = new LinkedHashMap<> ();
+    this.batchCount_ = 0;
+
+    try
+    {
+      // Wait for an open slot on the transaction queue.
+      this.pending_.acquire ();
+    }
+    catch (InterruptedException e)
+    {
+      throw new InterruptedIOException ("Interrupted while waiting for the database");
+    }
+
+    this.store_.executeTransaction (
+        databaseWrapper -> {
+          DataStore.throwIfCancelled (this.token_);
+
+          for (DependencyGraph.Node node: this.insertOrder_)
+          {
+            DataModelList <DataModel> models = batch.get (node);
+
+            if (models == null)
+              continue;
+
+            ModelWriter writer = this.store_.newModelWriter (node.getModelAdapter (), databaseWrapper);
+
+            try
+            {
+              writer.saveAll (models);
+            }
+            finally
+            {
+              writer.close ();
+            }
+          }
+        },
+        transaction -> {
+          try
+          {
+            for (Map.Entry <DependencyGraph.Node, DataModelList <DataModel>> entry: batch.entrySet ())
+            {
+              entry.getValue ().setDataStore (this.store_);
+              this.store_.notifyTableChanged (entry.getKey ().getDataClass ());
+              this.store_.onModelsWritten (entry.getValue ());
+            }
+
+            DataModelList <T> loaded = (DataModelList <T>)(DataModelList <?>)batch.get (this.startNode_);
+
+            if (loaded != null)
+            {
+              this.count_.addAndGet (loaded.size ());
+
+              if (this.onModelsLoaded_ != null)
+                this.onModelsLoaded_.onModelsLoaded (loaded);
+            }
+          }
+          finally
+          {
+            this.pending_.release ();
+          }
+        },
+        (transaction, error) -> {
+          this.error_ = error;
+          this.pending_.release ();
+        });
+  }
+
+  /**
+   * Write the remaining values, and wait for all the batches to be written.
+   *
+   * @return        Number of models written for the start class
+   */
+  int finish ()
+      throws Exception
+  {
+    this.flush ();
+
+    // Wait for all the pending batches to complete.
+    this.pending_.acquire (MAX_PENDING_BATCHES);
+    this.pending_.release (MAX_PENDING_BATCHES);
+
+    if (this.error_ instanceof Exception)
+      throw (Exception)this.error_;
+    else if (this.error_ != null)
+      throw new IllegalStateException ("Failed to write resource to the database", this.error_);
+
+    return this.count_.get ();
+  }
+}
@@ -0,0 +1,151 @@
+package com.onehilltech.backbone.data;
+
+import com.raizlabs.android.dbflow.config.DatabaseDefinition;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.Headers;
+
+/**
+ * @class ResourceValidators
+ *
+ * The cache validators (i.e., ETag and Last-Modified) for the resources requested by
+ * the data store. The validators are kept in the metadata table so they are in sync
+ * with the models in the local database. For a query, we also keep the ids of the
+ * models in the response so we can load the same list from the local database when
+ * the server reports the list has not been modified.
+ *
+ * Lastly, we keep the time each resource was last fetched from the server, which is
+ * used to determine the freshness of the local models for a FetchPolicy.
+ */
+class ResourceValidators
+{
+  private final MetadataTable metadata_;
+
+  private final DatabaseDefinition database_;
+
+  ResourceValidators (MetadataTable metadata, DatabaseDefinition database)
+  {
+    this.metadata_ = metadata;
+    this.database_ = database;
+  }
+
+  /**
+   * Get the conditional request headers for a resource.
+   *
+   * @param key           Key of the request
+   * @return              Map of headers, which can be empty
+   */
+  Map <String, String> getConditionalHeaders (String key)
+  {
+    HashMap <String, String> headers = new HashMap<> ();
+
+    String etag = this.metadata_.get (this.database_.getWritableDatabase (), etagKey (key));
+
+    if (etag != null)
+      headers.put (HttpHeaders.IF_NONE_MATCH, etag);
+
+    String lastModified = this.metadata_.get (this.database_.getWritableDatabase (), lastModifiedKey (key));
+
+    if (lastModified != null)
+      headers.put (HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+
+    return headers;
+  }
+
+  /**
+   * Get the ids of the models returned by the last response for a query.
+   *
+   * @param key           Key of the request
+   * @return              Comma-separated list of ids, or null
+   */
+  String getIds (String key)
+  {
+    return this.metadata_.get (this.database_.getWritableDatabase (), idsKey (key));
+  }
+
+  /**
+   * Save the validators from the response headers.
+   *
+   * @param key           Key of the request
+   * @param headers       Response headers
+   * @param ids           Optional comma-separated list of ids in the response
+   */
+  void save (String key, Headers headers, String ids)
+  {
+    this.put (etagKey (key), headers.get (HttpHeaders.ETAG));
+    this.put (lastModifiedKey (key), headers.get (HttpHeaders.LAST_MODIFIED));
+    this.put (idsKey (key), ids);
+    this.touch (key);
+  }
+
+  /**
+   * Mark the resource as fetched from the server at the current time.
+   *
+   * @param key           Key of the request
+   */
+  void touch (String key)
+  {
+    this.put (fetchedAtKey (key), Long.toString (System.currentTimeMillis ()));
+  }
+
+  /**
+   * Test if the resource was fetched from the server within the max age.
+   *
+   * @param key           Key of the request
+   * @param maxAge        Max age in milliseconds
+   * @return              True if the resource is fresh
+   */
+  boolean isFresh (String key, long maxAge)
+  {
+    String fetchedAt = this.metadata_.get (this.database_.getWritableDatabase (), fetchedAtKey (key));
+
+    if (fetchedAt == null)
+      return false;
+
+    long age = System.currentTimeMillis () - Long.parseLong (fetchedAt);
+    return age >= 0 && age <= maxAge;
+  }
+
+  /**
+   * Remove the validators for a resource.
+   *
+   * @param key           Key of the request
+   */
+  void clear (String key)
+  {
+    this.metadata_.remove (this.database_.getWritableDatabase (), etagKey (key));
+    this.metadata_.remove (this.database_.getWritableDatabase (), lastModifiedKey (key));
+    this.metadata_.remove (this.database_.getWritableDatabase (), idsKey (key));
+    this.metadata_.remove (this.database_.getWritableDatabase (), fetchedAtKey (key));
+  }
+
+  private void put (String key, String value)
+  {
+    if (value != null)
+      this.metadata_.put (this.database_.getWritableDatabase (), key, value);
+    else
+      this.metadata_.remove (this.database_.getWritableDatabase (), key);
+  }
+
+  private static String etagKey (String key)
+  {
+    return "etag:" + key;
+  }
+
+  private static String lastModifiedKey (String key)
+  {
+    return "last-modified:" + key;
+  }
+
+  private static String idsKey (String key)
+  {
+    return "ids:" + key;
+  }
+
+  private static String fetchedAtKey (String key)
+  {
+    return "fetched-at:" + key;
+  }
+}
@@ -0,0 +1,27 @@
+package com.onehilltech.backbone.data;
+
+/**
+ * @class Tombstone
+ *
+ * Record of a model that was deleted on the server. The server includes tombstones in
+ * a sync response so the client can delete the same models from its local database.
+ */
+public class Tombstone
+{
+  /// Name of the resource the deleted model belongs to.
+  public String type;
+
+  /// Id of the deleted model.
+  public String _id;
+
+  public Tombstone ()
+  {
+
+  }
+
+  public Tombstone (String type, String id)
+  {
+    this.type = type;
+    this._id = id;
+  }
+}
@@ -5,6 +5,7 @@ import android.content.pm.PackageManager;
 
 import com.google.firebase.iid.FirebaseInstanceId;
 import com.google.gson.Gson;
+import com.onehilltech.backbone.data.RequestScheduler;
 import com.onehilltech.backbone.gatekeeper.GatekeeperSessionClient;
 import com.onehilltech.metadata.ManifestMetadata;
 import com.onehilltech.metadata.MetadataProperty;
@@ -129,10 +130,16 @@ public class MessagingClient
     return this.executeCall (this.userMethods_.releaseDevice (deviceId));
   }
 
+  /**
+   * Execute a call. The cloud token requests are not user visible, so they do not
+   * compete with the interactive requests of the application.
+   */
   private <T> Promise <T> executeCall (Call <T> call)
   {
+    RequestScheduler scheduler = this.sessionClient_.getClient ().getRequestScheduler ();
+
     return new Promise<> (
-        settlement -> call.enqueue (new Callback<T> () {
+        settlement -> scheduler.enqueue (call, RequestScheduler.Priority.BACKGROUND, new Callback<T> () {
           @Override
           public void onResponse (Call<T> call, Response<T> response)
           {
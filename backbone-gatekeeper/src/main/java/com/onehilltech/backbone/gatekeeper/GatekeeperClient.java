@@ -7,6 +7,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.typeadapters.RuntimeTypeAdapterFactory;
 import com.onehilltech.backbone.data.HttpError;
+import com.onehilltech.backbone.data.RequestScheduler;
 import com.onehilltech.backbone.data.Resource;
 import com.onehilltech.backbone.data.ResourceEndpoint;
 import com.onehilltech.backbone.data.ResourceSerializer;
@@ -94,6 +95,8 @@ public class GatekeeperClient
 
     private Context context_;
 
+    private RequestScheduler requestScheduler_;
+
     public Builder (Context context)
     {
       this.context_ = context;
@@ -111,6 +114,16 @@ public class GatekeeperClient
       return this;
     }
 
+    /**
+     * Set the scheduler for the requests of the client. The default is the shared
+     * RequestScheduler.getDefault ().
+     */
+    public Builder setRequestScheduler (RequestScheduler requestScheduler)
+    {
+      this.requestScheduler_ = requestScheduler;
+      return this;
+    }
+
     public GatekeeperClient build ()
     {
       try
@@ -123,6 +136,9 @@ public class GatekeeperClient
         if (this.httpClient_ == null)
           this.httpClient_ = new OkHttpClient.Builder ().build ();
 
+        if (this.requestScheduler_ == null)
+          this.requestScheduler_ = RequestScheduler.getDefault ();
+
         return new GatekeeperClient (this);
       }
       catch (PackageManager.NameNotFoundException | IllegalAccessException | ClassNotFoundException | InvocationTargetException e)
@@ -150,10 +166,13 @@ public class GatekeeperClient
 
   private ResourceEndpoint <JsonAccount> accountEndpoint_;
 
+  private final RequestScheduler requestScheduler_;
+
   GatekeeperClient (Builder builder)
   {
     this.context_ = builder.context_;
     this.config_ = builder.config_;
+    this.requestScheduler_ = builder.requestScheduler_;
 
     this.httpClient_ =
         builder.httpClient_
@@ -191,7 +210,11 @@ public class GatekeeperClient
 
     // Create the remoting endpoints.
     this.methods_ = retrofit.create (ClientMethods.class);
-    this.accountEndpoint_ = ResourceEndpoint.create (retrofit, "account", "accounts");
+
+    // The user is waiting on the requests of the client (e.g., to sign in).
+    this.accountEndpoint_ =
+        ResourceEndpoint.<JsonAccount> create (retrofit, "account", "accounts", this.requestScheduler_)
+            .withPriority (RequestScheduler.Priority.INTERACTIVE);
   }
 
   /**
@@ -209,6 +232,16 @@ public class GatekeeperClient
     return this.config_;
   }
 
+  /**
+   * Get the scheduler for the requests of the client.
+   *
+   * @return        RequestScheduler object
+   */
+  public RequestScheduler getRequestScheduler ()
+  {
+    return this.requestScheduler_;
+  }
+
   /**
    * Create a new account.
    *
@@ -327,7 +360,7 @@ public class GatekeeperClient
   private <T> Promise <T> execute (Call <T> call)
   {
     return new Promise<> (settlement -> {
-      call.enqueue (new Callback<T> ()
+      this.requestScheduler_.enqueue (call, RequestScheduler.Priority.INTERACTIVE, new Callback<T> ()
       {
         @Override
         public void onResponse (Call<T> call, Response<T> response)
@@ -12,6 +12,7 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.typeadapters.RuntimeTypeAdapterFactory;
 import com.onehilltech.backbone.data.DataStore;
 import com.onehilltech.backbone.data.HttpError;
+import com.onehilltech.backbone.data.RequestScheduler;
 import com.onehilltech.backbone.data.Resource;
 import com.onehilltech.backbone.data.ResourceSerializer;
 import com.onehilltech.backbone.gatekeeper.http.JsonAccount;
@@ -600,7 +601,7 @@ public class GatekeeperSessionClient
     return new Promise<> ("gatekeeper:signOut", settlement -> {
       LOG.info ("Signing out current user");
 
-      this.userMethods_.logout ().enqueue (new Callback<Boolean> ()
+      this.enqueue (this.userMethods_.logout (), new Callback<Boolean> ()
       {
         @Override
         @ParametersAreNonnullByDefault
@@ -654,7 +655,7 @@ public class GatekeeperSessionClient
 
       Resource r = new Resource ("change-password", change);
 
-      this.userMethods_.changePassword (r).enqueue (new Callback<Boolean> ()
+      this.enqueue (this.userMethods_.changePassword (r), new Callback<Boolean> ()
       {
         @Override
         @ParametersAreNonnullByDefault
@@ -701,10 +702,19 @@ public class GatekeeperSessionClient
     return this.executeCall (this.methods_.getUserToken (grant));
   }
 
+  /**
+   * Schedule a call on the request scheduler of the client. The user is waiting on the
+   * session requests, so they are interactive.
+   */
+  private <T> void enqueue (Call <T> call, Callback <T> callback)
+  {
+    this.client_.getRequestScheduler ().enqueue (call, RequestScheduler.Priority.INTERACTIVE, callback);
+  }
+
   private <T> Promise <T> executeCall (Call <T> call)
   {
     return new Promise<> ("gatekeeper:executeCall", settlement ->
-      call.enqueue (new Callback<T> () {
+      this.enqueue (call, new Callback<T> () {
         @Override
         @ParametersAreNonnullByDefault
         public void onResponse (Call<T> call, retrofit2.Response<T> response)